@@ -29,10 +29,13 @@ import com.yandex.money.api.model.AccountType;
 import com.yandex.money.api.model.Avatar;
 import com.yandex.money.api.model.BalanceDetails;
 import com.yandex.money.api.model.Card;
+import com.yandex.money.api.model.Scope;
 import com.yandex.money.api.model.YandexMoneyCard;
 import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.IdempotentRequest;
 import com.yandex.money.api.net.MethodResponse;
 import com.yandex.money.api.net.PostRequest;
+import com.yandex.money.api.net.ScopedRequest;
 import com.yandex.money.api.typeadapters.AccountInfoTypeAdapter;
 import com.yandex.money.api.utils.Currency;
 import com.yandex.money.api.utils.Strings;
@@ -40,6 +43,7 @@ import com.yandex.money.api.utils.Strings;
 import java.math.BigDecimal;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Information of user account.
@@ -333,7 +337,8 @@ public class AccountInfo implements MethodResponse {
      *
      * @see com.yandex.money.api.net.OAuth2Session
      */
-    public static final class Request extends PostRequest<AccountInfo> {
+    public static final class Request extends PostRequest<AccountInfo>
+            implements IdempotentRequest, ScopedRequest {
 
         public Request() {
             super(AccountInfo.class, AccountInfoTypeAdapter.getInstance());
@@ -343,5 +348,10 @@ public class AccountInfo implements MethodResponse {
         public String requestUrl(HostsProvider hostsProvider) {
             return hostsProvider.getMoneyApi() + "/account-info";
         }
+
+        @Override
+        public Set<Scope> getRequiredScopes() {
+            return Collections.singleton(Scope.ACCOUNT_INFO);
+        }
     }
 }
@@ -30,11 +30,15 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.yandex.money.api.model.Error;
+import com.yandex.money.api.model.Scope;
 import com.yandex.money.api.net.HostsProvider;
 import com.yandex.money.api.net.MethodResponse;
 import com.yandex.money.api.net.PostRequest;
+import com.yandex.money.api.net.ScopedRequest;
 
 import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.Set;
 
 /**
  * Incoming transfer accept result.
@@ -115,7 +119,8 @@ public class IncomingTransferAccept implements MethodResponse {
      *
      * @see com.yandex.money.api.net.OAuth2Session
      */
-    public static final class Request extends PostRequest<IncomingTransferAccept> {
+    public static final class Request extends PostRequest<IncomingTransferAccept>
+            implements ScopedRequest {
 
         /**
          * Constructor.
@@ -136,6 +141,11 @@ public class IncomingTransferAccept implements MethodResponse {
         public String requestUrl(HostsProvider hostsProvider) {
             return hostsProvider.getMoneyApi() + "/incoming-transfer-accept";
         }
+
+        @Override
+        public Set<Scope> getRequiredScopes() {
+            return Collections.singleton(Scope.INCOMING_TRANSFERS);
+        }
     }
 
     private static final class Deserializer implements JsonDeserializer<IncomingTransferAccept> {
@@ -30,11 +30,15 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.yandex.money.api.model.Error;
+import com.yandex.money.api.model.Scope;
 import com.yandex.money.api.net.HostsProvider;
 import com.yandex.money.api.net.MethodResponse;
 import com.yandex.money.api.net.PostRequest;
+import com.yandex.money.api.net.ScopedRequest;
 
 import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.Set;
 
 /**
  * Incoming transfer reject operation.
@@ -105,7 +109,8 @@ public class IncomingTransferReject implements MethodResponse {
      *
      * @see com.yandex.money.api.net.OAuth2Session
      */
-    public static final class Request extends PostRequest<IncomingTransferReject> {
+    public static final class Request extends PostRequest<IncomingTransferReject>
+            implements ScopedRequest {
 
         /**
          * Constructor.
@@ -124,6 +129,11 @@ public class IncomingTransferReject implements MethodResponse {
         public String requestUrl(HostsProvider hostsProvider) {
             return hostsProvider.getMoneyApi() + "/incoming-transfer-reject";
         }
+
+        @Override
+        public Set<Scope> getRequiredScopes() {
+            return Collections.singleton(Scope.INCOMING_TRANSFERS);
+        }
     }
 
     private static final class Deserializer implements JsonDeserializer<IncomingTransferReject> {
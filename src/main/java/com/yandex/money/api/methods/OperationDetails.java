@@ -31,11 +31,16 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.yandex.money.api.model.Error;
 import com.yandex.money.api.model.Operation;
+import com.yandex.money.api.model.Scope;
 import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.IdempotentRequest;
 import com.yandex.money.api.net.MethodResponse;
 import com.yandex.money.api.net.PostRequest;
+import com.yandex.money.api.net.ScopedRequest;
 
 import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.Set;
 
 /**
  * Operation details result.
@@ -73,7 +78,8 @@ public class OperationDetails implements MethodResponse {
      *
      * @see com.yandex.money.api.net.OAuth2Session
      */
-    public static class Request extends PostRequest<OperationDetails> {
+    public static class Request extends PostRequest<OperationDetails>
+            implements IdempotentRequest, ScopedRequest {
 
         /**
          * Constructor.
@@ -89,6 +95,11 @@ public class OperationDetails implements MethodResponse {
         public String requestUrl(HostsProvider hostsProvider) {
             return hostsProvider.getMoneyApi() + "/operation-details";
         }
+
+        @Override
+        public Set<Scope> getRequiredScopes() {
+            return Collections.singleton(Scope.OPERATION_DETAILS);
+        }
     }
 
     private static final class Deserializer implements JsonDeserializer<OperationDetails> {
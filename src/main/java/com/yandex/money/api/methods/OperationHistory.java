@@ -31,9 +31,14 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.yandex.money.api.model.Error;
 import com.yandex.money.api.model.Operation;
+import com.yandex.money.api.model.Scope;
 import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.IdempotentRequest;
 import com.yandex.money.api.net.MethodResponse;
 import com.yandex.money.api.net.PostRequest;
+import com.yandex.money.api.net.PrioritizedRequest;
+import com.yandex.money.api.net.ScopedRequest;
+import com.yandex.money.api.net.TrafficClass;
 import org.joda.time.DateTime;
 
 import java.lang.reflect.Type;
@@ -89,7 +94,8 @@ public class OperationHistory implements MethodResponse {
      *
      * @see com.yandex.money.api.net.OAuth2Session
      */
-    public static class Request extends PostRequest<OperationHistory> {
+    public static class Request extends PostRequest<OperationHistory>
+            implements IdempotentRequest, PrioritizedRequest, ScopedRequest {
 
         /**
          * Use builder to create the request.
@@ -126,6 +132,16 @@ public class OperationHistory implements MethodResponse {
             return hostsProvider.getMoneyApi() + "/operation-history";
         }
 
+        @Override
+        public Set<Scope> getRequiredScopes() {
+            return Collections.singleton(Scope.OPERATION_HISTORY);
+        }
+
+        @Override
+        public TrafficClass getTrafficClass() {
+            return TrafficClass.BULK;
+        }
+
         private static String prepareTypeValue(Set<FilterType> types) {
             StringBuilder builder = new StringBuilder();
             Iterator<FilterType> iterator = types.iterator();
@@ -33,6 +33,8 @@ import com.yandex.money.api.model.Error;
 import com.yandex.money.api.model.ExternalCard;
 import com.yandex.money.api.net.HostsProvider;
 import com.yandex.money.api.net.PostRequest;
+import com.yandex.money.api.net.PrioritizedRequest;
+import com.yandex.money.api.net.TrafficClass;
 import com.yandex.money.api.utils.Strings;
 
 import java.lang.reflect.Type;
@@ -72,7 +74,8 @@ public class ProcessExternalPayment extends BaseProcessPayment {
     /**
      * Request for processing external payment.
      */
-    public static final class Request extends PostRequest<ProcessExternalPayment> {
+    public static final class Request extends PostRequest<ProcessExternalPayment>
+            implements PrioritizedRequest {
 
         /**
          * For paying with a new card.
@@ -138,6 +141,11 @@ public class ProcessExternalPayment extends BaseProcessPayment {
             return hostsProvider.getMoneyApi() + "/process-external-payment";
         }
 
+        @Override
+        public TrafficClass getTrafficClass() {
+            return TrafficClass.CRITICAL;
+        }
+
         private static final class Deserializer
                 implements JsonDeserializer<ProcessExternalPayment> {
 
@@ -34,6 +34,8 @@ import com.yandex.money.api.model.Error;
 import com.yandex.money.api.model.MoneySource;
 import com.yandex.money.api.net.HostsProvider;
 import com.yandex.money.api.net.PostRequest;
+import com.yandex.money.api.net.PrioritizedRequest;
+import com.yandex.money.api.net.TrafficClass;
 
 import java.lang.reflect.Type;
 import java.math.BigDecimal;
@@ -103,7 +105,8 @@ public class ProcessPayment extends BaseProcessPayment {
      *
      * @see com.yandex.money.api.net.OAuth2Session
      */
-    public static final class Request extends PostRequest<ProcessPayment> {
+    public static final class Request extends PostRequest<ProcessPayment>
+            implements PrioritizedRequest {
 
         /**
          * Repeat request using the same request id. This is used when {@link ProcessPayment} is in
@@ -147,6 +150,11 @@ public class ProcessPayment extends BaseProcessPayment {
             return hostsProvider.getMoneyApi() + "/process-payment";
         }
 
+        @Override
+        public TrafficClass getTrafficClass() {
+            return TrafficClass.CRITICAL;
+        }
+
         /**
          * Sets if test card is available. Automatically sets {@code test_payment} parameter.
          *
@@ -33,6 +33,8 @@ import com.yandex.money.api.methods.params.PaymentParams;
 import com.yandex.money.api.model.Error;
 import com.yandex.money.api.net.HostsProvider;
 import com.yandex.money.api.net.PostRequest;
+import com.yandex.money.api.net.PrioritizedRequest;
+import com.yandex.money.api.net.TrafficClass;
 import com.yandex.money.api.utils.Strings;
 
 import java.lang.reflect.Type;
@@ -70,7 +72,8 @@ public class RequestExternalPayment extends BaseRequestPayment {
     /**
      * Requests context of external payment.
      */
-    public static class Request extends PostRequest<RequestExternalPayment> {
+    public static class Request extends PostRequest<RequestExternalPayment>
+            implements PrioritizedRequest {
 
         /**
          * Use static methods to create
@@ -131,6 +134,11 @@ public class RequestExternalPayment extends BaseRequestPayment {
             return hostsProvider.getMoneyApi() + "/request-external-payment";
         }
 
+        @Override
+        public TrafficClass getTrafficClass() {
+            return TrafficClass.CRITICAL;
+        }
+
         private static final class Deserializer
                 implements JsonDeserializer<RequestExternalPayment> {
 
@@ -24,6 +24,8 @@
 
 package com.yandex.money.api.methods;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
@@ -37,7 +39,11 @@ import com.yandex.money.api.model.Error;
 import com.yandex.money.api.model.MoneySource;
 import com.yandex.money.api.model.Wallet;
 import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.ParametersTemplate;
 import com.yandex.money.api.net.PostRequest;
+import com.yandex.money.api.net.PreEncodedRequest;
+import com.yandex.money.api.net.PrioritizedRequest;
+import com.yandex.money.api.net.TrafficClass;
 import com.yandex.money.api.typeadapters.CardTypeAdapter;
 import com.yandex.money.api.utils.Strings;
 
@@ -108,7 +114,8 @@ public class RequestPayment extends BaseRequestPayment {
      *
      * @see com.yandex.money.api.net.OAuth2Session
      */
-    public static final class Request extends PostRequest<RequestPayment> {
+    public static final class Request extends PostRequest<RequestPayment>
+            implements PrioritizedRequest {
 
         /**
          * Use static methods to create
@@ -156,6 +163,11 @@ public class RequestPayment extends BaseRequestPayment {
             return hostsProvider.getMoneyApi() + "/request-payment";
         }
 
+        @Override
+        public TrafficClass getTrafficClass() {
+            return TrafficClass.CRITICAL;
+        }
+
         /**
          * Sets if test card is available. Automatically sets {@code test_payment} parameter.
          *
@@ -179,6 +191,125 @@ public class RequestPayment extends BaseRequestPayment {
         }
     }
 
+    /**
+     * Template of {@link com.yandex.money.api.methods.RequestPayment.Request} for repeated
+     * payments that differ in a few parameters only (e.g. {@code to}, {@code amount} and
+     * {@code label}). Constant parameters are encoded once, so creating a request encodes only
+     * values of slots. Requests created by the same template share response parser.
+     * <p/>
+     * Templates are immutable and can be shared between threads.
+     */
+    public static final class Template {
+
+        private final ParametersTemplate parameters;
+        private final Gson gson = new GsonBuilder()
+                .registerTypeAdapter(RequestPayment.class, new Deserializer())
+                .create();
+
+        private Template(ParametersTemplate parameters) {
+            this.parameters = parameters;
+        }
+
+        /**
+         * Creates template using parameters of a payment as constant parameters.
+         *
+         * @param paymentParams sample payment parameters
+         * @param slots keys of variable parameters, sample values of them are ignored
+         * @return new template
+         */
+        public static Template create(PaymentParams paymentParams, String... slots) {
+            if (paymentParams == null) {
+                throw new NullPointerException("paymentParams is null");
+            }
+            return create(paymentParams.getPatternId(), paymentParams.makeParams(), slots);
+        }
+
+        /**
+         * Creates template for general purposes.
+         *
+         * @param patternId pattern_id (p2p, phone-topup or shop)
+         * @param params constant payment parameters
+         * @param slots keys of variable parameters
+         * @return new template
+         */
+        public static Template create(String patternId, Map<String, String> params,
+                                      String... slots) {
+
+            Strings.checkNotNullAndNotEmpty(patternId, "patternId");
+            if (params == null) {
+                throw new NullPointerException("params is null");
+            }
+            if (slots == null || slots.length == 0) {
+                throw new IllegalArgumentException("slots is null or empty");
+            }
+            ParametersTemplate.Builder builder = new ParametersTemplate.Builder()
+                    .addParameter("pattern_id", patternId)
+                    .addParameters(params);
+            for (String slot : slots) {
+                builder.addSlot(slot);
+            }
+            return new Template(builder.create());
+        }
+
+        /**
+         * @return keys of variable parameters in order their values are passed to
+         * {@link #newRequest(String...)}
+         */
+        public List<String> getSlots() {
+            return parameters.getSlots();
+        }
+
+        /**
+         * Creates request.
+         *
+         * @param values values of variable parameters in order of {@link #getSlots()}
+         * @return new request instance
+         */
+        public TemplateRequest newRequest(String... values) {
+            return new TemplateRequest(gson, parameters.encode(values));
+        }
+
+        @Override
+        public String toString() {
+            return "Template{" +
+                    "parameters=" + parameters +
+                    '}';
+        }
+    }
+
+    /**
+     * Request for a payment context created by {@link Template}.
+     * <p/>
+     * Authorized session required.
+     *
+     * @see com.yandex.money.api.net.OAuth2Session
+     */
+    public static final class TemplateRequest extends PostRequest<RequestPayment>
+            implements PreEncodedRequest, PrioritizedRequest {
+
+        private final byte[] body;
+
+        private TemplateRequest(Gson gson, byte[] body) {
+            super(RequestPayment.class, gson);
+            this.body = body;
+        }
+
+        @Override
+        public String requestUrl(HostsProvider hostsProvider) {
+            return hostsProvider.getMoneyApi() + "/request-payment";
+        }
+
+        @Override
+        public TrafficClass getTrafficClass() {
+            return TrafficClass.CRITICAL;
+        }
+
+        @Override
+        public byte[] getBody() {
+            return body;
+        }
+    }
+
     /**
      * Test results.
      */
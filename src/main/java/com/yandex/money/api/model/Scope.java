@@ -162,6 +162,11 @@ public class Scope {
         }
     }
 
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
     /**
      * @return fully qualified name for use in requests
      */
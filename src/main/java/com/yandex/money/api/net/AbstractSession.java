@@ -27,29 +27,42 @@ package com.yandex.money.api.net;
 import com.squareup.okhttp.CacheControl;
 import com.squareup.okhttp.Call;
 import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
 import com.squareup.okhttp.Response;
 import com.yandex.money.api.utils.HttpHeaders;
-import com.yandex.money.api.utils.Language;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import okio.BufferedSource;
+import okio.Okio;
 
 /**
  * Abstract session that provides convenience methods to work with requests.
+ * <p/>
+ * Headers common for all requests (user agent, language) are taken from the client once, on the
+ * first request of a session.
  *
  * @author Slava Yasevich (vyasevich@yamoney.ru)
  */
 public abstract class AbstractSession {
 
     private static final Logger LOGGER = Logger.getLogger(OAuth2Session.class.getName());
+    private static final int DEFAULT_DEBUG_LOGGING_LIMIT = 4 * 1024;
+    private static final String GZIP = "gzip";
+    private static final int GZIP_BUFFER_SIZE = 8 * 1024;
 
     protected final ApiClient client;
 
     private final CacheControl cacheControl = new CacheControl.Builder().noCache().build();
 
     private boolean debugLogging = false;
+    private int debugLoggingLimit = DEFAULT_DEBUG_LOGGING_LIMIT;
+    private boolean gzipEnabled = true;
+    private volatile RequestPrototype prototype;
 
     /**
      * Constructor.
@@ -72,6 +85,29 @@ public abstract class AbstractSession {
         this.debugLogging = debugLogging;
     }
 
+    /**
+     * Sets maximum number of bytes of a response to log. Default is 4 KB.
+     *
+     * @param debugLoggingLimit number of bytes
+     */
+    public final void setDebugLoggingLimit(int debugLoggingLimit) {
+        if (debugLoggingLimit < 0) {
+            throw new IllegalArgumentException("debugLoggingLimit is negative");
+        }
+        this.debugLoggingLimit = debugLoggingLimit;
+    }
+
+    /**
+     * Sets compression of responses. When enabled gzip encoding is requested and responses are
+     * inflated while being parsed. Enabled by default.
+     *
+     * @param gzipEnabled {@code true} if compression is required
+     */
+    public final void setGzipEnabled(boolean gzipEnabled) {
+        this.gzipEnabled = gzipEnabled;
+        prototype = null;
+    }
+
     protected final <T> Call prepareCall(ApiRequest<T> request) {
         return prepareCall(prepareRequestBuilder(request));
     }
@@ -80,27 +116,24 @@ public abstract class AbstractSession {
         if (builder == null) {
             throw new NullPointerException("builder is null");
         }
-        return client.getHttpClient()
-                .newCall(builder.build());
+        return prepareCall(builder.build());
     }
 
-    protected final <T> Request.Builder prepareRequestBuilder(ApiRequest<T> request) {
+    protected final Call prepareCall(Request request) {
         if (request == null) {
             throw new NullPointerException("request is null");
         }
+        return client.getHttpClient()
+                .newCall(request);
+    }
 
-        Request.Builder builder = new Request.Builder()
-                .cacheControl(cacheControl);
-
-        UserAgent userAgent = client.getUserAgent();
-        if (userAgent != null) {
-            builder.addHeader(HttpHeaders.USER_AGENT, userAgent.getName());
+    protected final <T> Request.Builder prepareRequestBuilder(ApiRequest<T> request) {
+        if (request == null) {
+            throw new NullPointerException("request is null");
         }
 
-        Language language = client.getLanguage();
-        if (language != null) {
-            builder.addHeader(HttpHeaders.ACCEPT_LANGUAGE, language.iso6391Code);
-        }
+        Request.Builder builder = getPrototype().newBuilder()
+                .tag(request);
 
         for (Map.Entry<String, String> entry : request.getHeaders().entrySet()) {
             String value = entry.getValue();
@@ -119,8 +152,12 @@ public abstract class AbstractSession {
                 break;
             }
             case POST: {
+                RequestBody body = request instanceof PreEncodedRequest ?
+                        RequestBody.create(ParametersBuffer.CONTENT_TYPE,
+                                ((PreEncodedRequest) request).getBody()) :
+                        parametersBuffer.prepareBody();
                 builder.url(request.requestUrl(client.getHostsProvider()))
-                        .post(parametersBuffer.prepareBody());
+                        .post(body);
                 break;
             }
             default:
@@ -131,6 +168,15 @@ public abstract class AbstractSession {
         return builder;
     }
 
+    private RequestPrototype getPrototype() {
+        RequestPrototype prototype = this.prototype;
+        if (prototype == null) {
+            prototype = RequestPrototype.create(client, cacheControl, gzipEnabled);
+            this.prototype = prototype;
+        }
+        return prototype;
+    }
+
     /**
      * Gets input stream from response. Logging can be applied if
      * {@link com.yandex.money.api.net.OAuth2Session#setDebugLogging(boolean)} is set to
@@ -140,8 +186,24 @@ public abstract class AbstractSession {
      * @return input stream
      */
     protected final InputStream getInputStream(Response response) throws IOException {
-        InputStream stream = response.body().byteStream();
-        return debugLogging ? new ResponseLoggingInputStream(stream) : stream;
+        return getInputStream(response, response.body().byteStream());
+    }
+
+    /**
+     * Gets input stream from response body. Compressed body is inflated on the fly. Logging can be
+     * applied if {@link com.yandex.money.api.net.OAuth2Session#setDebugLogging(boolean)} is set to
+     * {@code true}.
+     *
+     * @param response response reference
+     * @param body stream of response body as received from network
+     * @return input stream
+     */
+    protected final InputStream getInputStream(Response response, InputStream body)
+            throws IOException {
+        InputStream stream = isGzipped(response) ? new GZIPInputStream(body, GZIP_BUFFER_SIZE) :
+                body;
+        return debugLogging ? new ResponseLoggingInputStream(stream,
+                response.request().urlString(), debugLoggingLimit) : stream;
     }
 
     /**
@@ -154,10 +216,24 @@ public abstract class AbstractSession {
         String field = response.header(HttpHeaders.WWW_AUTHENTICATE);
         LOGGER.warning("Server has responded with a error: " + getError(response) + "\n" +
                 HttpHeaders.WWW_AUTHENTICATE + ": " + field);
-        LOGGER.warning(response.body().string());
+        LOGGER.warning(readBody(response));
         return field;
     }
 
+    private static boolean isGzipped(Response response) {
+        return GZIP.equalsIgnoreCase(response.header(HttpHeaders.CONTENT_ENCODING));
+    }
+
+    private static String readBody(Response response) throws IOException {
+        if (!isGzipped(response)) {
+            return response.body().string();
+        }
+        try (BufferedSource source = Okio.buffer(Okio.source(
+                new GZIPInputStream(response.body().byteStream())))) {
+            return source.readUtf8();
+        }
+    }
+
     private String getError(Response response) {
         return "HTTP " + response.code() + " " + response.message();
     }
@@ -0,0 +1,339 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits number of concurrent requests. The limit is adjusted using observed round-trip times:
+ * while latency stays close to the lowest one seen the limit grows, when latency rises (requests
+ * start queueing on the server side) or requests are dropped the limit shrinks. Requests that do
+ * not fit into the limit are queued.
+ * <p/>
+ * Every acquired permit must be released with {@link #release(long, boolean)} or
+ * {@link #release()}.
+ *
+ * @see OAuth2Session#setConcurrencyLimiter(AdaptiveConcurrencyLimiter)
+ */
+public final class AdaptiveConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double smoothing;
+    private final int probeInterval;
+
+    private final Object lock = new Object();
+    private final Deque<Runnable> queue = new ArrayDeque<>();
+
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    private long rttNoLoad;
+    private int samples;
+
+    private AdaptiveConcurrencyLimiter(Builder builder) {
+        if (builder.minLimit < 1) {
+            throw new IllegalArgumentException("minLimit should be greater than 0");
+        }
+        if (builder.maxLimit < builder.minLimit) {
+            throw new IllegalArgumentException("maxLimit is less than minLimit");
+        }
+        if (builder.initialLimit < builder.minLimit || builder.initialLimit > builder.maxLimit) {
+            throw new IllegalArgumentException("initialLimit is out of [minLimit, maxLimit]");
+        }
+        if (builder.smoothing <= 0 || builder.smoothing > 1) {
+            throw new IllegalArgumentException("smoothing should be in (0, 1]");
+        }
+        if (builder.probeInterval < 1) {
+            throw new IllegalArgumentException("probeInterval should be greater than 0");
+        }
+        minLimit = builder.minLimit;
+        maxLimit = builder.maxLimit;
+        smoothing = builder.smoothing;
+        probeInterval = builder.probeInterval;
+        limit = builder.initialLimit;
+    }
+
+    /**
+     * Blocks current thread until a permit is available.
+     *
+     * @throws InterruptedIOException if thread was interrupted while waiting
+     */
+    public void acquire() throws InterruptedIOException {
+        synchronized (lock) {
+            waiting++;
+            try {
+                while (!hasPermit()) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for a permit");
+            } finally {
+                waiting--;
+            }
+            inFlight++;
+        }
+    }
+
+    /**
+     * Blocks current thread until a permit is available or timeout elapses.
+     *
+     * @param timeout maximum time to wait
+     * @param unit unit of timeout
+     * @return {@code true} if a permit was acquired
+     * @throws InterruptedIOException if thread was interrupted while waiting
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedIOException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            waiting++;
+            try {
+                while (!hasPermit()) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(lock, left);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for a permit");
+            } finally {
+                waiting--;
+            }
+            inFlight++;
+            return true;
+        }
+    }
+
+    /**
+     * Runs the task as soon as a permit is available. If there is a permit the task is run on the
+     * calling thread, otherwise it is queued and run on a thread that releases a permit. So the
+     * task should be short and must not block.
+     *
+     * @param task task to run holding a permit
+     */
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException("task is null");
+        }
+        synchronized (lock) {
+            if (!queue.isEmpty() || !hasPermit()) {
+                queue.add(task);
+                return;
+            }
+            inFlight++;
+        }
+        task.run();
+    }
+
+    /**
+     * Releases a permit and adjusts the limit.
+     *
+     * @param rttNanos round-trip time of a request in nanoseconds
+     * @param dropped {@code true} if request failed due to timeout, connectivity problem or server
+     *                overload
+     */
+    public void release(long rttNanos, boolean dropped) {
+        List<Runnable> tasks;
+        synchronized (lock) {
+            inFlight--;
+            update(rttNanos, dropped);
+            tasks = drain();
+        }
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
+    /**
+     * Releases a permit without adjusting the limit. Use it when a request was canceled.
+     */
+    public void release() {
+        release(0, false);
+    }
+
+    /**
+     * @return current limit of concurrent requests
+     */
+    public int getLimit() {
+        synchronized (lock) {
+            return currentLimit();
+        }
+    }
+
+    /**
+     * @return number of requests holding a permit
+     */
+    public int getInFlight() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    /**
+     * @return number of requests waiting for a permit
+     */
+    public int getQueueLength() {
+        synchronized (lock) {
+            return queue.size() + waiting;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return "AdaptiveConcurrencyLimiter{" +
+                    "limit=" + currentLimit() +
+                    ", inFlight=" + inFlight +
+                    ", queueLength=" + (queue.size() + waiting) +
+                    '}';
+        }
+    }
+
+    private void update(long rttNanos, boolean dropped) {
+        if (dropped) {
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            return;
+        }
+        if (rttNanos <= 0) {
+            return;
+        }
+
+        if (++samples >= probeInterval) {
+            // let the lowest rtt float up if conditions of network have changed
+            samples = 0;
+            rttNoLoad = rttNanos;
+        } else if (rttNoLoad == 0 || rttNanos < rttNoLoad) {
+            rttNoLoad = rttNanos;
+        }
+
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, (double) rttNoLoad / rttNanos));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        if (newLimit > limit && (inFlight + 1) * 2 < limit) {
+            return; // do not grow if the limit is not actually used
+        }
+        newLimit = limit * (1 - smoothing) + newLimit * smoothing;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    private List<Runnable> drain() {
+        List<Runnable> tasks = Collections.emptyList();
+        while (!queue.isEmpty() && hasPermit()) {
+            if (tasks.isEmpty()) {
+                tasks = new ArrayList<>();
+            }
+            tasks.add(queue.poll());
+            inFlight++;
+        }
+        if (waiting > 0 && hasPermit()) {
+            lock.notifyAll();
+        }
+        return tasks;
+    }
+
+    private boolean hasPermit() {
+        return inFlight < currentLimit();
+    }
+
+    private int currentLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Creates {@link AdaptiveConcurrencyLimiter} instance.
+     */
+    public static final class Builder {
+
+        private int initialLimit = 10;
+        private int minLimit = 1;
+        private int maxLimit = 200;
+        private double smoothing = 0.2;
+        private int probeInterval = 1000;
+
+        /**
+         * @param initialLimit limit to start with (default is 10)
+         * @return itself
+         */
+        public Builder setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        /**
+         * @param minLimit the limit will never go lower (default is 1)
+         * @return itself
+         */
+        public Builder setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+            return this;
+        }
+
+        /**
+         * @param maxLimit the limit will never go higher (default is 200)
+         * @return itself
+         */
+        public Builder setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        /**
+         * @param smoothing how fast the limit follows estimations, in (0, 1] (default is 0.2)
+         * @return itself
+         */
+        public Builder setSmoothing(double smoothing) {
+            this.smoothing = smoothing;
+            return this;
+        }
+
+        /**
+         * @param probeInterval number of samples after which the lowest round-trip time is
+         *                      estimated again (default is 1000)
+         * @return itself
+         */
+        public Builder setProbeInterval(int probeInterval) {
+            this.probeInterval = probeInterval;
+            return this;
+        }
+
+        /**
+         * @return {@link AdaptiveConcurrencyLimiter} instance
+         */
+        public AdaptiveConcurrencyLimiter create() {
+            return new AdaptiveConcurrencyLimiter(this);
+        }
+    }
+}
@@ -0,0 +1,555 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Result of asynchronous execution of a request. Futures can be composed without blocking
+ * threads: {@link #thenApply(Function)} transforms a result, {@link #thenCompose(AsyncFunction)}
+ * starts next request when a result is ready, {@link #all(List)} waits for many futures.
+ * <p/>
+ * Canceling a future cancels the HTTP call it depends on, including calls of futures it was
+ * composed from. Callbacks are called on a thread that completes the future or on a thread that
+ * adds a callback if the future is already completed.
+ *
+ * @param <T> result type
+ * @see OAuth2Session#enqueue(ApiRequest)
+ */
+public class ApiFuture<T> implements Future<T> {
+
+    private static final Logger LOG = Logger.getLogger(ApiFuture.class.getName());
+    private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELED = 3;
+
+    private final Object lock = new Object();
+
+    private int state = PENDING;
+    private T result;
+    private Exception exception;
+    private List<OnResponseReady<? super T>> callbacks = new ArrayList<>();
+    private Runnable canceller;
+
+    ApiFuture() {
+    }
+
+    /**
+     * Creates already completed future.
+     *
+     * @param result result
+     * @param <T> result type
+     * @return completed future
+     */
+    public static <T> ApiFuture<T> succeeded(T result) {
+        ApiFuture<T> future = new ApiFuture<>();
+        future.complete(result);
+        return future;
+    }
+
+    /**
+     * Creates already failed future.
+     *
+     * @param exception cause of failure
+     * @param <T> result type
+     * @return failed future
+     */
+    public static <T> ApiFuture<T> failed(Exception exception) {
+        if (exception == null) {
+            throw new NullPointerException("exception is null");
+        }
+        ApiFuture<T> future = new ApiFuture<>();
+        future.fail(exception);
+        return future;
+    }
+
+    /**
+     * Combines futures into one that succeeds with results of all of them in the same order or
+     * fails with the first failure. If the combined future fails or is canceled remaining
+     * futures are canceled.
+     *
+     * @param futures futures to combine
+     * @param <T> result type
+     * @return combined future
+     */
+    public static <T> ApiFuture<List<T>> all(List<? extends ApiFuture<? extends T>> futures) {
+        if (futures == null) {
+            throw new NullPointerException("futures is null");
+        }
+
+        final List<ApiFuture<? extends T>> sources = new ArrayList<>(futures);
+        final ApiFuture<List<T>> combined = new ApiFuture<>();
+        if (sources.isEmpty()) {
+            combined.complete(Collections.<T>emptyList());
+            return combined;
+        }
+
+        final Object[] results = new Object[sources.size()];
+        final AtomicInteger remaining = new AtomicInteger(results.length);
+        final Runnable cancelAll = new Runnable() {
+            @Override
+            public void run() {
+                for (ApiFuture<? extends T> source : sources) {
+                    source.cancel(true);
+                }
+            }
+        };
+        combined.setCanceller(cancelAll);
+
+        for (int i = 0; i < results.length; ++i) {
+            final int index = i;
+            sources.get(i).addCallback(new OnResponseReady<T>() {
+                @Override
+                public void onFailure(Exception exception) {
+                    if (combined.fail(exception)) {
+                        cancelAll.run();
+                    }
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public void onResponse(T response) {
+                    results[index] = response;
+                    if (remaining.decrementAndGet() == 0) {
+                        List<T> list = new ArrayList<>(results.length);
+                        for (Object result : results) {
+                            list.add((T) result);
+                        }
+                        combined.complete(list);
+                    }
+                }
+            });
+        }
+        return combined;
+    }
+
+    /**
+     * Adds callback which is called when this future is completed. If the future is canceled
+     * {@link OnResponseReady#onFailure(Exception)} is called with {@link CancellationException}.
+     *
+     * @param callback callback
+     * @return itself
+     */
+    public ApiFuture<T> addCallback(OnResponseReady<? super T> callback) {
+        if (callback == null) {
+            throw new NullPointerException("callback is null");
+        }
+        synchronized (lock) {
+            if (state == PENDING) {
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        notify(callback);
+        return this;
+    }
+
+    /**
+     * Transforms result of this future. Exceptions thrown by the function fail the returned
+     * future.
+     *
+     * @param function function to apply to a result
+     * @param <R> type of transformed result
+     * @return future of transformed result
+     */
+    public <R> ApiFuture<R> thenApply(final Function<? super T, ? extends R> function) {
+        if (function == null) {
+            throw new NullPointerException("function is null");
+        }
+        final ApiFuture<R> future = dependent();
+        addCallback(new OnResponseReady<T>() {
+            @Override
+            public void onFailure(Exception exception) {
+                future.fail(exception);
+            }
+
+            @Override
+            public void onResponse(T response) {
+                R result;
+                try {
+                    result = function.apply(response);
+                } catch (Exception e) {
+                    future.fail(e);
+                    return;
+                }
+                future.complete(result);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Starts next asynchronous operation when result of this future is ready. Canceling the
+     * returned future cancels the operation that is currently executed.
+     *
+     * @param function function that starts next operation
+     * @param <R> type of result of next operation
+     * @return future of next operation
+     */
+    public <R> ApiFuture<R> thenCompose(
+            final AsyncFunction<? super T, ? extends R> function) {
+
+        if (function == null) {
+            throw new NullPointerException("function is null");
+        }
+        final ApiFuture<R> future = dependent();
+        addCallback(new OnResponseReady<T>() {
+            @Override
+            public void onFailure(Exception exception) {
+                future.fail(exception);
+            }
+
+            @Override
+            public void onResponse(T response) {
+                final ApiFuture<? extends R> next;
+                try {
+                    next = function.apply(response);
+                    if (next == null) {
+                        throw new NullPointerException("function returned null");
+                    }
+                } catch (Exception e) {
+                    future.fail(e);
+                    return;
+                }
+                future.setCanceller(new Runnable() {
+                    @Override
+                    public void run() {
+                        next.cancel(true);
+                    }
+                });
+                next.addCallback(new OnResponseReady<R>() {
+                    @Override
+                    public void onFailure(Exception exception) {
+                        future.fail(exception);
+                    }
+
+                    @Override
+                    public void onResponse(R response) {
+                        future.complete(response);
+                    }
+                });
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Limits time to wait for a result. If the result is not ready in time the returned future
+     * fails with {@link TimeoutException} and this future is canceled.
+     *
+     * @param timeout timeout
+     * @param unit unit of timeout
+     * @return future which fails on timeout
+     */
+    public ApiFuture<T> withTimeout(long timeout, TimeUnit unit) {
+        if (unit == null) {
+            throw new NullPointerException("unit is null");
+        }
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout should be greater than 0");
+        }
+
+        final ApiFuture<T> future = dependent();
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        final ScheduledFuture<?> timer = TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                // canceling completes the returned future with timeout
+                timedOut.set(true);
+                cancel(true);
+            }
+        }, timeout, unit);
+        addCallback(new OnResponseReady<T>() {
+            @Override
+            public void onFailure(Exception exception) {
+                timer.cancel(false);
+                future.fail(timedOut.get() ? new TimeoutException("no result in time") :
+                        exception);
+            }
+
+            @Override
+            public void onResponse(T response) {
+                timer.cancel(false);
+                future.complete(response);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Cancels this future and the call it depends on.
+     *
+     * @param mayInterruptIfRunning ignored, calls are always canceled
+     * @return {@code true} if the future was canceled, {@code false} if it was already completed
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        Runnable canceller;
+        synchronized (lock) {
+            if (!setState(CANCELED, null, new CancellationException("canceled"))) {
+                return false;
+            }
+            canceller = this.canceller;
+            this.canceller = null;
+        }
+        if (canceller != null) {
+            canceller.run();
+        }
+        notifyCallbacks();
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        synchronized (lock) {
+            return state == CANCELED;
+        }
+    }
+
+    @Override
+    public boolean isDone() {
+        synchronized (lock) {
+            return state != PENDING;
+        }
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        synchronized (lock) {
+            while (state == PENDING) {
+                lock.wait();
+            }
+            return getResult();
+        }
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+            TimeoutException {
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (state == PENDING) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    throw new TimeoutException("no result in time");
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, left);
+            }
+            return getResult();
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return "ApiFuture{" +
+                    "state=" + state +
+                    ", result=" + result +
+                    ", exception=" + exception +
+                    '}';
+        }
+    }
+
+    /**
+     * Completes this future with result.
+     *
+     * @param result result
+     * @return {@code true} if the future was completed by this call
+     */
+    boolean complete(T result) {
+        synchronized (lock) {
+            if (!setState(SUCCEEDED, result, null)) {
+                return false;
+            }
+            canceller = null;
+        }
+        notifyCallbacks();
+        return true;
+    }
+
+    /**
+     * Completes this future with exception.
+     *
+     * @param exception cause of failure
+     * @return {@code true} if the future was completed by this call
+     */
+    boolean fail(Exception exception) {
+        synchronized (lock) {
+            if (!setState(FAILED, null, exception)) {
+                return false;
+            }
+            canceller = null;
+        }
+        notifyCallbacks();
+        return true;
+    }
+
+    /**
+     * Sets action that cancels an operation this future depends on. If the future is already
+     * canceled the action is run immediately.
+     *
+     * @param canceller cancel action
+     */
+    void setCanceller(Runnable canceller) {
+        synchronized (lock) {
+            if (state == PENDING) {
+                this.canceller = canceller;
+                return;
+            }
+            if (state != CANCELED) {
+                return;
+            }
+        }
+        canceller.run();
+    }
+
+    /**
+     * Runs a task after a delay on a shared timer thread. The task should be short.
+     *
+     * @param task task to run
+     * @param delay delay
+     * @param unit unit of delay
+     * @return future that can be used to cancel the task
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return TIMER.schedule(task, delay, unit);
+    }
+
+    private <R> ApiFuture<R> dependent() {
+        ApiFuture<R> future = new ApiFuture<>();
+        future.setCanceller(new Runnable() {
+            @Override
+            public void run() {
+                cancel(true);
+            }
+        });
+        return future;
+    }
+
+    private boolean setState(int state, T result, Exception exception) {
+        if (this.state != PENDING) {
+            return false;
+        }
+        this.state = state;
+        this.result = result;
+        this.exception = exception;
+        lock.notifyAll();
+        return true;
+    }
+
+    private T getResult() throws ExecutionException {
+        switch (state) {
+            case SUCCEEDED:
+                return result;
+            case CANCELED:
+                throw (CancellationException) exception;
+            default:
+                throw new ExecutionException(exception);
+        }
+    }
+
+    private void notifyCallbacks() {
+        List<OnResponseReady<? super T>> callbacks;
+        synchronized (lock) {
+            callbacks = this.callbacks;
+            this.callbacks = Collections.emptyList();
+        }
+        for (OnResponseReady<? super T> callback : callbacks) {
+            notify(callback);
+        }
+    }
+
+    private void notify(OnResponseReady<? super T> callback) {
+        int state;
+        T result;
+        Exception exception;
+        synchronized (lock) {
+            state = this.state;
+            result = this.result;
+            exception = this.exception;
+        }
+        try {
+            if (state == SUCCEEDED) {
+                callback.onResponse(result);
+            } else {
+                callback.onFailure(exception);
+            }
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "callback has thrown an exception", e);
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "ApiFutureTimer");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * Transforms a value.
+     *
+     * @param <T> type of value
+     * @param <R> type of result
+     */
+    public interface Function<T, R> {
+        R apply(T value) throws Exception;
+    }
+
+    /**
+     * Starts asynchronous operation using a value.
+     *
+     * @param <T> type of value
+     * @param <R> type of result of the operation
+     */
+    public interface AsyncFunction<T, R> {
+        ApiFuture<? extends R> apply(T value) throws Exception;
+    }
+}
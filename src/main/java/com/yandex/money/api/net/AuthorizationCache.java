@@ -0,0 +1,271 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import com.yandex.money.api.exceptions.InsufficientScopeException;
+import com.yandex.money.api.exceptions.InvalidTokenException;
+import com.yandex.money.api.model.Scope;
+import com.yandex.money.api.utils.Strings;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers what is known about access tokens: scopes granted to them and tokens rejected by the
+ * API. {@link OAuth2Session} uses it to fail requests that are certainly rejected without a
+ * round-trip: requests with a token known to be invalid fail with
+ * {@link InvalidTokenException} and {@link ScopedRequest}s with a token that lacks a required
+ * scope fail with {@link InsufficientScopeException}.
+ * <p/>
+ * Scopes are learned from {@link OAuth2Authorization.Params} and from responses with 403 code,
+ * invalid tokens are learned from responses with 401 code and from revocations. Tokens used least
+ * recently are forgotten when there are more than the configured maximum.
+ *
+ * @see OAuth2Session#setAuthorizationCache(AuthorizationCache)
+ */
+public final class AuthorizationCache {
+
+    private static final String INVALID_TOKEN = "Bearer error=\"invalid_token\"";
+    private static final String INSUFFICIENT_SCOPE = "Bearer error=\"insufficient_scope\"";
+
+    private final Object lock = new Object();
+    private final Map<String, TokenState> tokens;
+
+    private long rejectedCount;
+
+    private AuthorizationCache(final Builder builder) {
+        if (builder.maxTokens < 1) {
+            throw new IllegalArgumentException("maxTokens should be greater than 0");
+        }
+        tokens = new LinkedHashMap<String, TokenState>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TokenState> eldest) {
+                return size() > builder.maxTokens;
+            }
+        };
+    }
+
+    /**
+     * Remembers scopes granted to a token. Requests requiring other scopes are rejected locally.
+     *
+     * @param accessToken access token
+     * @param scopes granted scopes
+     */
+    public void putGrantedScopes(String accessToken, Set<Scope> scopes) {
+        checkToken(accessToken);
+        if (scopes == null) {
+            throw new NullPointerException("scopes is null");
+        }
+        synchronized (lock) {
+            getState(accessToken).granted = new HashSet<>(scopes);
+        }
+    }
+
+    /**
+     * Remembers scopes requested by authorization parameters the token was issued for. Does
+     * nothing if the parameters have raw scopes.
+     *
+     * @param accessToken access token
+     * @param params authorization parameters
+     */
+    public void putGrantedScopes(String accessToken, OAuth2Authorization.Params params) {
+        if (params == null) {
+            throw new NullPointerException("params is null");
+        }
+        Set<Scope> scopes = params.getScopes();
+        if (scopes != null) {
+            putGrantedScopes(accessToken, scopes);
+        }
+    }
+
+    /**
+     * Marks a token as invalid, for instance when it is revoked elsewhere.
+     *
+     * @param accessToken access token
+     */
+    public void invalidate(String accessToken) {
+        checkToken(accessToken);
+        onInvalidToken(accessToken, INVALID_TOKEN);
+    }
+
+    /**
+     * Forgets everything known about a token.
+     *
+     * @param accessToken access token
+     */
+    public void forget(String accessToken) {
+        synchronized (lock) {
+            tokens.remove(accessToken);
+        }
+    }
+
+    /**
+     * @param accessToken access token
+     * @return {@code true} if the token is known to be invalid
+     */
+    public boolean isInvalid(String accessToken) {
+        synchronized (lock) {
+            TokenState state = tokens.get(accessToken);
+            return state != null && state.invalid != null;
+        }
+    }
+
+    /**
+     * @return number of requests rejected locally
+     */
+    public long getRejectedCount() {
+        synchronized (lock) {
+            return rejectedCount;
+        }
+    }
+
+    /**
+     * Checks if a request is certainly rejected.
+     *
+     * @param request the request
+     * @param accessToken access token used for the request
+     * @throws InvalidTokenException if the token is invalid
+     * @throws InsufficientScopeException if the token lacks a required scope
+     */
+    void check(ApiRequest<?> request, String accessToken) throws InvalidTokenException,
+            InsufficientScopeException {
+
+        if (Strings.isNullOrEmpty(accessToken)) {
+            return;
+        }
+        Set<Scope> required = request instanceof ScopedRequest ?
+                ((ScopedRequest) request).getRequiredScopes() : null;
+        synchronized (lock) {
+            TokenState state = tokens.get(accessToken);
+            if (state == null) {
+                return;
+            }
+            if (state.invalid != null) {
+                rejectedCount++;
+                throw new InvalidTokenException(state.invalid);
+            }
+            if (required == null) {
+                return;
+            }
+            for (Scope scope : required) {
+                if (state.denied.contains(scope) ||
+                        (state.granted != null && !state.granted.contains(scope))) {
+                    rejectedCount++;
+                    throw new InsufficientScopeException(state.insufficientScope == null ?
+                            INSUFFICIENT_SCOPE : state.insufficientScope);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called when a token is rejected with 401 code.
+     *
+     * @param accessToken access token
+     * @param error value of {@code WWW-Authenticate} header
+     */
+    void onInvalidToken(String accessToken, String error) {
+        if (Strings.isNullOrEmpty(accessToken)) {
+            return;
+        }
+        synchronized (lock) {
+            getState(accessToken).invalid = error == null ? INVALID_TOKEN : error;
+        }
+    }
+
+    /**
+     * Called when a request is rejected with 403 code.
+     *
+     * @param accessToken access token
+     * @param request the request
+     * @param error value of {@code WWW-Authenticate} header
+     */
+    void onInsufficientScope(String accessToken, ApiRequest<?> request, String error) {
+        if (Strings.isNullOrEmpty(accessToken) || !(request instanceof ScopedRequest)) {
+            return;
+        }
+        Set<Scope> required = ((ScopedRequest) request).getRequiredScopes();
+        synchronized (lock) {
+            TokenState state = getState(accessToken);
+            state.insufficientScope = error;
+            // with several scopes it is not known which one is missing
+            if (required.size() == 1) {
+                Scope scope = required.iterator().next();
+                state.denied.add(scope);
+                if (state.granted != null) {
+                    state.granted.remove(scope);
+                }
+            }
+        }
+    }
+
+    private TokenState getState(String accessToken) {
+        TokenState state = tokens.get(accessToken);
+        if (state == null) {
+            state = new TokenState();
+            tokens.put(accessToken, state);
+        }
+        return state;
+    }
+
+    private static void checkToken(String accessToken) {
+        if (Strings.isNullOrEmpty(accessToken)) {
+            throw new IllegalArgumentException("accessToken is null or empty");
+        }
+    }
+
+    private static final class TokenState {
+        final Set<Scope> denied = new HashSet<>(2);
+        Set<Scope> granted;
+        String invalid;
+        String insufficientScope;
+    }
+
+    /**
+     * Creates {@link AuthorizationCache} instance.
+     */
+    public static final class Builder {
+
+        private int maxTokens = 10000;
+
+        /**
+         * @param maxTokens maximum number of tokens to remember (default is 10000)
+         * @return itself
+         */
+        public Builder setMaxTokens(int maxTokens) {
+            this.maxTokens = maxTokens;
+            return this;
+        }
+
+        /**
+         * @return {@link AuthorizationCache} instance
+         */
+        public AuthorizationCache create() {
+            return new AuthorizationCache(this);
+        }
+    }
+}
@@ -0,0 +1,507 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import com.yandex.money.api.methods.AccountInfo;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches balances of many wallets. Each wallet is refreshed with its own interval: it drops to the
+ * minimum when balance changes and grows exponentially while balance stays the same, so active
+ * wallets are fresh and idle ones cost few calls. Refreshes are jittered and started no faster than
+ * the configured rate, so load is spread evenly over time.
+ * <p/>
+ * Changes are reported to {@link Listener}. Callbacks are invoked on threads completing calls.
+ */
+public final class BalanceMonitor {
+
+    private static final double JITTER = 0.1;
+
+    private final OAuth2Session session;
+    private final Listener listener;
+    private final long minInterval;
+    private final long maxInterval;
+    private final double backoffFactor;
+    private final long spacing;
+    private final int maxConcurrentRefreshes;
+    private final long clockOffset;
+
+    private final Object lock = new Object();
+    private final Map<String, Wallet> wallets = new HashMap<>();
+    private final PriorityQueue<Wallet> queue = new PriorityQueue<>();
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+        }
+    };
+
+    private boolean running;
+    private int inFlight;
+    private long nextSlot;
+    private long wakeupAt;
+    private ScheduledFuture<?> wakeup;
+    private long refreshCount;
+
+    private BalanceMonitor(Builder builder) {
+        if (builder.session == null) {
+            throw new NullPointerException("session is null");
+        }
+        if (builder.listener == null) {
+            throw new NullPointerException("listener is null");
+        }
+        if (builder.minInterval <= 0 || builder.maxInterval < builder.minInterval) {
+            throw new IllegalArgumentException("illegal interval range");
+        }
+        if (builder.backoffFactor < 1) {
+            throw new IllegalArgumentException("backoffFactor should be at least 1");
+        }
+        if (builder.maxRate <= 0) {
+            throw new IllegalArgumentException("maxRate should be greater than 0");
+        }
+        if (builder.maxConcurrentRefreshes < 1) {
+            throw new IllegalArgumentException("maxConcurrentRefreshes should be greater than 0");
+        }
+        session = builder.session;
+        listener = builder.listener;
+        minInterval = builder.minInterval;
+        maxInterval = builder.maxInterval;
+        backoffFactor = builder.backoffFactor;
+        spacing = (long) (TimeUnit.SECONDS.toNanos(1) / builder.maxRate);
+        maxConcurrentRefreshes = builder.maxConcurrentRefreshes;
+        clockOffset = builder.clockOffset;
+        nextSlot = now();
+    }
+
+    /**
+     * Adds a wallet to watch. The first refresh is made at a random moment within the minimum
+     * interval, so wallets added at once are not refreshed at once.
+     *
+     * @param wallet key of a wallet, reported in events
+     * @param accessToken access token of the wallet with {@code account-info} scope
+     */
+    public void add(String wallet, String accessToken) {
+        if (wallet == null) {
+            throw new NullPointerException("wallet is null");
+        }
+        if (accessToken == null) {
+            throw new NullPointerException("accessToken is null");
+        }
+        synchronized (lock) {
+            Wallet previous = wallets.get(wallet);
+            if (previous != null) {
+                previous.accessToken = accessToken;
+                return;
+            }
+            Wallet entry = new Wallet(wallet, accessToken, minInterval);
+            entry.nextRefresh = now() + (long) (ThreadLocalRandom.current().nextDouble()
+                    * minInterval);
+            wallets.put(wallet, entry);
+            queue.add(entry);
+            scheduleWakeup();
+        }
+    }
+
+    /**
+     * Stops watching a wallet.
+     *
+     * @param wallet key of a wallet
+     */
+    public void remove(String wallet) {
+        synchronized (lock) {
+            Wallet entry = wallets.remove(wallet);
+            if (entry != null) {
+                entry.removed = true;
+                queue.remove(entry);
+            }
+        }
+    }
+
+    /**
+     * Starts refreshing.
+     */
+    public void start() {
+        synchronized (lock) {
+            running = true;
+            scheduleWakeup();
+        }
+    }
+
+    /**
+     * Stops refreshing. Refreshes in flight are completed and reported.
+     */
+    public void stop() {
+        synchronized (lock) {
+            running = false;
+            if (wakeup != null) {
+                wakeup.cancel(false);
+                wakeup = null;
+            }
+        }
+    }
+
+    /**
+     * @param wallet key of a wallet
+     * @return last known account info or {@code null} if not refreshed yet
+     */
+    public AccountInfo getAccountInfo(String wallet) {
+        synchronized (lock) {
+            Wallet entry = wallets.get(wallet);
+            return entry == null ? null : entry.accountInfo;
+        }
+    }
+
+    /**
+     * @param wallet key of a wallet
+     * @param unit unit of interval
+     * @return current refresh interval of a wallet or {@code -1} if the wallet is not watched
+     */
+    public long getInterval(String wallet, TimeUnit unit) {
+        synchronized (lock) {
+            Wallet entry = wallets.get(wallet);
+            return entry == null ? -1 : unit.convert(entry.interval, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @return number of refreshes made
+     */
+    public long getRefreshCount() {
+        synchronized (lock) {
+            return refreshCount;
+        }
+    }
+
+    private void tick() {
+        List<Wallet> due = new ArrayList<>();
+        synchronized (lock) {
+            wakeup = null;
+            if (!running) {
+                return;
+            }
+            long now = now();
+            while (inFlight < maxConcurrentRefreshes && !queue.isEmpty()) {
+                Wallet entry = queue.peek();
+                if (entry.nextRefresh - now > 0 || nextSlot - now > 0) {
+                    break;
+                }
+                queue.poll();
+                due.add(entry);
+                inFlight++;
+                // allow a small catch-up if the timer was late, but never a burst
+                nextSlot = later(nextSlot, now - spacing) + spacing;
+            }
+            scheduleWakeup();
+        }
+        for (Wallet entry : due) {
+            refresh(entry);
+        }
+    }
+
+    private void refresh(final Wallet entry) {
+        ApiFuture<AccountInfo> future;
+        try {
+            future = session.submit(new AccountInfo.Request(), null, entry.accessToken);
+        } catch (RuntimeException e) {
+            onRefreshed(entry, null, e);
+            return;
+        }
+        future.addCallback(new OnResponseReady<AccountInfo>() {
+            @Override
+            public void onFailure(Exception exception) {
+                onRefreshed(entry, null, exception);
+            }
+
+            @Override
+            public void onResponse(AccountInfo response) {
+                onRefreshed(entry, response, null);
+            }
+        });
+    }
+
+    private void onRefreshed(Wallet entry, AccountInfo accountInfo, Exception error) {
+        AccountInfo previous;
+        boolean changed = false;
+        synchronized (lock) {
+            inFlight--;
+            refreshCount++;
+            previous = entry.accountInfo;
+            if (accountInfo != null) {
+                changed = previous != null && isChanged(previous, accountInfo);
+                entry.accountInfo = accountInfo;
+                entry.interval = changed ? minInterval :
+                        Math.min(maxInterval, (long) (entry.interval * backoffFactor));
+            }
+            if (!entry.removed) {
+                entry.nextRefresh = now() + jitter(entry.interval);
+                queue.add(entry);
+            }
+            scheduleWakeup();
+        }
+
+        if (error != null) {
+            listener.onRefreshFailed(entry.key, error);
+        } else if (changed) {
+            listener.onBalanceChanged(new BalanceChange(entry.key, previous, accountInfo));
+        }
+    }
+
+    private void scheduleWakeup() {
+        if (!running || queue.isEmpty() || inFlight >= maxConcurrentRefreshes) {
+            return;
+        }
+        long at = later(queue.peek().nextRefresh, nextSlot);
+        if (wakeup != null) {
+            if (wakeupAt - at <= 0) {
+                return;
+            }
+            wakeup.cancel(false);
+        }
+        wakeupAt = at;
+        wakeup = ApiFuture.schedule(tick, Math.max(0, at - now()),
+                TimeUnit.NANOSECONDS);
+    }
+
+    private long now() {
+        return System.nanoTime() + clockOffset;
+    }
+
+    /**
+     * Origin of {@link System#nanoTime()} is arbitrary and the time can overflow, so moments are
+     * compared by difference.
+     */
+    private static long later(long a, long b) {
+        return a - b > 0 ? a : b;
+    }
+
+    private static long jitter(long interval) {
+        double random = ThreadLocalRandom.current().nextDouble(-JITTER, JITTER);
+        return (long) (interval * (1 + random));
+    }
+
+    private static boolean isChanged(AccountInfo previous, AccountInfo current) {
+        return previous.balance.compareTo(current.balance) != 0 ||
+                !previous.balanceDetails.equals(current.balanceDetails);
+    }
+
+    /**
+     * Change of wallet's balance.
+     */
+    public static final class BalanceChange {
+
+        /**
+         * key of a wallet
+         */
+        public final String wallet;
+
+        /**
+         * account info before the change
+         */
+        public final AccountInfo previous;
+
+        /**
+         * account info after the change
+         */
+        public final AccountInfo current;
+
+        /**
+         * difference of balances, positive if balance has increased
+         */
+        public final BigDecimal delta;
+
+        BalanceChange(String wallet, AccountInfo previous, AccountInfo current) {
+            this.wallet = wallet;
+            this.previous = previous;
+            this.current = current;
+            this.delta = current.balance.subtract(previous.balance);
+        }
+
+        @Override
+        public String toString() {
+            return "BalanceChange{" +
+                    "wallet='" + wallet + '\'' +
+                    ", previous=" + previous.balance +
+                    ", current=" + current.balance +
+                    ", delta=" + delta +
+                    '}';
+        }
+    }
+
+    /**
+     * Receives events of {@link BalanceMonitor}.
+     */
+    public interface Listener {
+
+        /**
+         * Called when balance or balance details of a wallet have changed.
+         *
+         * @param change the change
+         */
+        void onBalanceChanged(BalanceChange change);
+
+        /**
+         * Called when a refresh has failed. The wallet is refreshed again after its current
+         * interval.
+         *
+         * @param wallet key of a wallet
+         * @param exception cause
+         */
+        void onRefreshFailed(String wallet, Exception exception);
+    }
+
+    private static final class Wallet implements Comparable<Wallet> {
+
+        final String key;
+
+        String accessToken;
+        long interval;
+        long nextRefresh;
+        AccountInfo accountInfo;
+        boolean removed;
+
+        Wallet(String key, String accessToken, long interval) {
+            this.key = key;
+            this.accessToken = accessToken;
+            this.interval = interval;
+        }
+
+        @Override
+        public int compareTo(Wallet another) {
+            long difference = nextRefresh - another.nextRefresh;
+            return difference < 0 ? -1 : (difference == 0 ? 0 : 1);
+        }
+    }
+
+    /**
+     * Creates {@link BalanceMonitor} instance.
+     */
+    public static final class Builder {
+
+        private OAuth2Session session;
+        private Listener listener;
+        private long minInterval = TimeUnit.SECONDS.toNanos(10);
+        private long maxInterval = TimeUnit.MINUTES.toNanos(10);
+        private double backoffFactor = 2;
+        private double maxRate = 10;
+        private int maxConcurrentRefreshes = 4;
+        private long clockOffset;
+
+        /**
+         * @param session session used to refresh balances, its settings are applied to every
+         *                request except access token
+         * @return itself
+         */
+        public Builder setSession(OAuth2Session session) {
+            this.session = session;
+            return this;
+        }
+
+        /**
+         * @param listener listener of changes
+         * @return itself
+         */
+        public Builder setListener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * @param minInterval interval used for wallets which balance has just changed
+         *                    (default is 10 s)
+         * @param unit unit of interval
+         * @return itself
+         */
+        public Builder setMinInterval(long minInterval, TimeUnit unit) {
+            this.minInterval = unit.toNanos(minInterval);
+            return this;
+        }
+
+        /**
+         * @param maxInterval interval will never go higher (default is 10 min)
+         * @param unit unit of interval
+         * @return itself
+         */
+        public Builder setMaxInterval(long maxInterval, TimeUnit unit) {
+            this.maxInterval = unit.toNanos(maxInterval);
+            return this;
+        }
+
+        /**
+         * @param backoffFactor interval of a wallet is multiplied by this factor after a refresh
+         *                      without changes (default is 2)
+         * @return itself
+         */
+        public Builder setBackoffFactor(double backoffFactor) {
+            this.backoffFactor = backoffFactor;
+            return this;
+        }
+
+        /**
+         * @param maxRate maximum number of refreshes started per second (default is 10)
+         * @return itself
+         */
+        public Builder setMaxRate(double maxRate) {
+            this.maxRate = maxRate;
+            return this;
+        }
+
+        /**
+         * @param maxConcurrentRefreshes maximum number of refreshes in flight (default is 4)
+         * @return itself
+         */
+        public Builder setMaxConcurrentRefreshes(int maxConcurrentRefreshes) {
+            this.maxConcurrentRefreshes = maxConcurrentRefreshes;
+            return this;
+        }
+
+        /**
+         * Shifts the clock of the monitor, used to test arbitrary origins of
+         * {@link System#nanoTime()}.
+         *
+         * @param clockOffset offset in nanoseconds
+         * @return itself
+         */
+        Builder setClockOffset(long clockOffset) {
+            this.clockOffset = clockOffset;
+            return this;
+        }
+
+        /**
+         * @return {@link BalanceMonitor} instance
+         */
+        public BalanceMonitor create() {
+            return new BalanceMonitor(this);
+        }
+    }
+}
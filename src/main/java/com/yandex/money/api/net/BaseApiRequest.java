@@ -76,6 +76,23 @@ public abstract class BaseApiRequest<T> implements ApiRequest<T> {
                 .create();
     }
 
+    /**
+     * Constructor. Use it to share {@link Gson} instance between many requests of the same type.
+     *
+     * @param cls class of response
+     * @param gson gson used to create a response
+     */
+    protected BaseApiRequest(Class<T> cls, Gson gson) {
+        if (cls == null) {
+            throw new NullPointerException("response class is null");
+        }
+        if (gson == null) {
+            throw new NullPointerException("gson is null");
+        }
+        this.cls = cls;
+        this.gson = gson;
+    }
+
     @Override
     public final Map<String, String> getHeaders() {
         return Collections.unmodifiableMap(headers);
@@ -0,0 +1,346 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes batches of independent requests. Requests may be of different types and on behalf of
+ * different users. At most {@code parallelism} requests of a batch are executed at the same time
+ * using asynchronous calls, so no threads are blocked while waiting for responses.
+ * <p/>
+ * A batch never fails because of its items: results are returned in order of items and contain
+ * either a response or an error.
+ */
+public final class BatchExecutor {
+
+    private final OAuth2Session session;
+    private final int parallelism;
+    private final Listener listener;
+
+    private BatchExecutor(Builder builder) {
+        if (builder.session == null) {
+            throw new NullPointerException("session is null");
+        }
+        if (builder.parallelism < 1) {
+            throw new IllegalArgumentException("parallelism should be greater than 0");
+        }
+        session = builder.session;
+        parallelism = builder.parallelism;
+        listener = builder.listener;
+    }
+
+    /**
+     * Starts execution of a batch. Canceling the returned future cancels calls in flight and
+     * items that are not started yet.
+     *
+     * @param items items of the batch
+     * @return future of results in order of items
+     */
+    public ApiFuture<List<Result<?>>> execute(Collection<? extends Item<?>> items) {
+        if (items == null) {
+            throw new NullPointerException("items is null");
+        }
+        return new Batch(new ArrayList<>(items)).start();
+    }
+
+    /**
+     * Starts execution of a batch.
+     *
+     * @param items items of the batch
+     * @return future of results in order of items
+     * @see #execute(Collection)
+     */
+    public ApiFuture<List<Result<?>>> execute(Item<?>... items) {
+        return execute(Arrays.asList(items));
+    }
+
+    /**
+     * Item of a batch: a request and access token of a user.
+     *
+     * @param <T> response type
+     */
+    public static final class Item<T> {
+
+        public final ApiRequest<T> request;
+        public final String accessToken;
+        public final Deadline deadline;
+
+        /**
+         * Constructor.
+         *
+         * @param request the request
+         * @param accessToken access token, can be {@code null} if authorization is not required
+         * @param deadline deadline of the request, can be {@code null}
+         */
+        public Item(ApiRequest<T> request, String accessToken, Deadline deadline) {
+            if (request == null) {
+                throw new NullPointerException("request is null");
+            }
+            this.request = request;
+            this.accessToken = accessToken;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param request the request
+         * @param accessToken access token, can be {@code null} if authorization is not required
+         */
+        public Item(ApiRequest<T> request, String accessToken) {
+            this(request, accessToken, null);
+        }
+
+        @Override
+        public String toString() {
+            return "Item{" +
+                    "request=" + request +
+                    ", deadline=" + deadline +
+                    '}';
+        }
+    }
+
+    /**
+     * Result of an item.
+     *
+     * @param <T> response type
+     */
+    public static final class Result<T> {
+
+        public final int index;
+        public final Item<T> item;
+        public final T response;
+        public final Exception error;
+
+        Result(int index, Item<T> item, T response, Exception error) {
+            this.index = index;
+            this.item = item;
+            this.response = response;
+            this.error = error;
+        }
+
+        /**
+         * @return {@code true} if response is received
+         */
+        public boolean isSuccessful() {
+            return error == null;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "index=" + index +
+                    ", response=" + response +
+                    ", error=" + error +
+                    '}';
+        }
+    }
+
+    /**
+     * Listener of progress of batches. Called on threads completing calls, so it should be fast.
+     */
+    public interface Listener {
+
+        /**
+         * Called when an item is completed.
+         *
+         * @param result result of the item
+         * @param completed number of completed items of the batch
+         * @param total number of items in the batch
+         */
+        void onProgress(Result<?> result, int completed, int total);
+    }
+
+    private final class Batch {
+
+        final List<Item<?>> items;
+        final Result<?>[] results;
+        final ApiFuture<List<Result<?>>> future = new ApiFuture<>();
+        final ApiFuture<?>[] calls;
+        final AtomicInteger wip = new AtomicInteger();
+        final Object lock = new Object();
+
+        int next;
+        int running;
+        int completed;
+        boolean canceled;
+
+        Batch(List<Item<?>> items) {
+            this.items = items;
+            this.results = new Result<?>[items.size()];
+            this.calls = new ApiFuture<?>[items.size()];
+        }
+
+        ApiFuture<List<Result<?>>> start() {
+            future.setCanceller(new Runnable() {
+                @Override
+                public void run() {
+                    cancel();
+                }
+            });
+            if (items.isEmpty()) {
+                future.complete(Collections.<Result<?>>emptyList());
+            } else {
+                drain();
+            }
+            return future;
+        }
+
+        /**
+         * Starts items while there are free slots. Items completed synchronously are handled by
+         * the loop instead of recursion.
+         */
+        void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                while (true) {
+                    int index;
+                    synchronized (lock) {
+                        if (canceled || running >= parallelism || next >= items.size()) {
+                            break;
+                        }
+                        index = next++;
+                        running++;
+                    }
+                    launch(index, items.get(index));
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+
+        <T> void launch(final int index, final Item<T> item) {
+            ApiFuture<T> call;
+            try {
+                call = session.submit(item.request, item.deadline, item.accessToken);
+            } catch (RuntimeException e) {
+                onCompleted(new Result<>(index, item, null, e));
+                return;
+            }
+            synchronized (lock) {
+                calls[index] = call;
+            }
+            call.addCallback(new OnResponseReady<T>() {
+                @Override
+                public void onFailure(Exception exception) {
+                    onCompleted(new Result<>(index, item, null, exception));
+                }
+
+                @Override
+                public void onResponse(T response) {
+                    onCompleted(new Result<>(index, item, response, null));
+                }
+            });
+        }
+
+        void onCompleted(Result<?> result) {
+            int completed;
+            synchronized (lock) {
+                if (canceled) {
+                    return;
+                }
+                results[result.index] = result;
+                calls[result.index] = null;
+                running--;
+                completed = ++this.completed;
+            }
+            if (listener != null) {
+                listener.onProgress(result, completed, results.length);
+            }
+            if (completed == results.length) {
+                future.complete(Collections.unmodifiableList(Arrays.asList(results)));
+            } else {
+                drain();
+            }
+        }
+
+        void cancel() {
+            List<ApiFuture<?>> running = new ArrayList<>();
+            synchronized (lock) {
+                canceled = true;
+                for (ApiFuture<?> call : calls) {
+                    if (call != null) {
+                        running.add(call);
+                    }
+                }
+            }
+            for (ApiFuture<?> call : running) {
+                call.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Creates {@link BatchExecutor} instance.
+     */
+    public static final class Builder {
+
+        private OAuth2Session session;
+        private int parallelism = 8;
+        private Listener listener;
+
+        /**
+         * @param session session used to execute requests, its settings are applied to every
+         *                request except access token
+         * @return itself
+         */
+        public Builder setSession(OAuth2Session session) {
+            this.session = session;
+            return this;
+        }
+
+        /**
+         * @param parallelism maximum number of requests of a batch executed at the same time
+         *                    (default is 8)
+         * @return itself
+         */
+        public Builder setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param listener listener of progress, can be {@code null}
+         * @return itself
+         */
+        public Builder setListener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * @return {@link BatchExecutor} instance
+         */
+        public BatchExecutor create() {
+            return new BatchExecutor(this);
+        }
+    }
+}
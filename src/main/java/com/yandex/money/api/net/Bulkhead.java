@@ -0,0 +1,185 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Dispatcher;
+import com.squareup.okhttp.OkHttpClient;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Isolates traffic classes from each other. Every configured class gets its own dispatcher,
+ * connection pool and optionally concurrency limiter with its own queue, so bulk reads never
+ * hold threads, connections or permits needed by payments. Classes that are not configured share
+ * resources of session's {@link ApiClient}.
+ * <p/>
+ * Compartments are created from a snapshot of {@link ApiClient#getHttpClient()}, so the bulkhead
+ * should be created when the client is configured.
+ *
+ * @see OAuth2Session#setBulkhead(Bulkhead)
+ */
+public final class Bulkhead {
+
+    private static final long KEEP_ALIVE_MILLIS = 5 * 60 * 1000L;
+
+    private final Map<TrafficClass, Compartment> compartments;
+
+    private Bulkhead(Builder builder) {
+        compartments = new EnumMap<>(TrafficClass.class);
+        for (Map.Entry<TrafficClass, CompartmentSpec> entry : builder.specs.entrySet()) {
+            CompartmentSpec spec = entry.getValue();
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(spec.maxConnections);
+            dispatcher.setMaxRequestsPerHost(spec.maxConnections);
+
+            OkHttpClient client = builder.client.clone();
+            client.setDispatcher(dispatcher);
+            client.setConnectionPool(new ConnectionPool(spec.maxConnections, KEEP_ALIVE_MILLIS));
+            compartments.put(entry.getKey(), new Compartment(client, spec.limiter));
+        }
+    }
+
+    /**
+     * Gets traffic class of a request.
+     *
+     * @param request the request
+     * @return traffic class
+     */
+    public static TrafficClass classify(ApiRequest<?> request) {
+        if (request instanceof PrioritizedRequest) {
+            TrafficClass trafficClass = ((PrioritizedRequest) request).getTrafficClass();
+            if (trafficClass != null) {
+                return trafficClass;
+            }
+        }
+        return TrafficClass.DEFAULT;
+    }
+
+    /**
+     * @param trafficClass traffic class
+     * @return {@code true} if the class has its own resources
+     */
+    public boolean isIsolated(TrafficClass trafficClass) {
+        return compartments.containsKey(trafficClass);
+    }
+
+    /**
+     * @param trafficClass traffic class
+     * @return concurrency limiter of the class or {@code null} if it has no limiter
+     */
+    public AdaptiveConcurrencyLimiter getLimiter(TrafficClass trafficClass) {
+        Compartment compartment = compartments.get(trafficClass);
+        return compartment == null ? null : compartment.limiter;
+    }
+
+    /**
+     * @param trafficClass traffic class
+     * @return HTTP client of the class or {@code null} if it is not isolated
+     */
+    OkHttpClient getClient(TrafficClass trafficClass) {
+        Compartment compartment = compartments.get(trafficClass);
+        return compartment == null ? null : compartment.client;
+    }
+
+    @Override
+    public String toString() {
+        return "Bulkhead{" +
+                "compartments=" + compartments.keySet() +
+                '}';
+    }
+
+    private static final class Compartment {
+
+        final OkHttpClient client;
+        final AdaptiveConcurrencyLimiter limiter;
+
+        Compartment(OkHttpClient client, AdaptiveConcurrencyLimiter limiter) {
+            this.client = client;
+            this.limiter = limiter;
+        }
+    }
+
+    private static final class CompartmentSpec {
+
+        final int maxConnections;
+        final AdaptiveConcurrencyLimiter limiter;
+
+        CompartmentSpec(int maxConnections, AdaptiveConcurrencyLimiter limiter) {
+            this.maxConnections = maxConnections;
+            this.limiter = limiter;
+        }
+    }
+
+    /**
+     * Creates {@link Bulkhead} instance.
+     */
+    public static final class Builder {
+
+        private final OkHttpClient client;
+        private final Map<TrafficClass, CompartmentSpec> specs =
+                new EnumMap<>(TrafficClass.class);
+
+        /**
+         * Constructor.
+         *
+         * @param client API client which HTTP client is used as a template for compartments
+         */
+        public Builder(ApiClient client) {
+            if (client == null) {
+                throw new NullPointerException("client is null");
+            }
+            this.client = client.getHttpClient();
+        }
+
+        /**
+         * Gives traffic class its own resources.
+         *
+         * @param trafficClass traffic class
+         * @param maxConnections maximum number of concurrent calls and idle connections
+         * @param limiter concurrency limiter of the class, can be {@code null}
+         * @return itself
+         */
+        public Builder isolate(TrafficClass trafficClass, int maxConnections,
+                               AdaptiveConcurrencyLimiter limiter) {
+            if (trafficClass == null) {
+                throw new NullPointerException("trafficClass is null");
+            }
+            if (maxConnections < 1) {
+                throw new IllegalArgumentException("maxConnections should be greater than 0");
+            }
+            specs.put(trafficClass, new CompartmentSpec(maxConnections, limiter));
+            return this;
+        }
+
+        /**
+         * @return {@link Bulkhead} instance
+         */
+        public Bulkhead create() {
+            return new Bulkhead(this);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+/**
+ * Measurements of a completed API call.
+ *
+ * @see CallMetricsListener
+ */
+public final class CallMetrics {
+
+    /**
+     * HTTP status when no response was received
+     */
+    public static final int NO_STATUS = -1;
+
+    /**
+     * path of requested URL, e.g. {@code /api/account-info}
+     */
+    public final String endpoint;
+
+    /**
+     * HTTP method
+     */
+    public final String method;
+
+    /**
+     * HTTP status code or {@link #NO_STATUS}
+     */
+    public final int httpStatus;
+
+    /**
+     * size of request body in bytes
+     */
+    public final long bytesSent;
+
+    /**
+     * size of response body in bytes
+     */
+    public final long bytesReceived;
+
+    /**
+     * size of response body as received from network in bytes, differs from
+     * {@link #bytesReceived} if response is compressed
+     */
+    public final long compressedBytesReceived;
+
+    /**
+     * time spent waiting for a permit to execute the call, in nanoseconds
+     */
+    public final long queueTime;
+
+    /**
+     * time from sending a request till receiving headers of a response, in nanoseconds
+     */
+    public final long networkTime;
+
+    /**
+     * time spent reading and parsing a response body, in nanoseconds
+     */
+    public final long parseTime;
+
+    /**
+     * exception the call completed with or {@code null} if successful
+     */
+    public final Exception exception;
+
+    private CallMetrics(Builder builder) {
+        if (builder.endpoint == null) {
+            throw new NullPointerException("endpoint is null");
+        }
+        if (builder.method == null) {
+            throw new NullPointerException("method is null");
+        }
+        endpoint = builder.endpoint;
+        method = builder.method;
+        httpStatus = builder.httpStatus;
+        bytesSent = builder.bytesSent;
+        bytesReceived = builder.bytesReceived;
+        compressedBytesReceived = builder.compressedBytesReceived < 0 ? builder.bytesReceived :
+                builder.compressedBytesReceived;
+        queueTime = builder.queueTime;
+        networkTime = builder.networkTime;
+        parseTime = builder.parseTime;
+        exception = builder.exception;
+    }
+
+    /**
+     * @return {@code true} if call completed without exception
+     */
+    public boolean isSuccessful() {
+        return exception == null;
+    }
+
+    /**
+     * @return total time of the call in nanoseconds
+     */
+    public long getTotalTime() {
+        return queueTime + networkTime + parseTime;
+    }
+
+    @Override
+    public String toString() {
+        return "CallMetrics{" +
+                "endpoint='" + endpoint + '\'' +
+                ", method='" + method + '\'' +
+                ", httpStatus=" + httpStatus +
+                ", bytesSent=" + bytesSent +
+                ", bytesReceived=" + bytesReceived +
+                ", compressedBytesReceived=" + compressedBytesReceived +
+                ", queueTime=" + queueTime +
+                ", networkTime=" + networkTime +
+                ", parseTime=" + parseTime +
+                ", exception=" + exception +
+                '}';
+    }
+
+    /**
+     * Creates {@link CallMetrics} instance.
+     */
+    public static final class Builder {
+
+        private String endpoint;
+        private String method;
+        private int httpStatus = NO_STATUS;
+        private long bytesSent;
+        private long bytesReceived;
+        private long compressedBytesReceived = -1;
+        private long queueTime;
+        private long networkTime;
+        private long parseTime;
+        private Exception exception;
+
+        /**
+         * @param endpoint path of requested URL
+         * @return itself
+         */
+        public Builder setEndpoint(String endpoint) {
+            this.endpoint = endpoint;
+            return this;
+        }
+
+        /**
+         * @param method HTTP method
+         * @return itself
+         */
+        public Builder setMethod(String method) {
+            this.method = method;
+            return this;
+        }
+
+        /**
+         * @param httpStatus HTTP status code
+         * @return itself
+         */
+        public Builder setHttpStatus(int httpStatus) {
+            this.httpStatus = httpStatus;
+            return this;
+        }
+
+        /**
+         * @param bytesSent size of request body
+         * @return itself
+         */
+        public Builder setBytesSent(long bytesSent) {
+            this.bytesSent = bytesSent;
+            return this;
+        }
+
+        /**
+         * @param bytesReceived size of response body
+         * @return itself
+         */
+        public Builder setBytesReceived(long bytesReceived) {
+            this.bytesReceived = bytesReceived;
+            return this;
+        }
+
+        /**
+         * @param compressedBytesReceived size of response body as received from network (default
+         *                                is equal to bytes received)
+         * @return itself
+         */
+        public Builder setCompressedBytesReceived(long compressedBytesReceived) {
+            this.compressedBytesReceived = compressedBytesReceived;
+            return this;
+        }
+
+        /**
+         * @param queueTime queue time in nanoseconds
+         * @return itself
+         */
+        public Builder setQueueTime(long queueTime) {
+            this.queueTime = queueTime;
+            return this;
+        }
+
+        /**
+         * @param networkTime network time in nanoseconds
+         * @return itself
+         */
+        public Builder setNetworkTime(long networkTime) {
+            this.networkTime = networkTime;
+            return this;
+        }
+
+        /**
+         * @param parseTime parse time in nanoseconds
+         * @return itself
+         */
+        public Builder setParseTime(long parseTime) {
+            this.parseTime = parseTime;
+            return this;
+        }
+
+        /**
+         * @param exception exception the call completed with
+         * @return itself
+         */
+        public Builder setException(Exception exception) {
+            this.exception = exception;
+            return this;
+        }
+
+        /**
+         * @return {@link CallMetrics} instance
+         */
+        public CallMetrics create() {
+            return new CallMetrics(this);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+/**
+ * Tag of HTTP requests made by {@link OAuth2Session}. Lets interceptors see the API request and
+ * whether the call was canceled.
+ */
+final class CallTag {
+
+    final ApiRequest<?> request;
+
+    private volatile boolean canceled;
+
+    CallTag(ApiRequest<?> request) {
+        if (request == null) {
+            throw new NullPointerException("request is null");
+        }
+        this.request = request;
+    }
+
+    /**
+     * @param tag tag of a HTTP request
+     * @return API request of the tag
+     */
+    static Object getRequest(Object tag) {
+        return tag instanceof CallTag ? ((CallTag) tag).request : tag;
+    }
+
+    /**
+     * @param tag tag of a HTTP request
+     * @return {@code true} if the call was canceled
+     */
+    static boolean isCanceled(Object tag) {
+        return tag instanceof CallTag && ((CallTag) tag).canceled;
+    }
+
+    void cancel() {
+        canceled = true;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.Request;
+
+import javax.net.ssl.SSLSession;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * Receives events of connection phases. All durations are in nanoseconds. Implementations are
+ * called on network threads, so they should be fast and must not throw.
+ * <p/>
+ * Connection level events ({@link #onDnsResolved(String, List, long)},
+ * {@link #onConnected(InetSocketAddress, long)},
+ * {@link #onHandshakeCompleted(String, SSLSession, long)}) happen only when a new connection is
+ * established. Other events happen for every HTTP request sent to network.
+ *
+ * @see DefaultApiClient#setConnectionEventListener(ConnectionEventListener)
+ */
+public interface ConnectionEventListener {
+
+    /**
+     * Called when host name is resolved.
+     *
+     * @param host host name
+     * @param addresses resolved addresses
+     * @param duration time spent resolving
+     */
+    void onDnsResolved(String host, List<InetAddress> addresses, long duration);
+
+    /**
+     * Called when TCP connection is established.
+     *
+     * @param address remote address
+     * @param duration time spent connecting
+     */
+    void onConnected(InetSocketAddress address, long duration);
+
+    /**
+     * Called when TLS handshake is completed.
+     *
+     * @param host host name
+     * @param session negotiated session
+     * @param duration time spent on handshake
+     */
+    void onHandshakeCompleted(String host, SSLSession session, long duration);
+
+    /**
+     * Called when connection is acquired to send a request.
+     *
+     * @param request the request
+     * @param connection the connection
+     * @param reused {@code true} if connection was used by previous requests
+     */
+    void onConnectionAcquired(Request request, Connection connection, boolean reused);
+
+    /**
+     * Called when the request is completely written to network.
+     *
+     * @param request the request
+     * @param duration time since connection was acquired
+     */
+    void onRequestWritten(Request request, long duration);
+
+    /**
+     * Called when the first byte of a response is received.
+     *
+     * @param request the request
+     * @param duration time since the request was written
+     */
+    void onFirstByteReceived(Request request, long duration);
+
+    /**
+     * Called when the body of a response is completely read or closed.
+     *
+     * @param request the request
+     * @param bytes number of bytes read from network
+     * @param duration time since the first byte was received
+     */
+    void onResponseBodyRead(Request request, long bytes, long duration);
+}
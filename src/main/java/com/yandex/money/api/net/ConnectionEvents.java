@@ -0,0 +1,483 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+import com.squareup.okhttp.internal.Internal;
+import com.squareup.okhttp.internal.Network;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * Instruments {@link OkHttpClient} to report connection phases to {@link ConnectionEventListener}.
+ * <p/>
+ * DNS lookups are hooked using OkHttp's internal API, TCP connects and TLS handshakes are timed
+ * by socket factories, request and response timings are taken by a network interceptor from
+ * socket streams. For multiplexed (HTTP/2) connections request timings are approximate because
+ * several requests share the same socket.
+ */
+final class ConnectionEvents {
+
+    private final Map<Socket, Boolean> usedSockets =
+            Collections.synchronizedMap(new WeakHashMap<Socket, Boolean>());
+
+    private volatile ConnectionEventListener listener;
+
+    private ConnectionEvents() {
+    }
+
+    /**
+     * Installs hooks into a client. Hooks should be installed only once per client.
+     *
+     * @param client client to instrument
+     * @return events instance to set listener to
+     */
+    static ConnectionEvents install(OkHttpClient client) {
+        if (client == null) {
+            throw new NullPointerException("client is null");
+        }
+
+        ConnectionEvents events = new ConnectionEvents();
+
+        Network network = Internal.instance.network(client);
+        Internal.instance.setNetwork(client, events.new EventNetwork(
+                network == null ? Network.DEFAULT : network));
+
+        SocketFactory socketFactory = client.getSocketFactory();
+        if (socketFactory == null || socketFactory == SocketFactory.getDefault()) {
+            // custom factories are left as is: their sockets can not be timed
+            client.setSocketFactory(events.new EventSocketFactory());
+        }
+
+        SSLSocketFactory sslSocketFactory = client.getSslSocketFactory();
+        client.setSslSocketFactory(events.new EventSslSocketFactory(
+                sslSocketFactory == null ? createSslSocketFactory() : sslSocketFactory));
+
+        client.networkInterceptors().add(events.new EventInterceptor());
+        return events;
+    }
+
+    void setListener(ConnectionEventListener listener) {
+        this.listener = listener;
+    }
+
+    private static SSLSocketFactory createSslSocketFactory() {
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, null, null);
+            return context.getSocketFactory();
+        } catch (GeneralSecurityException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    private static SocketTimings getTimings(Socket socket) {
+        return socket instanceof TimedSocket ? ((TimedSocket) socket).getTimings() : null;
+    }
+
+    private final class EventNetwork implements Network {
+
+        private final Network delegate;
+
+        EventNetwork(Network delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public InetAddress[] resolveInetAddresses(String host) throws UnknownHostException {
+            long started = System.nanoTime();
+            InetAddress[] addresses = delegate.resolveInetAddresses(host);
+            ConnectionEventListener listener = ConnectionEvents.this.listener;
+            if (listener != null) {
+                listener.onDnsResolved(host, Collections.unmodifiableList(
+                        Arrays.asList(addresses.clone())), System.nanoTime() - started);
+            }
+            return addresses;
+        }
+    }
+
+    private final class EventSocketFactory extends SocketFactory {
+
+        @Override
+        public Socket createSocket() {
+            return new EventSocket();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return connect(createSocket(), new InetSocketAddress(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+                throws IOException {
+            return connect(createSocket(), localHost, localPort,
+                    new InetSocketAddress(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return connect(createSocket(), new InetSocketAddress(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+                                   int localPort) throws IOException {
+            return connect(createSocket(), localAddress, localPort,
+                    new InetSocketAddress(address, port));
+        }
+
+        private Socket connect(Socket socket, SocketAddress address) throws IOException {
+            socket.connect(address);
+            return socket;
+        }
+
+        private Socket connect(Socket socket, InetAddress localAddress, int localPort,
+                               SocketAddress address) throws IOException {
+            socket.bind(new InetSocketAddress(localAddress, localPort));
+            return connect(socket, address);
+        }
+    }
+
+    private final class EventSslSocketFactory extends SSLSocketFactory {
+
+        private final SSLSocketFactory delegate;
+
+        EventSslSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket(Socket s, String host, int port, boolean autoClose)
+                throws IOException {
+            return wrap(delegate.createSocket(s, host, port, autoClose), host);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return wrap(delegate.createSocket(host, port), host);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+                throws IOException {
+            return wrap(delegate.createSocket(host, port, localHost, localPort), host);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return wrap(delegate.createSocket(host, port), host.getHostName());
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+                                   int localPort) throws IOException {
+            return wrap(delegate.createSocket(address, port, localAddress, localPort),
+                    address.getHostName());
+        }
+
+        private Socket wrap(Socket socket, String host) {
+            return socket instanceof SSLSocket ?
+                    new EventSslSocket((SSLSocket) socket, host) : socket;
+        }
+    }
+
+    private final class EventInterceptor implements Interceptor {
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            ConnectionEventListener listener = ConnectionEvents.this.listener;
+            Connection connection = chain.connection();
+            if (listener == null || connection == null) {
+                return chain.proceed(request);
+            }
+
+            Socket socket = connection.getSocket();
+            boolean reused = usedSockets.put(socket, Boolean.TRUE) != null;
+            listener.onConnectionAcquired(request, connection, reused);
+
+            SocketTimings timings = getTimings(socket);
+            if (timings == null) {
+                return chain.proceed(request);
+            }
+
+            long acquired = System.nanoTime();
+            timings.reset();
+            Response response = chain.proceed(request);
+
+            long written = timings.lastWrite;
+            long firstRead = timings.firstRead;
+            if (written != 0) {
+                listener.onRequestWritten(request, written - acquired);
+                if (firstRead != 0) {
+                    listener.onFirstByteReceived(request, firstRead - written);
+                }
+            }
+
+            ResponseBody body = response.body();
+            if (body == null) {
+                return response;
+            }
+            long started = firstRead == 0 ? System.nanoTime() : firstRead;
+            BufferedSource source = Okio.buffer(
+                    new BodySource(body.source(), request, listener, started));
+            return response.newBuilder()
+                    .body(ResponseBody.create(body.contentType(), body.contentLength(), source))
+                    .build();
+        }
+    }
+
+    private static final class BodySource extends ForwardingSource {
+
+        private final Request request;
+        private final ConnectionEventListener listener;
+        private final long started;
+
+        private long bytes;
+        private boolean reported;
+
+        BodySource(BufferedSource delegate, Request request, ConnectionEventListener listener,
+                   long started) {
+            super(delegate);
+            this.request = request;
+            this.listener = listener;
+            this.started = started;
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            long read = super.read(sink, byteCount);
+            if (read == -1) {
+                report();
+            } else {
+                bytes += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            report();
+            super.close();
+        }
+
+        private void report() {
+            if (!reported) {
+                reported = true;
+                listener.onResponseBodyRead(request, bytes, System.nanoTime() - started);
+            }
+        }
+    }
+
+    private interface TimedSocket {
+        SocketTimings getTimings();
+    }
+
+    /**
+     * Moments of the last write to a socket and the first read after it.
+     */
+    private static final class SocketTimings {
+
+        volatile long lastWrite;
+        volatile long firstRead;
+
+        void reset() {
+            lastWrite = 0;
+            firstRead = 0;
+        }
+
+        void onWrite() {
+            lastWrite = System.nanoTime();
+            firstRead = 0;
+        }
+
+        void onRead() {
+            if (firstRead == 0 && lastWrite != 0) {
+                firstRead = System.nanoTime();
+            }
+        }
+    }
+
+    private final class EventSocket extends Socket implements TimedSocket {
+
+        private final SocketTimings timings = new SocketTimings();
+
+        @Override
+        public void connect(SocketAddress endpoint, int timeout) throws IOException {
+            long started = System.nanoTime();
+            super.connect(endpoint, timeout);
+            ConnectionEventListener listener = ConnectionEvents.this.listener;
+            if (listener != null && endpoint instanceof InetSocketAddress) {
+                listener.onConnected((InetSocketAddress) endpoint, System.nanoTime() - started);
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new TimedInputStream(super.getInputStream(), timings);
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return new TimedOutputStream(super.getOutputStream(), timings);
+        }
+
+        @Override
+        public SocketTimings getTimings() {
+            return timings;
+        }
+    }
+
+    private final class EventSslSocket extends SslSocketWrapper implements TimedSocket {
+
+        private final String host;
+        private final SocketTimings timings = new SocketTimings();
+
+        EventSslSocket(SSLSocket delegate, String host) {
+            super(delegate);
+            this.host = host;
+        }
+
+        @Override
+        public void startHandshake() throws IOException {
+            long started = System.nanoTime();
+            super.startHandshake();
+            ConnectionEventListener listener = ConnectionEvents.this.listener;
+            if (listener != null) {
+                listener.onHandshakeCompleted(host, delegate.getSession(),
+                        System.nanoTime() - started);
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new TimedInputStream(super.getInputStream(), timings);
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return new TimedOutputStream(super.getOutputStream(), timings);
+        }
+
+        @Override
+        public SocketTimings getTimings() {
+            return timings;
+        }
+
+        @Override
+        public String toString() {
+            return "EventSslSocket{" + delegate + '}';
+        }
+    }
+
+    private static final class TimedInputStream extends FilterInputStream {
+
+        private final SocketTimings timings;
+
+        TimedInputStream(InputStream in, SocketTimings timings) {
+            super(in);
+            this.timings = timings;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                timings.onRead();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                timings.onRead();
+            }
+            return read;
+        }
+    }
+
+    private static final class TimedOutputStream extends FilterOutputStream {
+
+        private final SocketTimings timings;
+
+        TimedOutputStream(OutputStream out, SocketTimings timings) {
+            super(out);
+            this.timings = timings;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            timings.onWrite();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            timings.onWrite();
+        }
+    }
+}
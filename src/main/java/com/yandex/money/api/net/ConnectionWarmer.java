@@ -0,0 +1,459 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Warms up connections of {@link ApiClient}: resolves and caches addresses of hosts provided by
+ * {@link HostsProvider}, opens a number of keep-alive connections to each host and keeps them warm
+ * with idle pings.
+ * <p/>
+ * Connections are opened by concurrent {@code HEAD} requests to a root of a host, so number of
+ * connections per host should not exceed the number of idle connections kept by client's
+ * connection pool.
+ */
+public final class ConnectionWarmer implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(ConnectionWarmer.class.getName());
+
+    private final ApiClient client;
+    private final int connectionsPerHost;
+    private final long pingInterval;
+    private final long timeout;
+    private final Listener listener;
+    private final DnsCache dnsCache;
+
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+    private final CountDownLatch ready = new CountDownLatch(1);
+
+    private volatile Report report;
+
+    private ConnectionWarmer(Builder builder) {
+        if (builder.client == null) {
+            throw new NullPointerException("client is null");
+        }
+        if (builder.connectionsPerHost < 1) {
+            throw new IllegalArgumentException("connectionsPerHost should be greater than 0");
+        }
+        if (builder.pingInterval < 0) {
+            throw new IllegalArgumentException("pingInterval is negative");
+        }
+        if (builder.timeout < 1) {
+            throw new IllegalArgumentException("timeout should be greater than 0");
+        }
+        client = builder.client;
+        connectionsPerHost = builder.connectionsPerHost;
+        pingInterval = builder.pingInterval;
+        timeout = builder.timeout;
+        listener = builder.listener;
+
+        OkHttpClient httpClient = client.getHttpClient();
+        dnsCache = DnsCache.install(httpClient, builder.dnsTtl);
+        if (!httpClient.networkInterceptors().contains(BarrierInterceptor.INSTANCE)) {
+            httpClient.networkInterceptors().add(BarrierInterceptor.INSTANCE);
+        }
+
+        ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ConnectionWarmer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        executor = Executors.newCachedThreadPool(threadFactory);
+        scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    /**
+     * Starts warming up in background. Connections are kept warm until warmer is closed.
+     */
+    public void start() {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                warmUp();
+            }
+        };
+        if (pingInterval > 0) {
+            scheduler.scheduleWithFixedDelay(task, 0, pingInterval, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler.execute(task);
+        }
+    }
+
+    /**
+     * Warms up connections to all hosts once. Blocks until done.
+     *
+     * @return report of warming up
+     */
+    public Report warmUp() {
+        List<HostStatus> statuses = new ArrayList<>();
+        for (String host : getHosts()) {
+            statuses.add(warmUp(host));
+        }
+        Report report = new Report(statuses);
+        this.report = report;
+        if (report.isReady() && ready.getCount() > 0) {
+            ready.countDown();
+            if (listener != null) {
+                listener.onReady(report);
+            }
+        }
+        return report;
+    }
+
+    /**
+     * @return {@code true} if all hosts were connected
+     */
+    public boolean isReady() {
+        return ready.getCount() == 0;
+    }
+
+    /**
+     * Waits until all hosts are connected.
+     *
+     * @param timeout maximum time to wait
+     * @param unit time unit of timeout
+     * @return {@code true} if client is ready, {@code false} if timeout elapsed
+     * @throws InterruptedException if current thread was interrupted
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return ready.await(timeout, unit);
+    }
+
+    /**
+     * @return the last report or {@code null} if there were no warm ups yet
+     */
+    public Report getReport() {
+        return report;
+    }
+
+    /**
+     * Stops idle pings.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private Set<String> getHosts() {
+        HostsProvider hostsProvider = client.getHostsProvider();
+        Set<String> hosts = new LinkedHashSet<>();
+        EndpointSet endpoints = hostsProvider.getMoneyEndpoints();
+        if (endpoints == null) {
+            hosts.add(hostsProvider.getMoney());
+        } else {
+            hosts.addAll(endpoints.getEndpoints());
+        }
+        hosts.add(hostsProvider.getSpMoney());
+        return hosts;
+    }
+
+    private HostStatus warmUp(String host) {
+        List<InetAddress> addresses;
+        try {
+            addresses = Arrays.asList(dnsCache.prefetch(new URL(host).getHost()));
+        } catch (IOException e) {
+            return new HostStatus(host, Collections.<InetAddress>emptyList(), 0, e);
+        }
+
+        Barrier barrier = new Barrier(connectionsPerHost, timeout);
+        Request request = new Request.Builder()
+                .url(host + "/")
+                .head()
+                .tag(barrier)
+                .build();
+
+        List<Future<?>> futures = new ArrayList<>(connectionsPerHost);
+        for (int i = 0; i < connectionsPerHost; ++i) {
+            futures.add(executor.submit(new Ping(client.getHttpClient(), request, barrier)));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get(timeout, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                future.cancel(true);
+            }
+        }
+        return new HostStatus(host, addresses, barrier.getConnections(), barrier.getError());
+    }
+
+    /**
+     * Receives notification when client is ready.
+     */
+    public interface Listener {
+        /**
+         * Called once when all hosts are connected.
+         *
+         * @param report report of warming up
+         */
+        void onReady(Report report);
+    }
+
+    /**
+     * Result of warming up.
+     */
+    public static final class Report {
+
+        public final List<HostStatus> hosts;
+
+        Report(List<HostStatus> hosts) {
+            this.hosts = Collections.unmodifiableList(hosts);
+        }
+
+        /**
+         * @return {@code true} if all hosts are connected
+         */
+        public boolean isReady() {
+            for (HostStatus host : hosts) {
+                if (host.connections == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{" +
+                    "hosts=" + hosts +
+                    '}';
+        }
+    }
+
+    /**
+     * Status of a host.
+     */
+    public static final class HostStatus {
+
+        public final String host;
+        public final List<InetAddress> addresses;
+        public final int connections;
+        public final Exception error;
+
+        HostStatus(String host, List<InetAddress> addresses, int connections,
+                   Exception error) {
+            this.host = host;
+            this.addresses = Collections.unmodifiableList(addresses);
+            this.connections = connections;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return "HostStatus{" +
+                    "host='" + host + '\'' +
+                    ", addresses=" + addresses +
+                    ", connections=" + connections +
+                    ", error=" + error +
+                    '}';
+        }
+    }
+
+    private static final class Ping implements Runnable {
+
+        private final OkHttpClient client;
+        private final Request request;
+        private final Barrier barrier;
+
+        Ping(OkHttpClient client, Request request, Barrier barrier) {
+            this.client = client;
+            this.request = request;
+            this.barrier = barrier;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Response response = client.newCall(request).execute();
+                response.body().close();
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "warm up of " + request.urlString() + " failed", e);
+                barrier.onError(e);
+            }
+        }
+    }
+
+    /**
+     * Holds warm up requests until each of them acquires a connection, so every request gets its
+     * own connection.
+     */
+    private static final class Barrier {
+
+        private final CountDownLatch latch;
+        private final long timeout;
+        private final Set<Connection> connections =
+                Collections.synchronizedSet(new LinkedHashSet<Connection>());
+
+        private volatile Exception error;
+
+        Barrier(int count, long timeout) {
+            this.latch = new CountDownLatch(count);
+            this.timeout = timeout;
+        }
+
+        void arrive(Connection connection) {
+            if (connection != null) {
+                connections.add(connection);
+            }
+            latch.countDown();
+            try {
+                latch.await(timeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void onError(Exception error) {
+            this.error = error;
+            latch.countDown();
+        }
+
+        int getConnections() {
+            return connections.size();
+        }
+
+        Exception getError() {
+            return connections.isEmpty() ? error : null;
+        }
+    }
+
+    private static final class BarrierInterceptor implements Interceptor {
+
+        static final BarrierInterceptor INSTANCE = new BarrierInterceptor();
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            if (request.tag() instanceof Barrier) {
+                ((Barrier) request.tag()).arrive(chain.connection());
+            }
+            return chain.proceed(request);
+        }
+    }
+
+    /**
+     * Creates {@link ConnectionWarmer} instance.
+     */
+    public static final class Builder {
+
+        private ApiClient client;
+        private int connectionsPerHost = 2;
+        private long pingInterval = 30_000;
+        private long dnsTtl = 60_000;
+        private long timeout = 10_000;
+        private Listener listener;
+
+        /**
+         * @param client client to warm up (required)
+         * @return itself
+         */
+        public Builder setClient(ApiClient client) {
+            this.client = client;
+            return this;
+        }
+
+        /**
+         * @param connectionsPerHost number of connections to open to each host (default is 2)
+         * @return itself
+         */
+        public Builder setConnectionsPerHost(int connectionsPerHost) {
+            this.connectionsPerHost = connectionsPerHost;
+            return this;
+        }
+
+        /**
+         * @param pingInterval milliseconds between idle pings, 0 to disable pings (default is 30
+         *                     seconds)
+         * @return itself
+         */
+        public Builder setPingInterval(long pingInterval) {
+            this.pingInterval = pingInterval;
+            return this;
+        }
+
+        /**
+         * @param dnsTtl milliseconds to keep resolved addresses (default is 60 seconds)
+         * @return itself
+         */
+        public Builder setDnsTtl(long dnsTtl) {
+            this.dnsTtl = dnsTtl;
+            return this;
+        }
+
+        /**
+         * @param timeout milliseconds to wait for connections of a host (default is 10 seconds)
+         * @return itself
+         */
+        public Builder setTimeout(long timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * @param listener listener to notify when client is ready
+         * @return itself
+         */
+        public Builder setListener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * @return {@link ConnectionWarmer} instance
+         */
+        public ConnectionWarmer create() {
+            return new ConnectionWarmer(this);
+        }
+    }
+}
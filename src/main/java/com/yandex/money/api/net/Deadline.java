@@ -0,0 +1,103 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import com.yandex.money.api.exceptions.DeadlineExceededException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Absolute point in time by which an operation should be completed. Deadlines are based on
+ * {@link System#nanoTime()}, so they are not affected by changes of wall clock.
+ * <p/>
+ * Deadlines are immutable and can be shared between threads and calls: a deadline of a payment
+ * process is propagated to every call it makes.
+ */
+public final class Deadline {
+
+    private final long nanoTime;
+
+    private Deadline(long nanoTime) {
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Creates deadline that passes after specified duration from now.
+     *
+     * @param duration duration
+     * @param unit unit of duration
+     * @return deadline
+     */
+    public static Deadline after(long duration, TimeUnit unit) {
+        if (unit == null) {
+            throw new NullPointerException("unit is null");
+        }
+        return new Deadline(System.nanoTime() + unit.toNanos(duration));
+    }
+
+    /**
+     * @param unit unit of time
+     * @return time remaining until the deadline, {@code 0} if it has passed
+     */
+    public long timeRemaining(TimeUnit unit) {
+        if (unit == null) {
+            throw new NullPointerException("unit is null");
+        }
+        return unit.convert(Math.max(0, nanoTime - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return {@code true} if the deadline has passed
+     */
+    public boolean isExpired() {
+        return nanoTime - System.nanoTime() <= 0;
+    }
+
+    /**
+     * @param other other deadline, can be {@code null}
+     * @return the earliest of this and other deadlines
+     */
+    public Deadline earliest(Deadline other) {
+        return other == null || nanoTime - other.nanoTime <= 0 ? this : other;
+    }
+
+    /**
+     * Checks that the deadline has not passed.
+     *
+     * @throws DeadlineExceededException if the deadline has passed
+     */
+    public void check() throws DeadlineExceededException {
+        if (isExpired()) {
+            throw new DeadlineExceededException("deadline exceeded");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline{" +
+                "remaining=" + TimeUnit.NANOSECONDS.toMillis(nanoTime - System.nanoTime()) +
+                "ms}";
+    }
+}
@@ -26,12 +26,16 @@ package com.yandex.money.api.net;
 
 import com.squareup.okhttp.ConnectionPool;
 import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Protocol;
 import com.yandex.money.api.utils.Language;
 import com.yandex.money.api.utils.Strings;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -42,12 +46,19 @@ import java.util.concurrent.TimeUnit;
 public class DefaultApiClient implements ApiClient {
 
     private static final long DEFAULT_TIMEOUT = 30;
+    private static final List<Protocol> HTTP_1_PROTOCOLS =
+            Collections.singletonList(Protocol.HTTP_1_1);
+    private static final List<Protocol> HTTP_2_PROTOCOLS =
+            Collections.unmodifiableList(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
 
     private final String id;
     private final OkHttpClient httpClient;
-    private final HostsProvider hostsProvider;
+    private volatile HostsProvider hostsProvider;
+    private EndpointFailoverInterceptor failoverInterceptor;
 
     private String platform = "Java";
+    private UserAgent userAgent;
+    private ConnectionEvents connectionEvents;
 
     /**
      * Constructor.
@@ -94,6 +105,81 @@ public class DefaultApiClient implements ApiClient {
         }
     }
 
+    /**
+     * Sets listener of connection phases (DNS lookup, TCP connect, TLS handshake, request and
+     * response timings). Hooks are installed into HTTP client on the first call, so set the
+     * listener after HTTP client is configured.
+     *
+     * @param listener listener or {@code null} to stop reporting events
+     */
+    public synchronized void setConnectionEventListener(ConnectionEventListener listener) {
+        if (connectionEvents == null) {
+            if (listener == null) {
+                return;
+            }
+            connectionEvents = ConnectionEvents.install(httpClient);
+        }
+        connectionEvents.setListener(listener);
+    }
+
+    /**
+     * Sets wire capture of TLS connections. Replaces debug logging if it was turned on. Capture
+     * should be set before connection event listener.
+     *
+     * @param capture wire capture or {@code null} to stop capturing new connections
+     * @see #setConnectionEventListener(ConnectionEventListener)
+     */
+    public synchronized void setWireCapture(WireCapture capture) {
+        if (connectionEvents != null) {
+            throw new IllegalStateException("wire capture should be set before connection " +
+                    "event listener");
+        }
+        SSLSocketFactory sslSocketFactory = httpClient.getSslSocketFactory();
+        if (sslSocketFactory instanceof WireLoggingSocketFactory) {
+            sslSocketFactory = ((WireLoggingSocketFactory) sslSocketFactory).getDelegate();
+        } else if (sslSocketFactory == null) {
+            sslSocketFactory = createSslSocketFactory();
+        }
+        httpClient.setSslSocketFactory(capture == null ? sslSocketFactory :
+                new WireLoggingSocketFactory(sslSocketFactory, capture));
+    }
+
+    /**
+     * Sets hosts provider. If it uses {@link EndpointSet} outcomes of requests are reported to
+     * the set and failed idempotent requests are resent to other endpoints.
+     *
+     * @param hostsProvider hosts provider
+     */
+    public synchronized void setHostsProvider(HostsProvider hostsProvider) {
+        if (hostsProvider == null) {
+            throw new NullPointerException("hosts provider is null");
+        }
+        if (failoverInterceptor != null) {
+            httpClient.interceptors().remove(failoverInterceptor);
+            failoverInterceptor = null;
+        }
+        EndpointSet endpoints = hostsProvider.getMoneyEndpoints();
+        if (endpoints != null) {
+            failoverInterceptor = new EndpointFailoverInterceptor(endpoints);
+            httpClient.interceptors().add(failoverInterceptor);
+        }
+        this.hostsProvider = hostsProvider;
+    }
+
+    /**
+     * Enables or disables HTTP/2. When enabled HTTP/2 is negotiated using ALPN and requests to a
+     * host are multiplexed over a single connection. If ALPN is not available on the platform or
+     * the server does not support HTTP/2, HTTP/1.1 is used.
+     * <p/>
+     * Note that ALPN can not be applied to wrapped sockets, so HTTP/2 is not negotiated if debug
+     * logging or wire capture is used.
+     *
+     * @param enabled {@code true} to enable HTTP/2
+     */
+    public void setHttp2Enabled(boolean enabled) {
+        httpClient.setProtocols(enabled ? HTTP_2_PROTOCOLS : HTTP_1_PROTOCOLS);
+    }
+
     @Override
     public String getClientId() {
         return id;
@@ -111,7 +197,12 @@ public class DefaultApiClient implements ApiClient {
 
     @Override
     public UserAgent getUserAgent() {
-        return new DefaultUserAgent(platform);
+        UserAgent userAgent = this.userAgent;
+        if (userAgent == null) {
+            userAgent = new DefaultUserAgent(platform);
+            this.userAgent = userAgent;
+        }
+        return userAgent;
     }
 
     @Override
@@ -0,0 +1,115 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.internal.Internal;
+import com.squareup.okhttp.internal.Network;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches resolved addresses of hosts for a period of time. If resolution fails, expired
+ * addresses are used.
+ */
+final class DnsCache implements Network {
+
+    private final Network delegate;
+    private final long ttl;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private DnsCache(Network delegate, long ttl) {
+        this.delegate = delegate;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Installs cache into a client.
+     *
+     * @param client client
+     * @param ttl time to live of resolved addresses in milliseconds
+     * @return installed cache
+     */
+    static DnsCache install(OkHttpClient client, long ttl) {
+        if (client == null) {
+            throw new NullPointerException("client is null");
+        }
+        Network network = Internal.instance.network(client);
+        if (network instanceof DnsCache) {
+            return (DnsCache) network;
+        }
+        DnsCache cache = new DnsCache(network == null ? Network.DEFAULT : network, ttl);
+        Internal.instance.setNetwork(client, cache);
+        return cache;
+    }
+
+    @Override
+    public InetAddress[] resolveInetAddresses(String host) throws UnknownHostException {
+        Entry entry = entries.get(host);
+        if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+            return entry.addresses.clone();
+        }
+        return resolve(host, entry).clone();
+    }
+
+    /**
+     * Resolves a host and caches its addresses.
+     *
+     * @param host host name
+     * @return resolved addresses
+     * @throws UnknownHostException if host can not be resolved
+     */
+    InetAddress[] prefetch(String host) throws UnknownHostException {
+        return resolve(host, entries.get(host)).clone();
+    }
+
+    private InetAddress[] resolve(String host, Entry previous) throws UnknownHostException {
+        InetAddress[] addresses;
+        try {
+            addresses = delegate.resolveInetAddresses(host);
+        } catch (UnknownHostException e) {
+            if (previous == null) {
+                throw e;
+            }
+            return previous.addresses;
+        }
+        entries.put(host, new Entry(addresses, System.currentTimeMillis() + ttl));
+        return addresses;
+    }
+
+    private static final class Entry {
+
+        final InetAddress[] addresses;
+        final long expiresAt;
+
+        Entry(InetAddress[] addresses, long expiresAt) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
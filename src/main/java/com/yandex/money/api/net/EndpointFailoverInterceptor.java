@@ -0,0 +1,102 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reports outcomes of requests to {@link EndpointSet} and resends failed idempotent requests to
+ * other endpoints. A request fails if it can not reach the server or the server responds with
+ * 5xx code. Canceled calls are neither reported nor resent.
+ */
+final class EndpointFailoverInterceptor implements Interceptor {
+
+    private final EndpointSet endpoints;
+
+    EndpointFailoverInterceptor(EndpointSet endpoints) {
+        if (endpoints == null) {
+            throw new NullPointerException("endpoints is null");
+        }
+        this.endpoints = endpoints;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String endpoint = endpoints.find(request.urlString());
+        if (endpoint == null) {
+            return chain.proceed(request);
+        }
+
+        boolean idempotent = CallTag.getRequest(request.tag()) instanceof IdempotentRequest;
+        List<String> tried = new ArrayList<>(endpoints.size());
+        while (true) {
+            tried.add(endpoint);
+            String next = idempotent ? endpoints.select(tried) : null;
+
+            long started = System.nanoTime();
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                if (CallTag.isCanceled(request.tag())) {
+                    throw e;
+                }
+                endpoints.onFailure(endpoint);
+                if (next == null) {
+                    throw e;
+                }
+                request = redirect(request, endpoint, next);
+                endpoint = next;
+                continue;
+            }
+
+            if (response.code() < HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                endpoints.onSuccess(endpoint, System.nanoTime() - started);
+                return response;
+            }
+            endpoints.onFailure(endpoint);
+            if (next == null) {
+                return response;
+            }
+            response.body().close();
+            request = redirect(request, endpoint, next);
+            endpoint = next;
+        }
+    }
+
+    private static Request redirect(Request request, String from, String to) {
+        return request.newBuilder()
+                .url(to + request.urlString().substring(from.length()))
+                .build();
+    }
+}
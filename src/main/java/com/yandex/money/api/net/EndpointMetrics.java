@@ -0,0 +1,201 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import com.yandex.money.api.utils.LatencyHistogram;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Default implementation of {@link CallMetricsListener}. Keeps latency histograms and counters per
+ * endpoint. Recording is lock-free, snapshots can be taken at any time from any thread.
+ */
+public final class EndpointMetrics implements CallMetricsListener {
+
+    private final ConcurrentMap<String, Stats> stats = new ConcurrentHashMap<>();
+
+    @Override
+    public void onCallCompleted(CallMetrics metrics) {
+        getStats(metrics.endpoint).record(metrics);
+    }
+
+    /**
+     * @return snapshots of all endpoints called so far
+     */
+    public Map<String, Snapshot> snapshot() {
+        Map<String, Snapshot> snapshots = new HashMap<>();
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+        }
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    /**
+     * @param endpoint path of URL, e.g. {@code /api/account-info}
+     * @return snapshot of the endpoint or {@code null} if it was not called
+     */
+    public Snapshot snapshot(String endpoint) {
+        Stats value = stats.get(endpoint);
+        return value == null ? null : value.snapshot(endpoint);
+    }
+
+    private Stats getStats(String endpoint) {
+        Stats value = stats.get(endpoint);
+        if (value == null) {
+            Stats created = new Stats();
+            value = stats.putIfAbsent(endpoint, created);
+            if (value == null) {
+                value = created;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Immutable state of endpoint's metrics.
+     */
+    public static final class Snapshot {
+
+        /**
+         * path of URL
+         */
+        public final String endpoint;
+
+        /**
+         * number of completed calls
+         */
+        public final long calls;
+
+        /**
+         * number of calls completed with exception
+         */
+        public final long errors;
+
+        /**
+         * total size of request bodies
+         */
+        public final long bytesSent;
+
+        /**
+         * total size of response bodies
+         */
+        public final long bytesReceived;
+
+        /**
+         * total size of response bodies as received from network
+         */
+        public final long compressedBytesReceived;
+
+        /**
+         * total time of calls
+         */
+        public final LatencyHistogram.Snapshot latency;
+
+        /**
+         * network time of calls
+         */
+        public final LatencyHistogram.Snapshot networkTime;
+
+        /**
+         * total time spent in queue, in nanoseconds
+         */
+        public final long queueTime;
+
+        /**
+         * total time spent parsing responses, in nanoseconds
+         */
+        public final long parseTime;
+
+        private Snapshot(String endpoint, long calls, long errors, long bytesSent,
+                         long bytesReceived, long compressedBytesReceived,
+                         LatencyHistogram.Snapshot latency,
+                         LatencyHistogram.Snapshot networkTime, long queueTime, long parseTime) {
+            this.endpoint = endpoint;
+            this.calls = calls;
+            this.errors = errors;
+            this.bytesSent = bytesSent;
+            this.bytesReceived = bytesReceived;
+            this.compressedBytesReceived = compressedBytesReceived;
+            this.latency = latency;
+            this.networkTime = networkTime;
+            this.queueTime = queueTime;
+            this.parseTime = parseTime;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" +
+                    "endpoint='" + endpoint + '\'' +
+                    ", calls=" + calls +
+                    ", errors=" + errors +
+                    ", bytesSent=" + bytesSent +
+                    ", bytesReceived=" + bytesReceived +
+                    ", compressedBytesReceived=" + compressedBytesReceived +
+                    ", latency=" + latency +
+                    ", networkTime=" + networkTime +
+                    ", queueTime=" + queueTime +
+                    ", parseTime=" + parseTime +
+                    '}';
+        }
+    }
+
+    private static final class Stats {
+
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong bytesSent = new AtomicLong();
+        final AtomicLong bytesReceived = new AtomicLong();
+        final AtomicLong compressedBytesReceived = new AtomicLong();
+        final AtomicLong queueTime = new AtomicLong();
+        final AtomicLong parseTime = new AtomicLong();
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram networkTime = new LatencyHistogram();
+
+        void record(CallMetrics metrics) {
+            calls.incrementAndGet();
+            if (!metrics.isSuccessful()) {
+                errors.incrementAndGet();
+            }
+            bytesSent.addAndGet(metrics.bytesSent);
+            bytesReceived.addAndGet(metrics.bytesReceived);
+            compressedBytesReceived.addAndGet(metrics.compressedBytesReceived);
+            queueTime.addAndGet(metrics.queueTime);
+            parseTime.addAndGet(metrics.parseTime);
+            latency.record(metrics.getTotalTime());
+            networkTime.record(metrics.networkTime);
+        }
+
+        Snapshot snapshot(String endpoint) {
+            return new Snapshot(endpoint, calls.get(), errors.get(), bytesSent.get(),
+                    bytesReceived.get(), compressedBytesReceived.get(), latency.snapshot(), networkTime.snapshot(),
+                    queueTime.get(), parseTime.get());
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Set of equivalent API endpoints (for instance, regional fronts). Tracks health and latency of
+ * each endpoint and selects the best one for a request.
+ * <p/>
+ * Latency is scored using exponentially weighted moving average of round-trip times. An endpoint
+ * is considered unavailable after a number of consecutive failures and is tried again when retry
+ * delay passes. Endpoints that were not measured yet are preferred, so every endpoint gets its
+ * score.
+ *
+ * @see HostsProvider#HostsProvider(boolean, EndpointSet)
+ */
+public final class EndpointSet {
+
+    private final List<Endpoint> endpoints;
+    private final double smoothing;
+    private final int failureThreshold;
+    private final long retryDelay;
+
+    private EndpointSet(Builder builder) {
+        if (builder.urls.isEmpty()) {
+            throw new IllegalStateException("no endpoints added");
+        }
+        if (builder.smoothing <= 0 || builder.smoothing > 1) {
+            throw new IllegalArgumentException("smoothing should be in (0, 1]");
+        }
+        if (builder.failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold should be greater than 0");
+        }
+        if (builder.retryDelay < 0) {
+            throw new IllegalArgumentException("retryDelay is negative");
+        }
+        List<Endpoint> endpoints = new ArrayList<>(builder.urls.size());
+        for (String url : builder.urls) {
+            endpoints.add(new Endpoint(url));
+        }
+        this.endpoints = Collections.unmodifiableList(endpoints);
+        smoothing = builder.smoothing;
+        failureThreshold = builder.failureThreshold;
+        retryDelay = builder.retryDelay;
+    }
+
+    /**
+     * @return URLs of endpoints in order they were added
+     */
+    public List<String> getEndpoints() {
+        List<String> urls = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            urls.add(endpoint.url);
+        }
+        return urls;
+    }
+
+    /**
+     * Selects the best endpoint: available one with the lowest latency score. If all endpoints
+     * are unavailable the one that will be retried first is selected.
+     *
+     * @return URL of an endpoint
+     */
+    public String select() {
+        return select(Collections.<String>emptySet());
+    }
+
+    /**
+     * Reports successful request to an endpoint.
+     *
+     * @param endpoint URL of the endpoint
+     * @param rttNanos round-trip time of the request in nanoseconds
+     */
+    public void onSuccess(String endpoint, long rttNanos) {
+        Endpoint state = get(endpoint);
+        synchronized (state) {
+            state.failures = 0;
+            state.latency = state.latency == 0 ? rttNanos :
+                    (long) (state.latency * (1 - smoothing) + rttNanos * smoothing);
+        }
+    }
+
+    /**
+     * Reports failed request to an endpoint: connectivity problem or server error.
+     *
+     * @param endpoint URL of the endpoint
+     */
+    public void onFailure(String endpoint) {
+        Endpoint state = get(endpoint);
+        synchronized (state) {
+            if (++state.failures >= failureThreshold) {
+                state.retryAt = System.currentTimeMillis() + retryDelay;
+            }
+        }
+    }
+
+    /**
+     * @param endpoint URL of the endpoint
+     * @return {@code true} if endpoint can be used
+     */
+    public boolean isAvailable(String endpoint) {
+        Endpoint state = get(endpoint);
+        synchronized (state) {
+            return isAvailable(state, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * @param endpoint URL of the endpoint
+     * @return latency score in nanoseconds or 0 if it was not measured yet
+     */
+    public long getLatency(String endpoint) {
+        Endpoint state = get(endpoint);
+        synchronized (state) {
+            return state.latency;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("EndpointSet{");
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < endpoints.size(); ++i) {
+            Endpoint endpoint = endpoints.get(i);
+            synchronized (endpoint) {
+                builder.append(i == 0 ? "" : ", ")
+                        .append(endpoint.url)
+                        .append("=[latency=").append(endpoint.latency)
+                        .append(", available=").append(isAvailable(endpoint, now))
+                        .append(']');
+            }
+        }
+        return builder.append('}').toString();
+    }
+
+    /**
+     * Selects the best endpoint excluding some of them.
+     *
+     * @param excluded URLs of endpoints to exclude
+     * @return URL of an endpoint or {@code null} if all endpoints are excluded
+     */
+    String select(Collection<String> excluded) {
+        long now = System.currentTimeMillis();
+        Endpoint best = null;
+        long bestLatency = Long.MAX_VALUE;
+        Endpoint fallback = null;
+        long fallbackRetryAt = Long.MAX_VALUE;
+
+        for (Endpoint endpoint : endpoints) {
+            if (excluded.contains(endpoint.url)) {
+                continue;
+            }
+            synchronized (endpoint) {
+                if (isAvailable(endpoint, now)) {
+                    if (endpoint.latency < bestLatency) {
+                        best = endpoint;
+                        bestLatency = endpoint.latency;
+                    }
+                } else if (endpoint.retryAt < fallbackRetryAt) {
+                    fallback = endpoint;
+                    fallbackRetryAt = endpoint.retryAt;
+                }
+            }
+        }
+
+        Endpoint selected = best == null ? fallback : best;
+        return selected == null ? null : selected.url;
+    }
+
+    /**
+     * Finds an endpoint that URL belongs to.
+     *
+     * @param url request URL
+     * @return URL of an endpoint or {@code null} if not found
+     */
+    String find(String url) {
+        for (Endpoint endpoint : endpoints) {
+            if (url.startsWith(endpoint.url) && (url.length() == endpoint.url.length() ||
+                    url.charAt(endpoint.url.length()) == '/')) {
+                return endpoint.url;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return number of endpoints
+     */
+    int size() {
+        return endpoints.size();
+    }
+
+    private Endpoint get(String url) {
+        if (url == null) {
+            throw new NullPointerException("endpoint is null");
+        }
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.url.equals(url)) {
+                return endpoint;
+            }
+        }
+        throw new IllegalArgumentException("unknown endpoint " + url);
+    }
+
+    private boolean isAvailable(Endpoint endpoint, long now) {
+        return endpoint.failures < failureThreshold || endpoint.retryAt <= now;
+    }
+
+    private static final class Endpoint {
+
+        final String url;
+
+        int failures;
+        long retryAt;
+        long latency;
+
+        Endpoint(String url) {
+            this.url = url;
+        }
+    }
+
+    /**
+     * Creates {@link EndpointSet} instance.
+     */
+    public static final class Builder {
+
+        private final List<String> urls = new ArrayList<>();
+
+        private double smoothing = 0.3;
+        private int failureThreshold = 3;
+        private long retryDelay = 30_000;
+
+        /**
+         * @param url URL of an endpoint, for instance {@code https://money.yandex.ru}
+         * @return itself
+         */
+        public Builder addEndpoint(String url) {
+            if (url == null) {
+                throw new NullPointerException("url is null");
+            }
+            String endpoint = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+            if (!urls.contains(endpoint)) {
+                urls.add(endpoint);
+            }
+            return this;
+        }
+
+        /**
+         * @param smoothing weight of the latest round-trip time in latency score, in (0, 1]
+         *                  (default is 0.3)
+         * @return itself
+         */
+        public Builder setSmoothing(double smoothing) {
+            this.smoothing = smoothing;
+            return this;
+        }
+
+        /**
+         * @param failureThreshold number of consecutive failures after which an endpoint is
+         *                         considered unavailable (default is 3)
+         * @return itself
+         */
+        public Builder setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        /**
+         * @param retryDelay milliseconds after which unavailable endpoint is tried again (default
+         *                   is 30 seconds)
+         * @return itself
+         */
+        public Builder setRetryDelay(long retryDelay) {
+            this.retryDelay = retryDelay;
+            return this;
+        }
+
+        /**
+         * @return {@link EndpointSet} instance
+         */
+        public EndpointSet create() {
+            return new EndpointSet(this);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Call that is hedged according to {@link HedgingPolicy}: if the first attempt is not completed
+ * within a delay second attempt is started, the first successful attempt completes the call and
+ * cancels the other one. Failure of the first attempt before the delay fails the call.
+ * <p/>
+ * Latency of the first attempt is recorded to the policy even if it loses: a canceled attempt
+ * contributes time elapsed before cancellation as a lower bound, so slow responses are not lost
+ * from the distribution the delay is derived from.
+ *
+ * @param <T> response type
+ */
+abstract class HedgedCall<T> {
+
+    private final HedgingPolicy policy;
+    private final String endpoint;
+    private final ApiFuture<T> result = new ApiFuture<>();
+    private final Object lock = new Object();
+    private final List<ApiFuture<T>> attempts = new ArrayList<>(2);
+
+    private long started;
+    private int failed;
+    private boolean hedgeResolved;
+    private boolean hedgeWon;
+    private ScheduledFuture<?> timer;
+
+    HedgedCall(HedgingPolicy policy, String endpoint) {
+        this.policy = policy;
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Starts an attempt.
+     *
+     * @return future of the attempt
+     */
+    abstract ApiFuture<T> attempt();
+
+    /**
+     * Starts the call.
+     *
+     * @return future of the call
+     */
+    final ApiFuture<T> start() {
+        policy.onRequest();
+        started = System.nanoTime();
+        result.setCanceller(new Runnable() {
+            @Override
+            public void run() {
+                cancelAll();
+            }
+        });
+
+        launch(true);
+        ScheduledFuture<?> timer = ApiFuture.schedule(new Runnable() {
+            @Override
+            public void run() {
+                hedge();
+            }
+        }, policy.getDelay(endpoint, TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        synchronized (lock) {
+            this.timer = timer;
+        }
+        if (result.isDone()) {
+            timer.cancel(false);
+        }
+        return result;
+    }
+
+    private void hedge() {
+        synchronized (lock) {
+            if (hedgeResolved || result.isDone()) {
+                return;
+            }
+            hedgeResolved = true;
+        }
+        if (policy.tryHedge()) {
+            launch(false);
+        }
+    }
+
+    private void launch(final boolean primary) {
+        final ApiFuture<T> attempt = attempt();
+        synchronized (lock) {
+            attempts.add(attempt);
+        }
+        if (result.isDone()) {
+            attempt.cancel(true);
+            return;
+        }
+        attempt.addCallback(new OnResponseReady<T>() {
+            @Override
+            public void onFailure(Exception exception) {
+                boolean lost;
+                boolean fail;
+                synchronized (lock) {
+                    lost = primary && hedgeWon;
+                    failed++;
+                    // do not hedge failed requests, retries are up to the caller
+                    hedgeResolved = true;
+                    fail = failed == attempts.size();
+                }
+                if (lost && exception instanceof CancellationException) {
+                    policy.record(endpoint, System.nanoTime() - started);
+                }
+                if (fail && result.fail(exception)) {
+                    cancelAll();
+                }
+            }
+
+            @Override
+            public void onResponse(T response) {
+                if (primary) {
+                    policy.record(endpoint, System.nanoTime() - started);
+                }
+                if (result.complete(response)) {
+                    if (!primary) {
+                        synchronized (lock) {
+                            hedgeWon = true;
+                        }
+                    }
+                    cancelAll();
+                }
+            }
+        });
+    }
+
+    private void cancelAll() {
+        List<ApiFuture<T>> attempts;
+        ScheduledFuture<?> timer;
+        synchronized (lock) {
+            hedgeResolved = true;
+            attempts = new ArrayList<>(this.attempts);
+            timer = this.timer;
+        }
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        for (ApiFuture<T> attempt : attempts) {
+            attempt.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import com.yandex.money.api.utils.LatencyHistogram;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Policy of hedged requests. If a response to an idempotent request does not arrive within a
+ * delay a duplicate request is sent and whichever completes first is used, the other one is
+ * canceled. The delay is a percentile of latencies observed for an endpoint, so only slowest
+ * requests are hedged. Number of hedges is limited by a fraction of all requests.
+ *
+ * @see OAuth2Session#setHedgingPolicy(HedgingPolicy)
+ * @see IdempotentRequest
+ */
+public final class HedgingPolicy {
+
+    private static final int REFRESH_INTERVAL = 32;
+
+    private final double percentile;
+    private final long minDelay;
+    private final long maxDelay;
+    private final int minSamples;
+    private final double maxHedgeRate;
+    private final double maxBurst;
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+
+    private double tokens;
+    private long requests;
+    private long hedges;
+
+    private HedgingPolicy(Builder builder) {
+        if (builder.percentile <= 0 || builder.percentile >= 100) {
+            throw new IllegalArgumentException("percentile should be in (0, 100)");
+        }
+        if (builder.minDelay < 0 || builder.maxDelay < builder.minDelay) {
+            throw new IllegalArgumentException("illegal delay range");
+        }
+        if (builder.maxHedgeRate < 0 || builder.maxHedgeRate > 1) {
+            throw new IllegalArgumentException("maxHedgeRate should be in [0, 1]");
+        }
+        if (builder.maxBurst < 1) {
+            throw new IllegalArgumentException("maxBurst should be greater than 0");
+        }
+        percentile = builder.percentile;
+        minDelay = builder.minDelay;
+        maxDelay = builder.maxDelay;
+        minSamples = builder.minSamples;
+        maxHedgeRate = builder.maxHedgeRate;
+        maxBurst = builder.maxBurst;
+    }
+
+    /**
+     * Gets delay after which a request to the endpoint is hedged. Until enough latencies are
+     * observed maximum delay is used.
+     *
+     * @param endpoint endpoint
+     * @param unit unit of delay
+     * @return delay
+     */
+    public long getDelay(String endpoint, TimeUnit unit) {
+        Endpoint state = endpoints.get(endpoint);
+        long delay = state == null ? maxDelay : state.delay;
+        return unit.convert(delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return number of requests that could be hedged
+     */
+    public long getRequestCount() {
+        synchronized (lock) {
+            return requests;
+        }
+    }
+
+    /**
+     * @return number of sent hedges
+     */
+    public long getHedgeCount() {
+        synchronized (lock) {
+            return hedges;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return "HedgingPolicy{" +
+                    "percentile=" + percentile +
+                    ", requests=" + requests +
+                    ", hedges=" + hedges +
+                    '}';
+        }
+    }
+
+    /**
+     * Records latency of a completed request.
+     *
+     * @param endpoint endpoint
+     * @param nanos latency in nanoseconds
+     */
+    void record(String endpoint, long nanos) {
+        Endpoint state = endpoints.get(endpoint);
+        if (state == null) {
+            Endpoint created = new Endpoint(maxDelay);
+            state = endpoints.putIfAbsent(endpoint, created);
+            if (state == null) {
+                state = created;
+            }
+        }
+        state.histogram.record(nanos);
+        long samples = state.samples.incrementAndGet();
+        if (samples == minSamples || samples % REFRESH_INTERVAL == 0) {
+            LatencyHistogram.Snapshot snapshot = state.histogram.snapshot();
+            if (snapshot.getCount() >= minSamples) {
+                state.delay = Math.max(minDelay,
+                        Math.min(maxDelay, snapshot.getPercentile(percentile)));
+            }
+        }
+    }
+
+    /**
+     * Registers a request that can be hedged. Every request allows a fraction of a hedge.
+     */
+    void onRequest() {
+        synchronized (lock) {
+            requests++;
+            tokens = Math.min(maxBurst, tokens + maxHedgeRate);
+        }
+    }
+
+    /**
+     * @return {@code true} if a hedge can be sent without exceeding maximum rate
+     */
+    boolean tryHedge() {
+        synchronized (lock) {
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            hedges++;
+            return true;
+        }
+    }
+
+    private static final class Endpoint {
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final AtomicLong samples = new AtomicLong();
+        volatile long delay;
+
+        Endpoint(long delay) {
+            this.delay = delay;
+        }
+    }
+
+    /**
+     * Creates {@link HedgingPolicy} instance.
+     */
+    public static final class Builder {
+
+        private double percentile = 95;
+        private long minDelay = TimeUnit.MILLISECONDS.toNanos(10);
+        private long maxDelay = TimeUnit.SECONDS.toNanos(1);
+        private int minSamples = 20;
+        private double maxHedgeRate = 0.05;
+        private double maxBurst = 10;
+
+        /**
+         * @param percentile percentile of latency after which requests are hedged (default is 95)
+         * @return itself
+         */
+        public Builder setPercentile(double percentile) {
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * @param minDelay the delay will never go lower (default is 10 ms)
+         * @param unit unit of delay
+         * @return itself
+         */
+        public Builder setMinDelay(long minDelay, TimeUnit unit) {
+            this.minDelay = unit.toNanos(minDelay);
+            return this;
+        }
+
+        /**
+         * @param maxDelay the delay will never go higher, it is also used until enough latencies
+         *                 are observed (default is 1 s)
+         * @param unit unit of delay
+         * @return itself
+         */
+        public Builder setMaxDelay(long maxDelay, TimeUnit unit) {
+            this.maxDelay = unit.toNanos(maxDelay);
+            return this;
+        }
+
+        /**
+         * @param minSamples number of latencies required to use percentile (default is 20)
+         * @return itself
+         */
+        public Builder setMinSamples(int minSamples) {
+            this.minSamples = minSamples;
+            return this;
+        }
+
+        /**
+         * @param maxHedgeRate maximum fraction of requests that are hedged (default is 0.05)
+         * @return itself
+         */
+        public Builder setMaxHedgeRate(double maxHedgeRate) {
+            this.maxHedgeRate = maxHedgeRate;
+            return this;
+        }
+
+        /**
+         * @param maxBurst maximum number of hedges that can be sent in a row if there were no
+         *                 hedges for a while (default is 10)
+         * @return itself
+         */
+        public Builder setMaxBurst(double maxBurst) {
+            this.maxBurst = maxBurst;
+            return this;
+        }
+
+        /**
+         * @return {@link HedgingPolicy} instance
+         */
+        public HedgingPolicy create() {
+            return new HedgingPolicy(this);
+        }
+    }
+}
@@ -26,12 +26,18 @@ package com.yandex.money.api.net;
 
 /**
  * Provides necessary hosts. They are used to perform API requests.
+ * <p/>
+ * Money host can be backed by {@link EndpointSet}, in this case the best endpoint is selected
+ * for every request.
  *
  * @author Slava Yasevich (vyasevich@yamoney.ru)
  */
 public class HostsProvider {
 
+    private static final String MONEY = "https://money.yandex.ru";
+
     private final boolean mobile;
+    private final EndpointSet moneyEndpoints;
 
     /**
      * Constructor.
@@ -40,13 +46,28 @@ public class HostsProvider {
      */
     public HostsProvider(boolean mobile) {
         this.mobile = mobile;
+        this.moneyEndpoints = null;
     }
 
     /**
-     * @return {@code https://money.yandex.ru}
+     * Constructor.
+     *
+     * @param mobile {@code true} if running on a mobile device
+     * @param moneyEndpoints endpoints to use instead of {@code https://money.yandex.ru}
+     */
+    public HostsProvider(boolean mobile, EndpointSet moneyEndpoints) {
+        if (moneyEndpoints == null) {
+            throw new NullPointerException("moneyEndpoints is null");
+        }
+        this.mobile = mobile;
+        this.moneyEndpoints = moneyEndpoints;
+    }
+
+    /**
+     * @return {@code https://money.yandex.ru} or the best endpoint if endpoint set is used
      */
     public String getMoney() {
-        return "https://money.yandex.ru";
+        return moneyEndpoints == null ? MONEY : moneyEndpoints.select();
     }
 
     /**
@@ -63,4 +84,11 @@ public class HostsProvider {
     public String getSpMoney() {
         return mobile ? "https://m.sp-money.yandex.ru" : "https://sp-money.yandex.ru";
     }
+
+    /**
+     * @return endpoint set used for money host or {@code null} if it is not used
+     */
+    public EndpointSet getMoneyEndpoints() {
+        return moneyEndpoints;
+    }
 }
@@ -27,6 +27,7 @@ package com.yandex.money.api.net;
 import com.yandex.money.api.model.Scope;
 import com.yandex.money.api.utils.Strings;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -135,6 +136,15 @@ public class OAuth2Authorization {
             return this;
         }
 
+        /**
+         * @return scopes added with {@link #addScope(Scope)} or {@code null} if raw scopes are
+         * set or no scopes are added
+         */
+        Set<Scope> getScopes() {
+            return Strings.isNullOrEmpty(rawScope) && scopes != null ?
+                    Collections.unmodifiableSet(scopes) : null;
+        }
+
         /**
          * Build provided parameters.
          *
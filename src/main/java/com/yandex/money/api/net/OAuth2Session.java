@@ -26,18 +26,28 @@ package com.yandex.money.api.net;
 
 import com.squareup.okhttp.Call;
 import com.squareup.okhttp.Callback;
+import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
 import com.squareup.okhttp.Response;
+import com.yandex.money.api.exceptions.DeadlineExceededException;
 import com.yandex.money.api.exceptions.InsufficientScopeException;
 import com.yandex.money.api.exceptions.InvalidRequestException;
 import com.yandex.money.api.exceptions.InvalidTokenException;
+import com.yandex.money.api.methods.Token;
 import com.yandex.money.api.utils.HttpHeaders;
 import com.yandex.money.api.utils.MimeTypes;
 import com.yandex.money.api.utils.Strings;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * OAuth2 session that can be used to perform API requests and retrieve responses.
@@ -46,7 +56,16 @@ import java.net.HttpURLConnection;
  */
 public class OAuth2Session extends AbstractSession {
 
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final String BEARER = "Bearer ";
+
     private String accessToken;
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private CallMetricsListener callMetricsListener;
+    private Executor callbackExecutor;
+    private Bulkhead bulkhead;
+    private HedgingPolicy hedgingPolicy;
+    private AuthorizationCache authorizationCache;
 
     /**
      * Constructor.
@@ -71,7 +90,61 @@ public class OAuth2Session extends AbstractSession {
      */
     public <T> T execute(ApiRequest<T> request) throws IOException, InvalidRequestException,
             InvalidTokenException, InsufficientScopeException {
-        return parseResponse(request, makeCall(request).execute());
+        return execute(request, null);
+    }
+
+    /**
+     * Synchronous execution of a request which should be completed before the deadline. Socket
+     * timeouts are capped by the time remaining and the call is canceled when the deadline passes.
+     * If hedging policy is set idempotent requests are hedged.
+     *
+     * @param request the request
+     * @param deadline deadline of the call, can be {@code null}
+     * @param <T> response type
+     * @return parsed response
+     * @throws DeadlineExceededException if the deadline has passed
+     * @throws IOException if something went wrong during IO operations
+     * @throws InvalidRequestException if server responded with 404 code
+     * @throws InvalidTokenException if server responded with 401 code
+     * @throws InsufficientScopeException if server responded with 403 code
+     */
+    public <T> T execute(ApiRequest<T> request, Deadline deadline) throws IOException,
+            InvalidRequestException, InvalidTokenException, InsufficientScopeException {
+
+        if (deadline != null) {
+            deadline.check();
+        }
+        AuthorizationCache authorizationCache = this.authorizationCache;
+        if (authorizationCache != null) {
+            authorizationCache.check(request, accessToken);
+        }
+        if (hedgingPolicy != null && request instanceof IdempotentRequest) {
+            return await(enqueue(request, deadline));
+        }
+        Request httpRequest = makeRequest(request, accessToken);
+        Call call = newCall(request, httpRequest, deadline);
+        CallRecorder recorder = new CallRecorder(httpRequest, getLimiter(request),
+                callMetricsListener);
+
+        recorder.acquire(deadline);
+        ScheduledFuture<?> canceller = scheduleCancel(call, deadline);
+        try {
+            Response response = call.execute();
+            recorder.onResponse(response);
+            T result = parseResponse(request, response, recorder);
+            recorder.onCompleted(null);
+            return result;
+        } catch (IOException e) {
+            recorder.onCompleted(e, call.isCanceled());
+            throw deadlineExceeded(e, deadline);
+        } catch (Exception e) {
+            recorder.onCompleted(e);
+            throw e;
+        } finally {
+            if (canceller != null) {
+                canceller.cancel(false);
+            }
+        }
     }
 
     /**
@@ -83,28 +156,201 @@ public class OAuth2Session extends AbstractSession {
      * @return a {@link Call} object that can be canceled
      * @throws IOException if something went wrong during IO operations
      */
-    public <T> Call enqueue(final ApiRequest<T> request, final OnResponseReady<T> callback)
+    public <T> Call enqueue(ApiRequest<T> request, OnResponseReady<T> callback)
             throws IOException {
+        return enqueue(request, callback, null);
+    }
 
-        Call call = makeCall(request);
-        call.enqueue(new Callback() {
-            @Override
-            public void onFailure(Request request, IOException e) {
-                callback.onFailure(e);
-            }
+    /**
+     * Asynchronous execution of a request which should be completed before the deadline. Socket
+     * timeouts are capped by the time remaining and the call is canceled when the deadline
+     * passes, in that case callback receives {@link DeadlineExceededException}.
+     *
+     * @param request the request
+     * @param callback called when response is ready or if error occurred
+     * @param deadline deadline of the call, can be {@code null}
+     * @param <T> response type
+     * @return a {@link Call} object that can be canceled
+     * @throws DeadlineExceededException if the deadline has passed
+     * @throws IOException if something went wrong during IO operations
+     */
+    public <T> Call enqueue(ApiRequest<T> request, OnResponseReady<T> callback,
+                            Deadline deadline) throws IOException {
+        return enqueue(request, callback, deadline, accessToken);
+    }
 
-            @Override
-            public void onResponse(Response response) throws IOException {
-                try {
-                    callback.onResponse(parseResponse(request, response));
-                } catch (Exception e) {
-                    callback.onFailure(e);
+    private <T> Call enqueue(final ApiRequest<T> request, OnResponseReady<T> callback,
+                             final Deadline deadline, String accessToken) throws IOException {
+
+        if (deadline != null) {
+            deadline.check();
+        }
+        Request httpRequest = makeRequest(request, accessToken);
+        final Call call = newCall(request, httpRequest, deadline);
+        final OnResponseReady<T> target = withDeadline(callback, scheduleCancel(call, deadline),
+                deadline);
+        final Exception rejection = getRejection(request, accessToken);
+        if (rejection != null) {
+            // rejected locally, so no permit is taken but the callback is called the usual way
+            final CallRecorder recorder = new CallRecorder(httpRequest, null,
+                    callMetricsListener);
+            recorder.execute(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(new Runnable() {
+                        @Override
+                        public void run() {
+                            recorder.onCompleted(rejection);
+                            target.onFailure(rejection);
+                        }
+                    }, null, recorder, target);
                 }
+            });
+            return call;
+        }
+        final CallRecorder recorder = new CallRecorder(httpRequest, getLimiter(request),
+                callMetricsListener);
+
+        recorder.execute(new Runnable() {
+            @Override
+            public void run() {
+                call.enqueue(new Callback() {
+                    @Override
+                    public void onFailure(Request httpRequest, final IOException e) {
+                        final boolean canceled = call.isCanceled();
+                        deliver(new Runnable() {
+                            @Override
+                            public void run() {
+                                recorder.onCompleted(e, canceled);
+                                target.onFailure(e);
+                            }
+                        }, null, recorder, target);
+                    }
+
+                    @Override
+                    public void onResponse(final Response response) throws IOException {
+                        recorder.onResponse(response);
+                        deliver(new Runnable() {
+                            @Override
+                            public void run() {
+                                T result;
+                                try {
+                                    result = parseResponse(request, response, recorder);
+                                } catch (Exception e) {
+                                    recorder.onCompleted(e);
+                                    target.onFailure(e);
+                                    return;
+                                }
+                                recorder.onCompleted(null);
+                                try {
+                                    target.onResponse(result);
+                                } catch (Exception e) {
+                                    target.onFailure(e);
+                                }
+                            }
+                        }, response, recorder, target);
+                    }
+                });
             }
         });
         return call;
     }
 
+    /**
+     * Asynchronous execution of a request. Unlike {@link #enqueue(ApiRequest, OnResponseReady)}
+     * returns a future that can be composed with other requests. Canceling the future cancels the
+     * call.
+     *
+     * @param request the request
+     * @param <T> response type
+     * @return future of response
+     */
+    public <T> ApiFuture<T> enqueue(ApiRequest<T> request) {
+        return enqueue(request, (Deadline) null);
+    }
+
+    /**
+     * Asynchronous execution of a request which should be completed before the deadline. If
+     * hedging policy is set idempotent requests are hedged.
+     *
+     * @param request the request
+     * @param deadline deadline of the call, can be {@code null}
+     * @param <T> response type
+     * @return future of response
+     * @see #setHedgingPolicy(HedgingPolicy)
+     */
+    public <T> ApiFuture<T> enqueue(ApiRequest<T> request, Deadline deadline) {
+        return submit(request, deadline, accessToken);
+    }
+
+    /**
+     * Sets hedging policy for idempotent requests. When a response is late a duplicate request is
+     * sent and the first response is used. Can be set to {@code null} to disable hedging.
+     *
+     * @param hedgingPolicy hedging policy
+     * @see IdempotentRequest
+     */
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    /**
+     * Sets cache of scopes and invalid tokens. Requests that are certainly rejected by the API
+     * fail without a round-trip. Can be set to {@code null} to send all requests.
+     *
+     * @param authorizationCache authorization cache
+     */
+    public void setAuthorizationCache(AuthorizationCache authorizationCache) {
+        this.authorizationCache = authorizationCache;
+    }
+
+    /**
+     * Sets bulkhead that isolates traffic classes. Requests of isolated classes use resources and
+     * concurrency limiter of their compartments, other requests use resources of the client and
+     * limiter of this session. Can be set to {@code null} to remove isolation.
+     *
+     * @param bulkhead bulkhead
+     * @see TrafficClass
+     */
+    public void setBulkhead(Bulkhead bulkhead) {
+        this.bulkhead = bulkhead;
+    }
+
+    /**
+     * Sets executor used to parse responses of {@link #enqueue(ApiRequest, OnResponseReady)} and
+     * to deliver results to callbacks. By default it is done on network threads of OkHttp, so
+     * slow callbacks delay other calls. The executor can be a dedicated pool or, when running on
+     * a recent JVM, a virtual-thread-per-task executor. Can be set to {@code null} to use network
+     * threads.
+     *
+     * @param callbackExecutor executor for parsing and callbacks
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Sets concurrency limiter for requests of this session. Requests that do not fit into the
+     * limit are queued: {@link #execute(ApiRequest)} blocks until a permit is available,
+     * {@link #enqueue(ApiRequest, OnResponseReady)} defers the call. Can be set to {@code null} to
+     * remove the limit.
+     *
+     * @param concurrencyLimiter concurrency limiter
+     */
+    public void setConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * Sets listener of calls' measurements. Can be set to {@code null} to stop measuring.
+     *
+     * @param callMetricsListener the listener
+     * @see EndpointMetrics
+     */
+    public void setCallMetricsListener(CallMetricsListener callMetricsListener) {
+        this.callMetricsListener = callMetricsListener;
+    }
+
     /**
      * Sets access token to perform authorized operations. Can be set to {@code null}, if no
      * access token is required to execute a request.
@@ -134,33 +380,261 @@ public class OAuth2Session extends AbstractSession {
         return new OAuth2Authorization(client);
     }
 
-    private <T> Call makeCall(ApiRequest<T> request) {
-        final Request.Builder builder = prepareRequestBuilder(request);
-        if (isAuthorized()) {
-            builder.addHeader(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken);
+    /**
+     * Asynchronous execution of a request on behalf of a user other than the one of this session.
+     *
+     * @param request the request
+     * @param deadline deadline of the call, can be {@code null}
+     * @param accessToken access token of the user, can be {@code null} for requests that do not
+     *                    require authorization
+     * @param <T> response type
+     * @return future of response
+     */
+    <T> ApiFuture<T> submit(final ApiRequest<T> request, final Deadline deadline,
+                            final String accessToken) {
+
+        HedgingPolicy hedgingPolicy = this.hedgingPolicy;
+        if (hedgingPolicy == null || !(request instanceof IdempotentRequest)) {
+            return enqueueAttempt(request, deadline, accessToken);
         }
-        return prepareCall(builder);
+        return new HedgedCall<T>(hedgingPolicy, request.requestUrl(client.getHostsProvider())) {
+            @Override
+            ApiFuture<T> attempt() {
+                return enqueueAttempt(request, deadline, accessToken);
+            }
+        }.start();
     }
 
-    private <T> T parseResponse(ApiRequest<T> request, Response response) throws IOException,
-            InvalidRequestException, InvalidTokenException, InsufficientScopeException {
+    private <T> ApiFuture<T> enqueueAttempt(ApiRequest<T> request, Deadline deadline,
+                                            String accessToken) {
+        final ApiFuture<T> future = new ApiFuture<>();
+        final Call call;
+        try {
+            call = enqueue(request, new OnResponseReady<T>() {
+                @Override
+                public void onFailure(Exception exception) {
+                    future.fail(exception);
+                }
+
+                @Override
+                public void onResponse(T response) {
+                    future.complete(response);
+                }
+            }, deadline, accessToken);
+        } catch (IOException e) {
+            future.fail(e);
+            return future;
+        }
+        future.setCanceller(new Runnable() {
+            @Override
+            public void run() {
+                call.cancel();
+            }
+        });
+        return future;
+    }
+
+    private Exception getRejection(ApiRequest<?> request, String accessToken) {
+        AuthorizationCache authorizationCache = this.authorizationCache;
+        if (authorizationCache == null) {
+            return null;
+        }
+        try {
+            authorizationCache.check(request, accessToken);
+            return null;
+        } catch (InvalidTokenException | InsufficientScopeException e) {
+            return e;
+        }
+    }
+
+    private static <T> T await(ApiFuture<T> future) throws IOException, InvalidRequestException,
+            InvalidTokenException, InsufficientScopeException {
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a response");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InvalidRequestException) {
+                throw (InvalidRequestException) cause;
+            } else if (cause instanceof InvalidTokenException) {
+                throw (InvalidTokenException) cause;
+            } else if (cause instanceof InsufficientScopeException) {
+                throw (InsufficientScopeException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private Call newCall(ApiRequest<?> request, Request httpRequest, Deadline deadline) {
+        OkHttpClient httpClient = null;
+        Bulkhead bulkhead = this.bulkhead;
+        if (bulkhead != null) {
+            httpClient = bulkhead.getClient(Bulkhead.classify(request));
+        }
+        if (deadline != null) {
+            // rounded up, so socket timeouts do not fire before the deadline has passed
+            httpClient = capTimeouts(httpClient == null ? client.getHttpClient() : httpClient,
+                    deadline.timeRemaining(TimeUnit.MILLISECONDS) + 1);
+        }
+        return new TaggedCall(httpClient == null ? client.getHttpClient() : httpClient,
+                httpRequest);
+    }
 
+    private static OkHttpClient capTimeouts(OkHttpClient httpClient, long millis) {
+        if (exceeds(httpClient.getConnectTimeout(), millis) ||
+                exceeds(httpClient.getReadTimeout(), millis) ||
+                exceeds(httpClient.getWriteTimeout(), millis)) {
+            // shares dispatcher and connection pool with the original client
+            httpClient = httpClient.clone();
+            httpClient.setConnectTimeout(cap(httpClient.getConnectTimeout(), millis),
+                    TimeUnit.MILLISECONDS);
+            httpClient.setReadTimeout(cap(httpClient.getReadTimeout(), millis),
+                    TimeUnit.MILLISECONDS);
+            httpClient.setWriteTimeout(cap(httpClient.getWriteTimeout(), millis),
+                    TimeUnit.MILLISECONDS);
+        }
+        return httpClient;
+    }
+
+    private static boolean exceeds(int timeout, long millis) {
+        return timeout == 0 || timeout > millis;
+    }
+
+    private static long cap(int timeout, long millis) {
+        return exceeds(timeout, millis) ? millis : timeout;
+    }
+
+    private static ScheduledFuture<?> scheduleCancel(final Call call, Deadline deadline) {
+        if (deadline == null) {
+            return null;
+        }
+        return ApiFuture.schedule(new Runnable() {
+            @Override
+            public void run() {
+                call.cancel();
+            }
+        }, deadline.timeRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    private static <T> OnResponseReady<T> withDeadline(final OnResponseReady<T> callback,
+                                                       final ScheduledFuture<?> canceller,
+                                                       final Deadline deadline) {
+        if (canceller == null) {
+            return callback;
+        }
+        return new OnResponseReady<T>() {
+            @Override
+            public void onFailure(Exception exception) {
+                canceller.cancel(false);
+                callback.onFailure(exception instanceof IOException ?
+                        deadlineExceeded((IOException) exception, deadline) : exception);
+            }
+
+            @Override
+            public void onResponse(T response) {
+                canceller.cancel(false);
+                callback.onResponse(response);
+            }
+        };
+    }
+
+    private static IOException deadlineExceeded(IOException exception, Deadline deadline) {
+        if (deadline == null || !deadline.isExpired() ||
+                exception instanceof DeadlineExceededException) {
+            return exception;
+        }
+        return new DeadlineExceededException("deadline exceeded", exception);
+    }
+
+    private AdaptiveConcurrencyLimiter getLimiter(ApiRequest<?> request) {
+        Bulkhead bulkhead = this.bulkhead;
+        if (bulkhead != null) {
+            TrafficClass trafficClass = Bulkhead.classify(request);
+            if (bulkhead.isIsolated(trafficClass)) {
+                return bulkhead.getLimiter(trafficClass);
+            }
+        }
+        return concurrencyLimiter;
+    }
+
+    private void deliver(Runnable task, Response response, CallRecorder recorder,
+                         OnResponseReady<?> callback) {
+
+        Executor executor = callbackExecutor;
+        if (executor == null) {
+            task.run();
+            return;
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            if (response != null) {
+                try {
+                    response.body().close();
+                } catch (IOException ignored) {
+                    // nothing to do
+                }
+            }
+            recorder.onCompleted(e);
+            callback.onFailure(e);
+        }
+    }
+
+    private <T> Request makeRequest(ApiRequest<T> request, String accessToken) {
+        final Request.Builder builder = prepareRequestBuilder(request)
+                .tag(new CallTag(request));
+        if (!Strings.isNullOrEmpty(accessToken)) {
+            builder.addHeader(HttpHeaders.AUTHORIZATION, BEARER + accessToken);
+        }
+        return builder.build();
+    }
+
+    private <T> T parseResponse(ApiRequest<T> request, Response response, CallRecorder recorder)
+            throws IOException, InvalidRequestException, InvalidTokenException,
+            InsufficientScopeException {
+
+        AuthorizationCache authorizationCache = this.authorizationCache;
         InputStream inputStream = null;
         try {
             switch (response.code()) {
                 case HttpURLConnection.HTTP_OK:
                 case HttpURLConnection.HTTP_ACCEPTED:
                 case HttpURLConnection.HTTP_BAD_REQUEST:
-                    inputStream = getInputStream(response);
+                    inputStream = recorder.wrap(getInputStream(response,
+                            recorder.wrapBody(response.body().byteStream())));
                     if (isJsonType(response)) {
-                        return request.parseResponse(inputStream);
+                        T result = request.parseResponse(inputStream);
+                        if (request instanceof Token.Revoke && authorizationCache != null &&
+                                response.code() == HttpURLConnection.HTTP_OK) {
+                            authorizationCache.onInvalidToken(getAccessToken(response), null);
+                        }
+                        return result;
                     } else {
                         throw new InvalidRequestException(processError(response));
                     }
-                case HttpURLConnection.HTTP_UNAUTHORIZED:
-                    throw new InvalidTokenException(processError(response));
-                case HttpURLConnection.HTTP_FORBIDDEN:
-                    throw new InsufficientScopeException(processError(response));
+                case HttpURLConnection.HTTP_UNAUTHORIZED: {
+                    String error = processError(response);
+                    if (authorizationCache != null) {
+                        authorizationCache.onInvalidToken(getAccessToken(response), error);
+                    }
+                    throw new InvalidTokenException(error);
+                }
+                case HttpURLConnection.HTTP_FORBIDDEN: {
+                    String error = processError(response);
+                    if (authorizationCache != null) {
+                        authorizationCache.onInsufficientScope(getAccessToken(response), request,
+                                error);
+                    }
+                    throw new InsufficientScopeException(error);
+                }
                 default:
                     throw new IOException(processError(response));
             }
@@ -171,8 +645,164 @@ public class OAuth2Session extends AbstractSession {
         }
     }
 
+    private static String getAccessToken(Response response) {
+        String authorization = response.request().header(HttpHeaders.AUTHORIZATION);
+        return authorization == null ? null : authorization.substring(BEARER.length());
+    }
+
     private boolean isJsonType(Response response) {
         String field = response.header(HttpHeaders.CONTENT_TYPE);
         return field != null && field.startsWith(MimeTypes.Application.JSON);
     }
+
+    /**
+     * Marks its {@link CallTag} as canceled, so interceptors do not take cancellation for a
+     * failure of the server.
+     */
+    private static final class TaggedCall extends Call {
+
+        private final CallTag tag;
+
+        TaggedCall(OkHttpClient httpClient, Request request) {
+            super(httpClient, request);
+            tag = (CallTag) request.tag();
+        }
+
+        @Override
+        public void cancel() {
+            tag.cancel();
+            super.cancel();
+        }
+    }
+
+    /**
+     * Tracks a call: holds a permit of concurrency limiter if any, measures the call and reports
+     * its metrics when completed.
+     */
+    private static final class CallRecorder {
+
+        private final Request request;
+        private final AdaptiveConcurrencyLimiter limiter;
+        private final CallMetricsListener listener;
+        private final long created = System.nanoTime();
+
+        private long started;
+        private long responded;
+        private int httpStatus = CallMetrics.NO_STATUS;
+        private long contentLength;
+        private CountingInputStream inputStream;
+        private CountingInputStream bodyStream;
+
+        CallRecorder(Request request, AdaptiveConcurrencyLimiter limiter,
+                     CallMetricsListener listener) {
+            this.request = request;
+            this.limiter = limiter;
+            this.listener = listener;
+        }
+
+        void acquire(Deadline deadline) throws IOException {
+            if (limiter != null) {
+                if (deadline == null) {
+                    limiter.acquire();
+                } else if (!limiter.tryAcquire(deadline.timeRemaining(TimeUnit.NANOSECONDS),
+                        TimeUnit.NANOSECONDS)) {
+                    throw new DeadlineExceededException("deadline exceeded waiting for a permit");
+                }
+            }
+            started = System.nanoTime();
+        }
+
+        void execute(final Runnable task) {
+            if (limiter == null) {
+                started = System.nanoTime();
+                task.run();
+            } else {
+                limiter.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        started = System.nanoTime();
+                        task.run();
+                    }
+                });
+            }
+        }
+
+        void onResponse(Response response) throws IOException {
+            responded = System.nanoTime();
+            httpStatus = response.code();
+            contentLength = response.body().contentLength();
+        }
+
+        InputStream wrapBody(InputStream bodyStream) {
+            if (listener == null) {
+                return bodyStream;
+            }
+            this.bodyStream = new CountingInputStream(bodyStream);
+            return this.bodyStream;
+        }
+
+        InputStream wrap(InputStream inputStream) {
+            if (listener == null) {
+                return inputStream;
+            }
+            this.inputStream = new CountingInputStream(inputStream);
+            return this.inputStream;
+        }
+
+        void onCompleted(Exception exception) {
+            onCompleted(exception, false);
+        }
+
+        void onCompleted(Exception exception, boolean canceled) {
+            long completed = System.nanoTime();
+            if (limiter != null) {
+                if (canceled) {
+                    limiter.release();
+                } else {
+                    limiter.release(completed - started, isDropped(exception));
+                }
+            }
+            if (listener != null) {
+                listener.onCallCompleted(createMetrics(completed, exception));
+            }
+        }
+
+        private boolean isDropped(Exception exception) {
+            if (httpStatus == CallMetrics.NO_STATUS) {
+                return exception != null;
+            }
+            return httpStatus >= HttpURLConnection.HTTP_INTERNAL_ERROR ||
+                    httpStatus == HTTP_TOO_MANY_REQUESTS;
+        }
+
+        private CallMetrics createMetrics(long completed, Exception exception) {
+            long networkEnd = responded == 0 ? completed : responded;
+            return new CallMetrics.Builder()
+                    .setEndpoint(request.url().getPath())
+                    .setMethod(request.method())
+                    .setHttpStatus(httpStatus)
+                    .setBytesSent(getBytesSent())
+                    .setBytesReceived(inputStream == null ? Math.max(0, contentLength) :
+                            inputStream.getCount())
+                    .setCompressedBytesReceived(bodyStream == null ? Math.max(0, contentLength) :
+                            bodyStream.getCount())
+                    .setQueueTime(started - created)
+                    .setNetworkTime(networkEnd - started)
+                    .setParseTime(completed - networkEnd)
+                    .setException(exception)
+                    .create();
+        }
+
+        private long getBytesSent() {
+            RequestBody body = request.body();
+            if (body == null) {
+                return 0;
+            }
+            try {
+                return Math.max(0, body.contentLength());
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+    }
 }
@@ -47,7 +47,7 @@ public final class ParametersBuffer {
 
     private static final String UTF8_NAME = "UTF-8";
     private static final Charset UTF8_CHARSET = Charset.forName(UTF8_NAME);
-    private static final MediaType CONTENT_TYPE = MediaType.parse(
+    static final MediaType CONTENT_TYPE = MediaType.parse(
             MimeTypes.Application.X_WWW_FORM_URLENCODED);
 
     private Map<String, String> params = Collections.emptyMap();
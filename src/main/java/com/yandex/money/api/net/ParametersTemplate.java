@@ -0,0 +1,283 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import com.yandex.money.api.utils.Strings;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Template of {@code application/x-www-form-urlencoded} body with constant parameters and
+ * variable slots. Constant parameters and keys of slots are encoded once when template is
+ * created, so only values of slots are encoded for every body. Encoding is the same as of
+ * {@link ParametersBuffer}: empty values are skipped.
+ * <p/>
+ * Templates are immutable and can be shared between threads.
+ */
+public final class ParametersTemplate {
+
+    private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(UTF8_CHARSET);
+
+    private final byte[] constant;
+    private final List<String> slots;
+    private final byte[][] slotPrefixes;
+
+    private ParametersTemplate(Builder builder) {
+        ParametersBuffer buffer = new ParametersBuffer().setParams(builder.parameters);
+        constant = buffer.prepareBytes();
+        slots = Collections.unmodifiableList(new ArrayList<>(builder.slots));
+        slotPrefixes = new byte[slots.size()][];
+        for (int i = 0; i < slotPrefixes.length; ++i) {
+            String key = slots.get(i);
+            byte[] prefix = new byte[encodedLength(key) + 2];
+            prefix[0] = '&';
+            encode(key, prefix, 1);
+            prefix[prefix.length - 1] = '=';
+            slotPrefixes[i] = prefix;
+        }
+    }
+
+    /**
+     * @return keys of slots in order their values should be passed to {@link #encode(String...)}
+     */
+    public List<String> getSlots() {
+        return slots;
+    }
+
+    /**
+     * Encodes body with values of slots.
+     *
+     * @param values values of slots in order they were added, {@code null} or empty values are
+     *               skipped
+     * @return encoded body
+     */
+    public byte[] encode(String... values) {
+        if (values == null) {
+            throw new NullPointerException("values is null");
+        }
+        if (values.length != slotPrefixes.length) {
+            throw new IllegalArgumentException("expected " + slotPrefixes.length +
+                    " values but was " + values.length);
+        }
+
+        int length = constant.length;
+        for (int i = 0; i < values.length; ++i) {
+            if (!Strings.isNullOrEmpty(values[i])) {
+                length += slotPrefixes[i].length + encodedLength(values[i]);
+            }
+        }
+
+        byte[] body = new byte[length];
+        System.arraycopy(constant, 0, body, 0, constant.length);
+        int position = constant.length;
+        for (int i = 0; i < values.length; ++i) {
+            String value = values[i];
+            if (Strings.isNullOrEmpty(value)) {
+                continue;
+            }
+            byte[] prefix = slotPrefixes[i];
+            if (position == 0) {
+                // the first parameter goes without '&'
+                System.arraycopy(prefix, 1, body, 0, prefix.length - 1);
+                position = prefix.length - 1;
+            } else {
+                System.arraycopy(prefix, 0, body, position, prefix.length);
+                position += prefix.length;
+            }
+            position = encode(value, body, position);
+        }
+        return position == length ? body : trim(body, position);
+    }
+
+    @Override
+    public String toString() {
+        return "ParametersTemplate{" +
+                "constant='" + new String(constant, UTF8_CHARSET) + '\'' +
+                ", slots=" + slots +
+                '}';
+    }
+
+    private static byte[] trim(byte[] body, int length) {
+        byte[] trimmed = new byte[length];
+        System.arraycopy(body, 0, trimmed, 0, length);
+        return trimmed;
+    }
+
+    private static boolean isUnreserved(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                c == '.' || c == '-' || c == '*' || c == '_';
+    }
+
+    private static int encodedLength(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); ++i) {
+            int c = value.charAt(i);
+            if (isUnreserved(c) || c == ' ') {
+                length++;
+            } else {
+                int bytes = utf8Length(value, i);
+                if (bytes == 4) {
+                    i++;
+                }
+                length += 3 * bytes;
+            }
+        }
+        return length;
+    }
+
+    private static int encode(String value, byte[] out, int position) {
+        for (int i = 0; i < value.length(); ++i) {
+            int c = value.charAt(i);
+            if (isUnreserved(c)) {
+                out[position++] = (byte) c;
+            } else if (c == ' ') {
+                out[position++] = '+';
+            } else {
+                int codePoint;
+                int bytes = utf8Length(value, i);
+                if (bytes == 4) {
+                    codePoint = Character.toCodePoint((char) c, value.charAt(++i));
+                } else if (Character.isSurrogate((char) c)) {
+                    codePoint = '?'; // unpaired surrogate is replaced as by String.getBytes()
+                } else {
+                    codePoint = c;
+                }
+                switch (bytes) {
+                    case 1:
+                        position = percent(codePoint, out, position);
+                        break;
+                    case 2:
+                        position = percent(0xC0 | (codePoint >> 6), out, position);
+                        position = percent(0x80 | (codePoint & 0x3F), out, position);
+                        break;
+                    case 3:
+                        position = percent(0xE0 | (codePoint >> 12), out, position);
+                        position = percent(0x80 | ((codePoint >> 6) & 0x3F), out, position);
+                        position = percent(0x80 | (codePoint & 0x3F), out, position);
+                        break;
+                    default:
+                        position = percent(0xF0 | (codePoint >> 18), out, position);
+                        position = percent(0x80 | ((codePoint >> 12) & 0x3F), out, position);
+                        position = percent(0x80 | ((codePoint >> 6) & 0x3F), out, position);
+                        position = percent(0x80 | (codePoint & 0x3F), out, position);
+                        break;
+                }
+            }
+        }
+        return position;
+    }
+
+    private static int utf8Length(String value, int index) {
+        char c = value.charAt(index);
+        if (c < 0x80) {
+            return 1;
+        } else if (c < 0x800) {
+            return 2;
+        } else if (Character.isHighSurrogate(c) && index + 1 < value.length() &&
+                Character.isLowSurrogate(value.charAt(index + 1))) {
+            return 4;
+        } else if (Character.isSurrogate(c)) {
+            return 1;
+        } else {
+            return 3;
+        }
+    }
+
+    private static int percent(int b, byte[] out, int position) {
+        out[position] = '%';
+        out[position + 1] = HEX[(b >> 4) & 0x0F];
+        out[position + 2] = HEX[b & 0x0F];
+        return position + 3;
+    }
+
+    /**
+     * Creates {@link ParametersTemplate} instance.
+     */
+    public static final class Builder {
+
+        private final Map<String, String> parameters = new LinkedHashMap<>();
+        private final List<String> slots = new ArrayList<>();
+
+        /**
+         * Adds constant parameter. If a slot with the same key is added the parameter is ignored.
+         *
+         * @param key key
+         * @param value value
+         * @return itself
+         */
+        public Builder addParameter(String key, String value) {
+            Strings.checkNotNullAndNotEmpty(key, "key");
+            parameters.put(key, value);
+            return this;
+        }
+
+        /**
+         * Adds constant parameters.
+         *
+         * @param parameters parameters to add
+         * @return itself
+         */
+        public Builder addParameters(Map<String, String> parameters) {
+            if (parameters == null) {
+                throw new NullPointerException("parameters is null");
+            }
+            for (Map.Entry<String, String> entry : parameters.entrySet()) {
+                addParameter(entry.getKey(), entry.getValue());
+            }
+            return this;
+        }
+
+        /**
+         * Adds variable slot.
+         *
+         * @param key key of a parameter
+         * @return itself
+         */
+        public Builder addSlot(String key) {
+            Strings.checkNotNullAndNotEmpty(key, "key");
+            if (slots.contains(key)) {
+                throw new IllegalArgumentException("slot " + key + " is already added");
+            }
+            slots.add(key);
+            return this;
+        }
+
+        /**
+         * @return {@link ParametersTemplate} instance
+         */
+        public ParametersTemplate create() {
+            for (String slot : slots) {
+                parameters.remove(slot);
+            }
+            return new ParametersTemplate(this);
+        }
+    }
+}
@@ -24,6 +24,7 @@
 
 package com.yandex.money.api.net;
 
+import com.google.gson.Gson;
 import com.google.gson.JsonDeserializer;
 
 /**
@@ -35,6 +36,10 @@ public abstract class PostRequest<T> extends BaseApiRequest<T> {
         super(cls, deserializer);
     }
 
+    protected PostRequest(Class<T> cls, Gson gson) {
+        super(cls, gson);
+    }
+
     @Override
     public final Method getMethod() {
         return Method.POST;
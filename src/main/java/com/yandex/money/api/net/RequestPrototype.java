@@ -0,0 +1,85 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import com.squareup.okhttp.CacheControl;
+import com.squareup.okhttp.Headers;
+import com.squareup.okhttp.Request;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.Language;
+
+/**
+ * Immutable set of headers common for all requests of a session. Stamped once and copied to every
+ * request. It is kept by a session rather than by {@link ApiClient} because besides client's user
+ * agent and language it depends on compression setting, which is chosen per session.
+ */
+final class RequestPrototype {
+
+    private static final String GZIP = "gzip";
+
+    private final Headers headers;
+
+    private RequestPrototype(Headers headers) {
+        this.headers = headers;
+    }
+
+    /**
+     * Creates prototype using client's user agent and language.
+     *
+     * @param client API client
+     * @param cacheControl cache control of requests
+     * @param gzipEnabled {@code true} if compressed responses are accepted
+     * @return prototype
+     */
+    static RequestPrototype create(ApiClient client, CacheControl cacheControl,
+                                   boolean gzipEnabled) {
+        Headers.Builder builder = new Headers.Builder()
+                .add("Cache-Control", cacheControl.toString());
+
+        UserAgent userAgent = client.getUserAgent();
+        if (userAgent != null) {
+            builder.add(HttpHeaders.USER_AGENT, userAgent.getName());
+        }
+
+        Language language = client.getLanguage();
+        if (language != null) {
+            builder.add(HttpHeaders.ACCEPT_LANGUAGE, language.iso6391Code);
+        }
+
+        if (gzipEnabled) {
+            // explicit header turns off transparent decoding of OkHttp, so compressed bytes can
+            // be counted, see AbstractSession.getInputStream(Response, InputStream)
+            builder.add(HttpHeaders.ACCEPT_ENCODING, GZIP);
+        }
+        return new RequestPrototype(builder.build());
+    }
+
+    /**
+     * @return request builder with common headers
+     */
+    Request.Builder newBuilder() {
+        return new Request.Builder().headers(headers);
+    }
+}
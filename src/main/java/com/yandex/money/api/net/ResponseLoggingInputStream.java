@@ -24,61 +24,136 @@
 
 package com.yandex.money.api.net;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Logging wrapper for server responses
  * Supposes, that responses in UTF-8
+ * <p/>
+ * Keeps only first {@code limit} bytes of a response. Sensitive data is redacted and the message
+ * is formatted and logged on a background thread. If the logging thread falls behind, messages
+ * are dropped.
  */
 final class ResponseLoggingInputStream extends InputStream {
 
-    private static Logger LOG = Logger.getLogger(ResponseLoggingInputStream.class.getName());
+    private static final Logger LOG = Logger.getLogger(ResponseLoggingInputStream.class.getName());
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final ExecutorService EXECUTOR = createExecutor();
 
     private final InputStream inputStream;
-    private final ByteArrayOutputStream buffer;
+    private final String url;
+    private final byte[] buffer;
 
-    public ResponseLoggingInputStream(InputStream inputStream) {
+    private int length;
+    private long total;
+    private boolean closed;
+
+    public ResponseLoggingInputStream(InputStream inputStream, String url, int limit) {
         if (inputStream == null) {
             throw new NullPointerException("input stream is null");
         }
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit is negative");
+        }
         this.inputStream = inputStream;
-        this.buffer = new ByteArrayOutputStream();
+        this.url = url;
+        this.buffer = new byte[limit];
     }
 
     @Override
     public int read() throws IOException {
         int c = inputStream.read();
         if (c > -1) {
-            buffer.write((byte) c);
+            if (length < buffer.length) {
+                buffer[length++] = (byte) c;
+            }
+            total++;
         }
         return c;
     }
 
     @Override
     public int read(byte b[]) throws IOException {
-        int read = inputStream.read(b);
-        if (read > -1) {
-            buffer.write(b, 0, read);
-        }
-        return read;
+        return read(b, 0, b.length);
     }
 
     @Override
     public int read(byte b[], int off, int len) throws IOException {
         int read = inputStream.read(b, off, len);
-        if (read > -1) {
-            buffer.write(b, off, read);
+        if (read > 0) {
+            int captured = Math.min(read, buffer.length - length);
+            System.arraycopy(b, off, buffer, length, captured);
+            length += captured;
+            total += read;
         }
         return read;
     }
 
+    @Override
+    public int available() throws IOException {
+        return inputStream.available();
+    }
+
     @Override
     public void close() throws IOException {
         inputStream.close();
-        buffer.close();
-        LOG.info(buffer.toString("UTF-8"));
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (LOG.isLoggable(Level.INFO)) {
+            EXECUTOR.execute(new LogTask(url, buffer, length, total));
+        }
+    }
+
+    private static ExecutorService createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(64), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ResponseLogging");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.DiscardPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static final class LogTask implements Runnable {
+
+        private final String url;
+        private final byte[] buffer;
+        private final int length;
+        private final long total;
+
+        LogTask(String url, byte[] buffer, int length, long total) {
+            this.url = url;
+            this.buffer = buffer;
+            this.length = length;
+            this.total = total;
+        }
+
+        @Override
+        public void run() {
+            StringBuilder message = new StringBuilder(length + 64)
+                    .append("Response from ").append(url)
+                    .append(" (").append(total).append(" bytes");
+            if (total > length) {
+                message.append(", first ").append(length).append(" shown");
+            }
+            message.append("):\n")
+                    .append(SensitiveDataRedactor.redact(new String(buffer, 0, length, UTF_8)));
+            LOG.info(message.toString());
+        }
     }
 }
@@ -0,0 +1,192 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Masks sensitive data in JSON or form encoded text in a single pass: values of sensitive fields
+ * (tokens, card data) and anything that looks like a card number. Works on truncated input.
+ */
+final class SensitiveDataRedactor {
+
+    static final String MASK = "***";
+
+    private static final Set<String> SENSITIVE_FIELDS = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList("access_token", "aux_token", "token", "instance_id",
+                    "csc", "cvv", "pan", "card_number", "password", "client_secret")));
+
+    private static final int MIN_CARD_NUMBER_LENGTH = 13;
+    private static final int MAX_CARD_NUMBER_LENGTH = 19;
+    private static final int VISIBLE_DIGITS = 4;
+    private static final int MAX_FIELD_LENGTH = 32;
+
+    private SensitiveDataRedactor() {
+        // prevents instantiating of this class
+    }
+
+    /**
+     * Masks sensitive data.
+     *
+     * @param text text to redact
+     * @return redacted text
+     */
+    static String redact(CharSequence text) {
+        if (text == null) {
+            throw new NullPointerException("text is null");
+        }
+        return new Scanner(text.length()).scan(text).finish();
+    }
+
+    private static final class Scanner {
+
+        private final StringBuilder out;
+        private final StringBuilder name = new StringBuilder();
+        private final StringBuilder digits = new StringBuilder();
+
+        private boolean inString;
+        private boolean escaped;
+        private boolean masking;
+        private String lastName;
+
+        Scanner(int capacity) {
+            out = new StringBuilder(capacity);
+        }
+
+        Scanner scan(CharSequence text) {
+            for (int i = 0; i < text.length(); ++i) {
+                char c = text.charAt(i);
+                if (inString) {
+                    inString(c);
+                } else if (masking) {
+                    maskedValue(c);
+                } else {
+                    outOfString(c);
+                }
+            }
+            return this;
+        }
+
+        String finish() {
+            if (masking) {
+                out.append(MASK);
+            }
+            flushDigits();
+            return out.toString();
+        }
+
+        private void inString(char c) {
+            if (escaped) {
+                escaped = false;
+                append(c);
+            } else if (c == '\\') {
+                escaped = true;
+                append(c);
+            } else if (c == '"') {
+                flushDigits();
+                inString = false;
+                if (masking) {
+                    masking = false;
+                    out.append(MASK);
+                }
+                lastName = name.length() <= MAX_FIELD_LENGTH ? name.toString() : null;
+                out.append(c);
+            } else {
+                append(c);
+            }
+        }
+
+        private void maskedValue(char c) {
+            if (c == '"') {
+                inString = true;
+                out.append(c);
+            } else if (Character.isWhitespace(c)) {
+                out.append(c);
+            } else if (c == ',' || c == '}' || c == ']' || c == '&') {
+                masking = false;
+                out.append(MASK);
+                outOfString(c);
+            }
+        }
+
+        private void outOfString(char c) {
+            if (c == '"') {
+                flushDigits();
+                inString = true;
+                name.setLength(0);
+                out.append(c);
+            } else if (c == ':' || c == '=') {
+                flushDigits();
+                masking = lastName != null && SENSITIVE_FIELDS.contains(lastName);
+                lastName = null;
+                name.setLength(0);
+                out.append(c);
+            } else if (Character.isLetterOrDigit(c) || c == '_') {
+                // unquoted names of form encoded text and literal values of JSON
+                name.append(c);
+                lastName = name.length() <= MAX_FIELD_LENGTH ? name.toString() : null;
+                appendDigitOrChar(c);
+            } else {
+                flushDigits();
+                name.setLength(0);
+                if (!Character.isWhitespace(c)) {
+                    lastName = null;
+                }
+                out.append(c);
+            }
+        }
+
+        private void append(char c) {
+            if (name.length() <= MAX_FIELD_LENGTH) {
+                name.append(c);
+            }
+            if (!masking) {
+                appendDigitOrChar(c);
+            }
+        }
+
+        private void appendDigitOrChar(char c) {
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            } else {
+                flushDigits();
+                out.append(c);
+            }
+        }
+
+        private void flushDigits() {
+            int length = digits.length();
+            if (length >= MIN_CARD_NUMBER_LENGTH && length <= MAX_CARD_NUMBER_LENGTH) {
+                out.append(MASK).append(digits, length - VISIBLE_DIGITS, length);
+            } else {
+                out.append(digits);
+            }
+            digits.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,536 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import com.yandex.money.api.exceptions.InvalidRequestException;
+import com.yandex.money.api.exceptions.InvalidTokenException;
+import com.yandex.money.api.methods.AuxToken;
+import com.yandex.money.api.methods.Token;
+import com.yandex.money.api.model.Error;
+import com.yandex.money.api.model.Scope;
+import com.yandex.money.api.utils.Strings;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches access tokens and auxiliary tokens of many wallets. Tokens are keyed by a wallet and a
+ * set of scopes normalized by {@link Scope#getQualifiedName()}, so sets of equal scopes in any
+ * order share a token.
+ * <p/>
+ * Concurrent requests for the same token are de-duplicated: only one call is made and all callers
+ * receive its result. Tokens are evicted when the API rejects them with
+ * {@link InvalidTokenException}, when they are revoked with {@link #revoke(String, String,
+ * boolean)} or when they expire. Wallets used least recently are evicted when there are more
+ * than the configured maximum.
+ */
+public final class TokenManager {
+
+    private static final String ACCESS = "access:";
+    private static final String AUX = "aux:";
+
+    private final OAuth2Session session;
+    private final int maxWallets;
+    private final long timeToLive;
+
+    private final Object lock = new Object();
+    private final Map<String, Wallet> wallets;
+
+    private TokenManager(Builder builder) {
+        if (builder.session == null) {
+            throw new NullPointerException("session is null");
+        }
+        if (builder.maxWallets < 1) {
+            throw new IllegalArgumentException("maxWallets should be greater than 0");
+        }
+        if (builder.timeToLive < 0) {
+            throw new IllegalArgumentException("timeToLive is negative");
+        }
+        session = builder.session;
+        maxWallets = builder.maxWallets;
+        timeToLive = builder.timeToLive;
+        wallets = new LinkedHashMap<String, Wallet>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Wallet> eldest) {
+                return size() > maxWallets;
+            }
+        };
+    }
+
+    /**
+     * Puts access token obtained elsewhere.
+     *
+     * @param wallet key of a wallet
+     * @param scopes scopes of the token
+     * @param accessToken access token
+     */
+    public void putAccessToken(String wallet, Set<Scope> scopes, String accessToken) {
+        checkWallet(wallet);
+        if (Strings.isNullOrEmpty(accessToken)) {
+            throw new IllegalArgumentException("accessToken is null or empty");
+        }
+        SortedSet<String> names = normalize(scopes);
+        synchronized (lock) {
+            put(wallet, ACCESS + join(names), new Entry(names, accessToken, expiresAt()));
+        }
+    }
+
+    /**
+     * Gets cached access token that has all required scopes.
+     *
+     * @param wallet key of a wallet
+     * @param scopes required scopes
+     * @return access token or {@code null} if there is no suitable token
+     */
+    public String getAccessToken(String wallet, Set<Scope> scopes) {
+        checkWallet(wallet);
+        SortedSet<String> names = normalize(scopes);
+        synchronized (lock) {
+            Entry entry = findAccessToken(wallet, names);
+            return entry == null ? null : entry.token;
+        }
+    }
+
+    /**
+     * Gets access token, exchanging temporary code if there is no cached token with exactly the
+     * same scopes.
+     *
+     * @param wallet key of a wallet
+     * @param scopes scopes the code was issued for
+     * @param request request exchanging the code
+     * @return future of access token
+     */
+    public ApiFuture<String> requestAccessToken(String wallet, Set<Scope> scopes,
+                                                final Token.Request request) {
+        checkWallet(wallet);
+        if (request == null) {
+            throw new NullPointerException("request is null");
+        }
+        final SortedSet<String> names = normalize(scopes);
+        return obtain(wallet, ACCESS + join(names), names, new Issuer() {
+            @Override
+            public ApiFuture<String> issue() {
+                return session.submit(request, null, null).thenApply(
+                        new ApiFuture.Function<Token, String>() {
+                            @Override
+                            public String apply(Token token) throws Exception {
+                                return checkToken(token.accessToken, token.error);
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Gets auxiliary token, issuing it with a cached access token that has all required scopes if
+     * there is no cached auxiliary token.
+     *
+     * @param wallet key of a wallet
+     * @param scopes scopes of auxiliary token
+     * @return future of auxiliary token, it fails with {@link InvalidTokenException} if there is
+     * no suitable access token
+     */
+    public ApiFuture<String> getAuxToken(final String wallet, Set<Scope> scopes) {
+        checkWallet(wallet);
+        final Set<Scope> requested = scopes;
+        final SortedSet<String> names = normalize(scopes);
+        return obtain(wallet, AUX + join(names), names, new Issuer() {
+            @Override
+            public ApiFuture<String> issue() {
+                final String accessToken;
+                synchronized (lock) {
+                    Entry entry = findAccessToken(wallet, names);
+                    accessToken = entry == null ? null : entry.token;
+                }
+                if (accessToken == null) {
+                    return ApiFuture.failed(new InvalidTokenException(
+                            "no access token with scopes: " + join(names)));
+                }
+                return evictOnInvalidToken(wallet, accessToken,
+                        session.submit(new AuxToken.Request(requested), null, accessToken))
+                        .thenApply(new ApiFuture.Function<AuxToken, String>() {
+                            @Override
+                            public String apply(AuxToken token) throws Exception {
+                                return checkToken(token.auxToken, token.error);
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Executes a request with auxiliary token having required scopes. If the token is rejected it
+     * is evicted, so next call issues another one.
+     *
+     * @param wallet key of a wallet
+     * @param scopes scopes required by the request
+     * @param request the request
+     * @param <T> response type
+     * @return future of response
+     */
+    public <T> ApiFuture<T> enqueue(final String wallet, Set<Scope> scopes,
+                                    final ApiRequest<T> request) {
+        if (request == null) {
+            throw new NullPointerException("request is null");
+        }
+        return getAuxToken(wallet, scopes).thenCompose(new ApiFuture.AsyncFunction<String, T>() {
+            @Override
+            public ApiFuture<T> apply(String auxToken) {
+                return evictOnInvalidToken(wallet, auxToken,
+                        session.submit(request, null, auxToken));
+            }
+        });
+    }
+
+    /**
+     * Revokes a token and evicts it.
+     *
+     * @param wallet key of a wallet
+     * @param token token to revoke
+     * @param revokeAll if {@code true} all tokens of the wallet are revoked and evicted
+     * @return future completed when the token is revoked
+     */
+    public ApiFuture<Object> revoke(final String wallet, final String token,
+                                    final boolean revokeAll) {
+        checkWallet(wallet);
+        if (Strings.isNullOrEmpty(token)) {
+            throw new IllegalArgumentException("token is null or empty");
+        }
+        final ApiFuture<Object> future = new ApiFuture<>();
+        session.submit(new Token.Revoke(revokeAll), null, token).addCallback(
+                new OnResponseReady<Object>() {
+                    @Override
+                    public void onFailure(Exception exception) {
+                        if (exception instanceof InvalidTokenException) {
+                            // the token is not valid anyway
+                            onResponse(null);
+                        } else {
+                            future.fail(exception);
+                        }
+                    }
+
+                    @Override
+                    public void onResponse(Object response) {
+                        if (revokeAll) {
+                            evict(wallet);
+                        } else {
+                            invalidate(wallet, token);
+                        }
+                        future.complete(response);
+                    }
+                });
+        return future;
+    }
+
+    /**
+     * Evicts a token, for instance when it is rejected with {@link InvalidTokenException}.
+     *
+     * @param wallet key of a wallet
+     * @param token rejected token
+     */
+    public void invalidate(String wallet, String token) {
+        synchronized (lock) {
+            Wallet entry = wallets.get(wallet);
+            if (entry == null) {
+                return;
+            }
+            Iterator<Entry> iterator = entry.tokens.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().token.equals(token)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts all tokens of a wallet.
+     *
+     * @param wallet key of a wallet
+     */
+    public void evict(String wallet) {
+        synchronized (lock) {
+            wallets.remove(wallet);
+        }
+    }
+
+    /**
+     * @return number of wallets having cached tokens
+     */
+    public int size() {
+        synchronized (lock) {
+            return wallets.size();
+        }
+    }
+
+    private ApiFuture<String> obtain(final String wallet, final String key,
+                                     final SortedSet<String> names, Issuer issuer) {
+
+        final Wallet entry;
+        final ApiFuture<String> issued;
+        boolean owner = false;
+        synchronized (lock) {
+            Wallet existing = wallets.get(wallet);
+            if (existing == null) {
+                existing = new Wallet();
+                wallets.put(wallet, existing);
+            }
+            entry = existing;
+            Entry token = entry.tokens.get(key);
+            if (token != null) {
+                if (!token.isExpired()) {
+                    return ApiFuture.succeeded(token.token);
+                }
+                entry.tokens.remove(key);
+            }
+            ApiFuture<String> pending = entry.pending.get(key);
+            if (pending == null) {
+                pending = new ApiFuture<>();
+                entry.pending.put(key, pending);
+                owner = true;
+            }
+            issued = pending;
+        }
+
+        if (owner) {
+            ApiFuture<String> source;
+            try {
+                source = issuer.issue();
+            } catch (RuntimeException e) {
+                source = ApiFuture.failed(e);
+            }
+            source.addCallback(new OnResponseReady<String>() {
+                @Override
+                public void onFailure(Exception exception) {
+                    synchronized (lock) {
+                        entry.pending.remove(key);
+                        if (entry.isEmpty() && wallets.get(wallet) == entry) {
+                            wallets.remove(wallet);
+                        }
+                    }
+                    issued.fail(exception);
+                }
+
+                @Override
+                public void onResponse(String token) {
+                    synchronized (lock) {
+                        entry.pending.remove(key);
+                        // the wallet could be evicted while the token was issued
+                        if (wallets.get(wallet) == entry) {
+                            entry.tokens.put(key, new Entry(names, token, expiresAt()));
+                        }
+                    }
+                    issued.complete(token);
+                }
+            });
+        }
+
+        // canceling a caller's future does not affect other callers
+        final ApiFuture<String> future = new ApiFuture<>();
+        issued.addCallback(new OnResponseReady<String>() {
+            @Override
+            public void onFailure(Exception exception) {
+                future.fail(exception);
+            }
+
+            @Override
+            public void onResponse(String response) {
+                future.complete(response);
+            }
+        });
+        return future;
+    }
+
+    private <T> ApiFuture<T> evictOnInvalidToken(final String wallet, final String token,
+                                                 final ApiFuture<T> source) {
+        source.addCallback(new OnResponseReady<T>() {
+            @Override
+            public void onFailure(Exception exception) {
+                if (exception instanceof InvalidTokenException) {
+                    invalidate(wallet, token);
+                }
+            }
+
+            @Override
+            public void onResponse(T response) {
+            }
+        });
+        return source;
+    }
+
+    private Entry findAccessToken(String wallet, SortedSet<String> names) {
+        Wallet entry = wallets.get(wallet);
+        if (entry == null) {
+            return null;
+        }
+        Entry exact = entry.tokens.get(ACCESS + join(names));
+        if (exact != null && !exact.isExpired()) {
+            return exact;
+        }
+        for (Map.Entry<String, Entry> token : entry.tokens.entrySet()) {
+            Entry value = token.getValue();
+            if (token.getKey().startsWith(ACCESS) && !value.isExpired() &&
+                    value.scopes.containsAll(names)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private void put(String wallet, String key, Entry token) {
+        Wallet entry = wallets.get(wallet);
+        if (entry == null) {
+            entry = new Wallet();
+            wallets.put(wallet, entry);
+        }
+        entry.tokens.put(key, token);
+    }
+
+    private long expiresAt() {
+        return timeToLive == 0 ? 0 : System.nanoTime() + timeToLive;
+    }
+
+    private static String checkToken(String token, Error error) throws InvalidRequestException {
+        if (error != null) {
+            throw new InvalidRequestException(error.code);
+        }
+        if (Strings.isNullOrEmpty(token)) {
+            throw new InvalidRequestException("token is null or empty");
+        }
+        return token;
+    }
+
+    private static void checkWallet(String wallet) {
+        if (Strings.isNullOrEmpty(wallet)) {
+            throw new IllegalArgumentException("wallet is null or empty");
+        }
+    }
+
+    private static SortedSet<String> normalize(Set<Scope> scopes) {
+        if (scopes == null || scopes.isEmpty()) {
+            throw new IllegalArgumentException("scopes is null or empty");
+        }
+        SortedSet<String> names = new TreeSet<>();
+        for (Scope scope : scopes) {
+            names.add(scope.getQualifiedName());
+        }
+        return Collections.unmodifiableSortedSet(names);
+    }
+
+    private static String join(SortedSet<String> names) {
+        StringBuilder builder = new StringBuilder();
+        for (String name : names) {
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            builder.append(name);
+        }
+        return builder.toString();
+    }
+
+    private interface Issuer {
+        ApiFuture<String> issue();
+    }
+
+    private static final class Wallet {
+        final Map<String, Entry> tokens = new HashMap<>(4);
+        final Map<String, ApiFuture<String>> pending = new HashMap<>(2);
+
+        boolean isEmpty() {
+            return tokens.isEmpty() && pending.isEmpty();
+        }
+    }
+
+    private static final class Entry {
+
+        final SortedSet<String> scopes;
+        final String token;
+        final long expiresAt;
+
+        Entry(SortedSet<String> scopes, String token, long expiresAt) {
+            this.scopes = scopes;
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return expiresAt != 0 && System.nanoTime() - expiresAt >= 0;
+        }
+    }
+
+    /**
+     * Creates {@link TokenManager} instance.
+     */
+    public static final class Builder {
+
+        private OAuth2Session session;
+        private int maxWallets = 100000;
+        private long timeToLive;
+
+        /**
+         * @param session session used to issue and revoke tokens
+         * @return itself
+         */
+        public Builder setSession(OAuth2Session session) {
+            this.session = session;
+            return this;
+        }
+
+        /**
+         * @param maxWallets maximum number of wallets which tokens are cached, least recently
+         *                   used ones are evicted (default is 100000)
+         * @return itself
+         */
+        public Builder setMaxWallets(int maxWallets) {
+            this.maxWallets = maxWallets;
+            return this;
+        }
+
+        /**
+         * @param timeToLive time after which cached tokens are issued again, {@code 0} means
+         *                   tokens never expire (default is 0)
+         * @param unit unit of time
+         * @return itself
+         */
+        public Builder setTimeToLive(long timeToLive, TimeUnit unit) {
+            this.timeToLive = unit.toNanos(timeToLive);
+            return this;
+        }
+
+        /**
+         * @return {@link TokenManager} instance
+         */
+        public TokenManager create() {
+            return new TokenManager(this);
+        }
+    }
+}
@@ -0,0 +1,510 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Captures bytes sent and received over TLS connections to rotating files.
+ * <p/>
+ * Network threads only copy bytes into a bounded lock-free ring buffer, formatting and writing
+ * to files is done by a background thread. When the buffer is full captured bytes are dropped
+ * instead of blocking network threads. Only 1 in {@code sampleRate} connections is captured and
+ * each connection captures at most {@code maxPayloadSize} bytes in each direction.
+ * <p/>
+ * Capture files are named {@code <prefix>.log}, {@code <prefix>.1.log} and so on, the first one
+ * being the latest.
+ *
+ * @see DefaultApiClient#setWireCapture(WireCapture)
+ */
+public final class WireCapture implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(WireCapture.class.getName());
+    private static final Charset CHARSET = Charset.forName("US-ASCII");
+    private static final long IDLE_PARK_NANOS = 10_000_000L;
+
+    private final File directory;
+    private final String filePrefix;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final int sampleRate;
+    private final int maxPayloadSize;
+    private final long maxBufferedBytes;
+
+    private final RingBuffer buffer;
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final AtomicLong droppedBytes = new AtomicLong();
+    private final AtomicLong connections = new AtomicLong();
+    private final Thread writer;
+
+    private volatile boolean closed;
+    private volatile long writtenBytes;
+
+    private WireCapture(Builder builder) {
+        if (builder.directory == null) {
+            throw new NullPointerException("directory is null");
+        }
+        if (builder.filePrefix == null) {
+            throw new NullPointerException("filePrefix is null");
+        }
+        if (builder.maxFileSize < 1) {
+            throw new IllegalArgumentException("maxFileSize should be greater than 0");
+        }
+        if (builder.maxFiles < 1) {
+            throw new IllegalArgumentException("maxFiles should be greater than 0");
+        }
+        if (builder.sampleRate < 1) {
+            throw new IllegalArgumentException("sampleRate should be greater than 0");
+        }
+        if (builder.maxPayloadSize < 0) {
+            throw new IllegalArgumentException("maxPayloadSize is negative");
+        }
+        if (builder.bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize should be greater than 0");
+        }
+        directory = builder.directory;
+        filePrefix = builder.filePrefix;
+        maxFileSize = builder.maxFileSize;
+        maxFiles = builder.maxFiles;
+        sampleRate = builder.sampleRate;
+        maxPayloadSize = builder.maxPayloadSize;
+        maxBufferedBytes = builder.bufferSize;
+        buffer = new RingBuffer(builder.bufferSlots);
+
+        writer = new Thread(new Writer(), "WireCapture " + filePrefix);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops capturing, writes remaining captured bytes and closes capture file.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return number of captured bytes written to files
+     */
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    /**
+     * @return number of bytes dropped because the buffer was full
+     */
+    public long getDroppedBytes() {
+        return droppedBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "WireCapture{" +
+                "directory=" + directory +
+                ", filePrefix='" + filePrefix + '\'' +
+                ", sampleRate=" + sampleRate +
+                ", writtenBytes=" + writtenBytes +
+                ", droppedBytes=" + droppedBytes.get() +
+                '}';
+    }
+
+    /**
+     * Starts capture of a connection.
+     *
+     * @param host remote host
+     * @param port remote port
+     * @return connection to capture or {@code null} if connection is not sampled
+     */
+    Connection newConnection(String host, int port) {
+        long id = connections.getAndIncrement();
+        if (closed || id % sampleRate != 0) {
+            return null;
+        }
+        Connection connection = new Connection(id, host + ":" + port);
+        connection.offer(Chunk.OPENED, null, 0, 0);
+        return connection;
+    }
+
+    /**
+     * Captured connection. Safe to use from several threads.
+     */
+    final class Connection {
+
+        private final long id;
+        private final String address;
+        private final AtomicInteger read = new AtomicInteger();
+        private final AtomicInteger written = new AtomicInteger();
+
+        private Connection(long id, String address) {
+            this.id = id;
+            this.address = address;
+        }
+
+        void onRead(byte[] b, int off, int len) {
+            capture(Chunk.READ, read, b, off, len);
+        }
+
+        void onWrite(byte[] b, int off, int len) {
+            capture(Chunk.WRITE, written, b, off, len);
+        }
+
+        private void capture(int type, AtomicInteger counter, byte[] b, int off, int len) {
+            if (closed) {
+                return;
+            }
+            int before = counter.getAndAdd(len);
+            if (before >= maxPayloadSize) {
+                return;
+            }
+            int captured = Math.min(len, maxPayloadSize - before);
+            offer(type, b, off, captured);
+            if (before + len > maxPayloadSize) {
+                offer(Chunk.TRUNCATED + type, null, 0, 0);
+            }
+        }
+
+        private void offer(int type, byte[] b, int off, int len) {
+            if (bufferedBytes.addAndGet(len) > maxBufferedBytes) {
+                bufferedBytes.addAndGet(-len);
+                droppedBytes.addAndGet(len);
+                return;
+            }
+            byte[] data = b == null ? null : Arrays.copyOfRange(b, off, off + len);
+            if (!buffer.offer(new Chunk(this, type, System.currentTimeMillis(), data))) {
+                bufferedBytes.addAndGet(-len);
+                droppedBytes.addAndGet(len);
+            }
+        }
+    }
+
+    private static final class Chunk {
+
+        static final int OPENED = 0;
+        static final int READ = 1;
+        static final int WRITE = 2;
+        static final int TRUNCATED = 10;
+
+        final Connection connection;
+        final int type;
+        final long time;
+        final byte[] data;
+
+        Chunk(Connection connection, int type, long time, byte[] data) {
+            this.connection = connection;
+            this.type = type;
+            this.time = time;
+            this.data = data;
+        }
+
+        int size() {
+            return data == null ? 0 : data.length;
+        }
+
+        String header() {
+            String prefix = connection.id + " " + connection.address + " " + time + " ";
+            switch (type) {
+                case OPENED:
+                    return prefix + "OPENED";
+                case READ:
+                    return prefix + "READ: length " + data.length;
+                case WRITE:
+                    return prefix + "WRITE: length " + data.length;
+                case TRUNCATED + READ:
+                    return prefix + "READ: truncated";
+                case TRUNCATED + WRITE:
+                    return prefix + "WRITE: truncated";
+                default:
+                    throw new IllegalStateException("unknown type " + type);
+            }
+        }
+    }
+
+    /**
+     * Bounded lock-free queue for many producers and a single consumer.
+     */
+    private static final class RingBuffer {
+
+        private final int mask;
+        private final AtomicLongArray sequences;
+        private final AtomicReferenceArray<Chunk> chunks;
+        private final AtomicLong tail = new AtomicLong();
+
+        private long head;
+
+        RingBuffer(int slots) {
+            if (slots < 2 || Integer.bitCount(slots) != 1) {
+                throw new IllegalArgumentException("bufferSlots should be a power of 2");
+            }
+            mask = slots - 1;
+            sequences = new AtomicLongArray(slots);
+            chunks = new AtomicReferenceArray<>(slots);
+            for (int i = 0; i < slots; ++i) {
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(Chunk chunk) {
+            long position = tail.get();
+            while (true) {
+                int index = (int) (position & mask);
+                long difference = sequences.get(index) - position;
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        chunks.lazySet(index, chunk);
+                        sequences.set(index, position + 1);
+                        return true;
+                    }
+                    position = tail.get();
+                } else if (difference < 0) {
+                    return false;
+                } else {
+                    position = tail.get();
+                }
+            }
+        }
+
+        Chunk poll() {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                return null;
+            }
+            Chunk chunk = chunks.get(index);
+            chunks.lazySet(index, null);
+            sequences.set(index, head + mask + 1);
+            head++;
+            return chunk;
+        }
+    }
+
+    private final class Writer implements Runnable {
+
+        private OutputStream out;
+        private long fileSize;
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    boolean wasClosed = closed;
+                    Chunk chunk = buffer.poll();
+                    if (chunk != null) {
+                        write(chunk);
+                    } else if (wasClosed) {
+                        break;
+                    } else {
+                        flush();
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    }
+                }
+            } catch (IOException e) {
+                closed = true;
+                LOG.log(Level.WARNING, "wire capture stopped", e);
+            } finally {
+                closeFile();
+            }
+        }
+
+        private void write(Chunk chunk) throws IOException {
+            int size = chunk.size();
+            StringBuilder builder = new StringBuilder(size + 64).append(chunk.header()).append('\n');
+            if (chunk.data != null) {
+                WireLoggingSocketFactory.appendWire(builder, chunk.data, 0, size);
+                builder.append('\n');
+            }
+            bufferedBytes.addAndGet(-size);
+
+            byte[] bytes = builder.toString().getBytes(CHARSET);
+            if (out != null && fileSize + bytes.length > maxFileSize) {
+                closeFile();
+            }
+            if (out == null) {
+                rotate();
+                out = new BufferedOutputStream(new FileOutputStream(file(0)));
+                fileSize = 0;
+            }
+            out.write(bytes);
+            fileSize += bytes.length;
+            writtenBytes += size;
+        }
+
+        private void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        private void rotate() throws IOException {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("unable to create directory " + directory);
+            }
+            File last = file(maxFiles - 1);
+            if (last.exists() && !last.delete()) {
+                throw new IOException("unable to delete " + last);
+            }
+            for (int i = maxFiles - 2; i >= 0; --i) {
+                File file = file(i);
+                if (file.exists() && !file.renameTo(file(i + 1))) {
+                    throw new IOException("unable to rename " + file);
+                }
+            }
+        }
+
+        private File file(int index) {
+            return new File(directory, index == 0 ? filePrefix + ".log" :
+                    filePrefix + "." + index + ".log");
+        }
+
+        private void closeFile() {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "unable to close capture file", e);
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Creates {@link WireCapture} instance. Background writer thread is started on creation.
+     */
+    public static final class Builder {
+
+        private File directory;
+        private String filePrefix = "wire";
+        private long maxFileSize = 10 * 1024 * 1024;
+        private int maxFiles = 5;
+        private int sampleRate = 1;
+        private int maxPayloadSize = 64 * 1024;
+        private int bufferSize = 4 * 1024 * 1024;
+        private int bufferSlots = 4096;
+
+        /**
+         * @param directory directory to write capture files to (required)
+         * @return itself
+         */
+        public Builder setDirectory(File directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * @param filePrefix prefix of capture file names (default is "wire")
+         * @return itself
+         */
+        public Builder setFilePrefix(String filePrefix) {
+            this.filePrefix = filePrefix;
+            return this;
+        }
+
+        /**
+         * @param maxFileSize size of a file in bytes after which files are rotated (default is
+         *                    10 MB)
+         * @return itself
+         */
+        public Builder setMaxFileSize(long maxFileSize) {
+            this.maxFileSize = maxFileSize;
+            return this;
+        }
+
+        /**
+         * @param maxFiles number of files to keep (default is 5)
+         * @return itself
+         */
+        public Builder setMaxFiles(int maxFiles) {
+            this.maxFiles = maxFiles;
+            return this;
+        }
+
+        /**
+         * @param sampleRate capture 1 in {@code sampleRate} connections (default is 1, all
+         *                   connections)
+         * @return itself
+         */
+        public Builder setSampleRate(int sampleRate) {
+            this.sampleRate = sampleRate;
+            return this;
+        }
+
+        /**
+         * @param maxPayloadSize maximum number of bytes captured in each direction of a connection
+         *                       (default is 64 KB)
+         * @return itself
+         */
+        public Builder setMaxPayloadSize(int maxPayloadSize) {
+            this.maxPayloadSize = maxPayloadSize;
+            return this;
+        }
+
+        /**
+         * @param bufferSize maximum number of bytes waiting to be written (default is 4 MB)
+         * @return itself
+         */
+        public Builder setBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * @param bufferSlots maximum number of chunks waiting to be written, a power of 2
+         *                    (default is 4096)
+         * @return itself
+         */
+        public Builder setBufferSlots(int bufferSlots) {
+            this.bufferSlots = bufferSlots;
+            return this;
+        }
+
+        /**
+         * @return {@link WireCapture} instance
+         */
+        public WireCapture create() {
+            return new WireCapture(this);
+        }
+    }
+}
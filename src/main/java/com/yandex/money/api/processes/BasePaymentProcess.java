@@ -25,15 +25,18 @@
 package com.yandex.money.api.processes;
 
 import com.squareup.okhttp.Call;
+import com.yandex.money.api.exceptions.DeadlineExceededException;
 import com.yandex.money.api.methods.BaseProcessPayment;
 import com.yandex.money.api.methods.BaseRequestPayment;
 import com.yandex.money.api.net.ApiRequest;
+import com.yandex.money.api.net.Deadline;
 import com.yandex.money.api.net.OAuth2Session;
 import com.yandex.money.api.net.OnResponseReady;
 import com.yandex.money.api.utils.MillisecondsIn;
 import com.yandex.money.api.utils.Threads;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Base implementation for all payment processes.
@@ -56,6 +59,7 @@ public abstract class BasePaymentProcess<RP extends BaseRequestPayment,
     private PP processPayment;
     private Callbacks<RP, PP> callbacks;
     private State state;
+    private Deadline deadline;
 
     /**
      * Constructor.
@@ -186,6 +190,19 @@ public abstract class BasePaymentProcess<RP extends BaseRequestPayment,
         session.setAccessToken(accessToken);
     }
 
+    /**
+     * Sets deadline of the process. Every call of the process is completed before the deadline
+     * and the process stops waiting for a payment in progress when the deadline is too close:
+     * {@link DeadlineExceededException} is thrown or passed to callbacks in that case, the
+     * process can be continued with a new deadline later. Can be set to {@code null} to remove
+     * the deadline.
+     *
+     * @param deadline the deadline
+     */
+    public final void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+    }
+
     /**
      * Sets callbacks for async operations.
      *
@@ -253,7 +270,7 @@ public abstract class BasePaymentProcess<RP extends BaseRequestPayment,
     }
 
     private <T> T execute(ApiRequest<T> apiRequest) throws Exception {
-        return session.execute(apiRequest);
+        return session.execute(apiRequest, deadline);
     }
 
     private void checkCallbacks() {
@@ -325,7 +342,7 @@ public abstract class BasePaymentProcess<RP extends BaseRequestPayment,
 
     private <T> Call enqueue(ApiRequest<T> apiRequest,
                              OnResponseReady<T> callback) throws IOException {
-        return session.enqueue(apiRequest, callback);
+        return session.enqueue(apiRequest, callback, deadline);
     }
 
     /**
@@ -350,6 +367,10 @@ public abstract class BasePaymentProcess<RP extends BaseRequestPayment,
                 state = State.PROCESSING;
                 Long nextRetry = processPayment.nextRetry;
                 long timeout = nextRetry == null || nextRetry == 0L ? TIMEOUT : nextRetry;
+                if (deadline != null && deadline.timeRemaining(TimeUnit.MILLISECONDS) <= timeout) {
+                    throw new DeadlineExceededException("deadline exceeded while payment is " +
+                            "in progress");
+                }
                 Threads.sleep(timeout);
                 resolver.onInProgress();
                 return false;
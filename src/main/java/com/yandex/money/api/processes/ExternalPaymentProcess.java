@@ -54,6 +54,7 @@ public final class ExternalPaymentProcess
 
     /**
      * @param instanceId instance id
+     * @see InstanceIdManager
      */
     public void setInstanceId(String instanceId) {
         this.instanceId = instanceId;
@@ -0,0 +1,481 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.processes;
+
+import com.yandex.money.api.exceptions.InsufficientScopeException;
+import com.yandex.money.api.exceptions.InvalidRequestException;
+import com.yandex.money.api.exceptions.InvalidTokenException;
+import com.yandex.money.api.methods.InstanceId;
+import com.yandex.money.api.model.Error;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.net.OnResponseReady;
+import com.yandex.money.api.utils.Strings;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out instance ids for {@link ExternalPaymentProcess} without a network round-trip. Spare
+ * ids are obtained ahead of time in background and assigned to devices (or other clients) on
+ * first use; assigned ids are sticky. State is persisted with {@link Storage}.
+ * <p/>
+ * When a request for instance id is refused or fails, next requests are delayed using
+ * exponential backoff.
+ */
+public final class InstanceIdManager {
+
+    private static final ScheduledExecutorService SCHEDULER = createScheduler();
+
+    private final OAuth2Session session;
+    private final String clientId;
+    private final Storage storage;
+    private final int poolSize;
+    private final long minBackoff;
+    private final long maxBackoff;
+    private final ScheduledExecutorService scheduler;
+
+    private final Object lock = new Object();
+    private final Object storageLock = new Object();
+    private final Map<String, String> assigned = new HashMap<>();
+    private final Deque<String> spare = new ArrayDeque<>();
+    private final Runnable scheduledRefill = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (lock) {
+                refillScheduled = false;
+            }
+            refill();
+        }
+    };
+
+    private boolean started;
+    private boolean fetching;
+    private boolean refillScheduled;
+    private int failures;
+    private long backoffUntil;
+    private Error lastError;
+    private String lastFailure;
+    private long version;
+    private long savedVersion;
+
+    private InstanceIdManager(Builder builder) {
+        if (builder.session == null) {
+            throw new NullPointerException("session is null");
+        }
+        if (Strings.isNullOrEmpty(builder.clientId)) {
+            throw new IllegalArgumentException("clientId is null or empty");
+        }
+        if (builder.poolSize < 0) {
+            throw new IllegalArgumentException("poolSize is negative");
+        }
+        if (builder.minBackoff <= 0 || builder.maxBackoff < builder.minBackoff) {
+            throw new IllegalArgumentException("illegal backoff range");
+        }
+        session = builder.session;
+        clientId = builder.clientId;
+        storage = builder.storage;
+        poolSize = builder.poolSize;
+        minBackoff = builder.minBackoff;
+        maxBackoff = builder.maxBackoff;
+        scheduler = builder.scheduler == null ? SCHEDULER : builder.scheduler;
+    }
+
+    /**
+     * Restores persisted state and starts filling the pool of spare ids.
+     */
+    public void start() {
+        Snapshot snapshot = storage == null ? null : storage.load();
+        synchronized (lock) {
+            if (started) {
+                return;
+            }
+            started = true;
+            if (snapshot != null) {
+                assigned.putAll(snapshot.assigned);
+                spare.addAll(snapshot.spare);
+            }
+        }
+        refill();
+    }
+
+    /**
+     * Gets instance id of a device. If the device does not have one yet, a spare id is assigned to
+     * it. The network is used only if there are no spare ids.
+     *
+     * @param key key of a device or any other client
+     * @return instance id
+     * @throws IOException if instance id can not be obtained
+     * @throws InvalidRequestException if instance id request is refused
+     */
+    public String get(String key) throws IOException, InvalidRequestException {
+        if (key == null) {
+            throw new NullPointerException("key is null");
+        }
+        String instanceId;
+        synchronized (lock) {
+            instanceId = assigned.get(key);
+            if (instanceId != null) {
+                return instanceId;
+            }
+            instanceId = spare.poll();
+            if (instanceId != null) {
+                assigned.put(key, instanceId);
+            } else if (getBackoffRemaining() > 0) {
+                if (lastError != null) {
+                    throw new InvalidRequestException(lastError.code);
+                }
+                throw new IOException("instance id is not available: " + lastFailure);
+            }
+        }
+        if (instanceId != null) {
+            persist();
+            refill();
+            return instanceId;
+        }
+        return assign(key, fetch());
+    }
+
+    /**
+     * Drops instance id of a device, for instance when it is rejected with
+     * {@link Error#ILLEGAL_PARAM_INSTANCE_ID}. Next call of {@link #get(String)} assigns another one.
+     *
+     * @param key key of a device
+     */
+    public void invalidate(String key) {
+        boolean removed;
+        synchronized (lock) {
+            removed = assigned.remove(key) != null;
+        }
+        if (removed) {
+            persist();
+        }
+    }
+
+    /**
+     * @return number of spare ids
+     */
+    public int getSpareCount() {
+        synchronized (lock) {
+            return spare.size();
+        }
+    }
+
+    private String fetch() throws IOException, InvalidRequestException {
+        InstanceId response;
+        try {
+            response = session.execute(new InstanceId.Request(clientId));
+        } catch (InvalidTokenException | InsufficientScopeException e) {
+            // instance id request does not need authorization
+            throw new IOException(e);
+        } catch (IOException e) {
+            onFailure(null, e.getMessage());
+            throw e;
+        }
+        if (!response.isSuccess()) {
+            onFailure(response.error, String.valueOf(response.status));
+            throw new InvalidRequestException(response.error == null ?
+                    String.valueOf(response.status) : response.error.code);
+        }
+        onSuccess();
+        return response.instanceId;
+    }
+
+    private String assign(String key, String instanceId) {
+        synchronized (lock) {
+            String existing = assigned.get(key);
+            if (existing != null) {
+                // assigned concurrently, keep the fetched one for others
+                spare.add(instanceId);
+                instanceId = existing;
+            } else {
+                assigned.put(key, instanceId);
+            }
+        }
+        persist();
+        return instanceId;
+    }
+
+    private void refill() {
+        synchronized (lock) {
+            if (!started || fetching || spare.size() >= poolSize) {
+                return;
+            }
+            long delay = getBackoffRemaining();
+            if (delay > 0) {
+                if (!refillScheduled) {
+                    refillScheduled = true;
+                    scheduler.schedule(scheduledRefill, delay, TimeUnit.NANOSECONDS);
+                }
+                return;
+            }
+            fetching = true;
+        }
+        session.enqueue(new InstanceId.Request(clientId)).addCallback(
+                new OnResponseReady<InstanceId>() {
+                    @Override
+                    public void onFailure(Exception exception) {
+                        synchronized (lock) {
+                            fetching = false;
+                        }
+                        InstanceIdManager.this.onFailure(null, exception.getMessage());
+                        refill();
+                    }
+
+                    @Override
+                    public void onResponse(InstanceId response) {
+                        synchronized (lock) {
+                            fetching = false;
+                            if (response.isSuccess()) {
+                                spare.add(response.instanceId);
+                            }
+                        }
+                        if (response.isSuccess()) {
+                            onSuccess();
+                            persist();
+                        } else {
+                            InstanceIdManager.this.onFailure(response.error,
+                                    String.valueOf(response.status));
+                        }
+                        refill();
+                    }
+                });
+    }
+
+    private void onSuccess() {
+        synchronized (lock) {
+            failures = 0;
+            lastError = null;
+            lastFailure = null;
+        }
+    }
+
+    private void onFailure(Error error, String message) {
+        synchronized (lock) {
+            long backoff = minBackoff << Math.min(failures, 30);
+            backoff = backoff <= 0 ? maxBackoff : Math.min(maxBackoff, backoff);
+            failures++;
+            backoffUntil = System.nanoTime() + backoff;
+            lastError = error;
+            lastFailure = message;
+        }
+    }
+
+    /**
+     * Must be called holding the lock. Origin of {@link System#nanoTime()} is arbitrary, so the
+     * time is compared by difference and only while there are failures.
+     *
+     * @return nanoseconds remaining till the end of backoff, not positive if there is no backoff
+     */
+    private long getBackoffRemaining() {
+        return failures == 0 ? 0 : backoffUntil - System.nanoTime();
+    }
+
+    private void persist() {
+        if (storage == null) {
+            return;
+        }
+        Snapshot snapshot;
+        long version;
+        synchronized (lock) {
+            snapshot = new Snapshot(assigned, new ArrayList<>(spare));
+            version = ++this.version;
+        }
+        synchronized (storageLock) {
+            // a newer state may have been saved already
+            if (version > savedVersion) {
+                savedVersion = version;
+                storage.save(snapshot);
+            }
+        }
+    }
+
+    private static ScheduledExecutorService createScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "InstanceIdManager");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * Persisted state of {@link InstanceIdManager}.
+     */
+    public static final class Snapshot {
+
+        /**
+         * instance ids by keys of devices
+         */
+        public final Map<String, String> assigned;
+
+        /**
+         * instance ids not assigned yet
+         */
+        public final List<String> spare;
+
+        /**
+         * Constructor.
+         *
+         * @param assigned instance ids by keys of devices
+         * @param spare instance ids not assigned yet
+         */
+        public Snapshot(Map<String, String> assigned, List<String> spare) {
+            if (assigned == null) {
+                throw new NullPointerException("assigned is null");
+            }
+            if (spare == null) {
+                throw new NullPointerException("spare is null");
+            }
+            this.assigned = Collections.unmodifiableMap(new HashMap<>(assigned));
+            this.spare = Collections.unmodifiableList(new ArrayList<>(spare));
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" +
+                    "assigned=" + assigned.size() +
+                    ", spare=" + spare.size() +
+                    '}';
+        }
+    }
+
+    /**
+     * Storage of instance ids. Calls are serialized.
+     */
+    public interface Storage {
+
+        /**
+         * @return saved state or {@code null} if nothing is saved
+         */
+        Snapshot load();
+
+        /**
+         * @param snapshot state to save
+         */
+        void save(Snapshot snapshot);
+    }
+
+    /**
+     * Creates {@link InstanceIdManager} instance.
+     */
+    public static final class Builder {
+
+        private OAuth2Session session;
+        private String clientId;
+        private Storage storage;
+        private int poolSize = 5;
+        private long minBackoff = TimeUnit.SECONDS.toNanos(1);
+        private long maxBackoff = TimeUnit.MINUTES.toNanos(5);
+        private ScheduledExecutorService scheduler;
+
+        /**
+         * @param session session used to request instance ids
+         * @return itself
+         */
+        public Builder setSession(OAuth2Session session) {
+            this.session = session;
+            return this;
+        }
+
+        /**
+         * @param clientId client id of the application
+         * @return itself
+         */
+        public Builder setClientId(String clientId) {
+            this.clientId = clientId;
+            return this;
+        }
+
+        /**
+         * @param storage storage of instance ids, can be {@code null}
+         * @return itself
+         */
+        public Builder setStorage(Storage storage) {
+            this.storage = storage;
+            return this;
+        }
+
+        /**
+         * @param poolSize number of spare ids to keep (default is 5)
+         * @return itself
+         */
+        public Builder setPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+            return this;
+        }
+
+        /**
+         * @param minBackoff delay after the first failure (default is 1 s)
+         * @param unit unit of delay
+         * @return itself
+         */
+        public Builder setMinBackoff(long minBackoff, TimeUnit unit) {
+            this.minBackoff = unit.toNanos(minBackoff);
+            return this;
+        }
+
+        /**
+         * @param maxBackoff delay will never go higher (default is 5 min)
+         * @param unit unit of delay
+         * @return itself
+         */
+        public Builder setMaxBackoff(long maxBackoff, TimeUnit unit) {
+            this.maxBackoff = unit.toNanos(maxBackoff);
+            return this;
+        }
+
+        /**
+         * @param scheduler scheduler of background requests, a shared daemon thread is used by
+         *                  default
+         * @return itself
+         */
+        public Builder setScheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * @return {@link InstanceIdManager} instance
+         */
+        public InstanceIdManager create() {
+            return new InstanceIdManager(this);
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.processes;
+
+import com.yandex.money.api.exceptions.InsufficientScopeException;
+import com.yandex.money.api.exceptions.InvalidRequestException;
+import com.yandex.money.api.exceptions.InvalidTokenException;
+import com.yandex.money.api.methods.BaseProcessPayment;
+import com.yandex.money.api.methods.BaseRequestPayment;
+import com.yandex.money.api.net.ApiFuture;
+import com.yandex.money.api.net.ApiRequest;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.net.OnResponseReady;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes payment submissions idempotent by a key supplied by the caller, for instance id of a
+ * business order. Repeated submissions with the same key reuse results of previous ones instead
+ * of calling the API again:
+ * <ul>
+ *     <li>successful request payment, so the same {@code request_id} is used;</li>
+ *     <li>process payment in flight, so concurrent submissions wait for the same call;</li>
+ *     <li>completed process payment unless it is {@link BaseProcessPayment.Status#IN_PROGRESS}.
+ *     </li>
+ * </ul>
+ * Failed calls are not remembered, so they can be retried. Keys are remembered for the
+ * configured time since their last use.
+ *
+ * @param <RP> type of request payment
+ * @param <PP> type of process payment
+ */
+public final class PaymentIdempotencyGuard<RP extends BaseRequestPayment,
+        PP extends BaseProcessPayment> {
+
+    private static final int SWEEP_INTERVAL = 256;
+
+    private final OAuth2Session session;
+    private final long timeToLive;
+
+    private final ConcurrentMap<String, Entry<RP, PP>> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger operations = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param session session used to make payments
+     * @param timeToLive time to remember keys
+     * @param unit unit of time
+     */
+    public PaymentIdempotencyGuard(OAuth2Session session, long timeToLive, TimeUnit unit) {
+        if (session == null) {
+            throw new NullPointerException("session is null");
+        }
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("timeToLive should be greater than 0");
+        }
+        this.session = session;
+        this.timeToLive = unit.toNanos(timeToLive);
+    }
+
+    /**
+     * Requests payment or returns successful result of a previous request with the same key.
+     *
+     * @param key idempotency key
+     * @param request request payment
+     * @return request payment
+     * @throws IOException if something went wrong during IO operations
+     * @throws InvalidRequestException if server responded with 404 code
+     * @throws InvalidTokenException if server responded with 401 code
+     * @throws InsufficientScopeException if server responded with 403 code
+     */
+    public RP requestPayment(String key, ApiRequest<RP> request) throws IOException,
+            InvalidRequestException, InvalidTokenException, InsufficientScopeException {
+
+        if (request == null) {
+            throw new NullPointerException("request is null");
+        }
+        ApiFuture<RP> future;
+        while (true) {
+            Entry<RP, PP> entry = getEntry(key);
+            synchronized (entry) {
+                if (entry.removed) {
+                    continue;
+                }
+                future = entry.requestPayment;
+                if (future == null || isDone(future) && !isSuccessful(future)) {
+                    future = track(entry, session.enqueue(request));
+                    entry.requestPayment = future;
+                }
+                break;
+            }
+        }
+        return await(future);
+    }
+
+    /**
+     * Processes payment or returns result of a previous process payment with the same key. If the
+     * previous one is still in flight waits for it.
+     *
+     * @param key idempotency key
+     * @param request process payment
+     * @return process payment
+     * @throws IOException if something went wrong during IO operations
+     * @throws InvalidRequestException if server responded with 404 code
+     * @throws InvalidTokenException if server responded with 401 code
+     * @throws InsufficientScopeException if server responded with 403 code
+     */
+    public PP processPayment(String key, ApiRequest<PP> request) throws IOException,
+            InvalidRequestException, InvalidTokenException, InsufficientScopeException {
+
+        if (request == null) {
+            throw new NullPointerException("request is null");
+        }
+        ApiFuture<PP> future;
+        while (true) {
+            Entry<RP, PP> entry = getEntry(key);
+            synchronized (entry) {
+                if (entry.removed) {
+                    continue;
+                }
+                future = entry.processPayment;
+                // failed and unfinished payments are repeated
+                if (future == null || isDone(future) && !isCompleted(future)) {
+                    future = track(entry, session.enqueue(request));
+                    entry.processPayment = future;
+                }
+                break;
+            }
+        }
+        return await(future);
+    }
+
+    /**
+     * @param key idempotency key
+     * @return {@code request_id} of successful request payment or {@code null} if unknown
+     */
+    public String getRequestId(String key) {
+        Entry<RP, PP> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        ApiFuture<RP> future;
+        synchronized (entry) {
+            future = entry.requestPayment;
+        }
+        return future != null && isDone(future) && isSuccessful(future) ?
+                getNow(future).requestId : null;
+    }
+
+    /**
+     * Forgets a key.
+     *
+     * @param key idempotency key
+     */
+    public void forget(String key) {
+        entries.remove(key);
+    }
+
+    /**
+     * @return number of remembered keys
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private Entry<RP, PP> getEntry(String key) {
+        if (key == null) {
+            throw new NullPointerException("key is null");
+        }
+        if (operations.incrementAndGet() % SWEEP_INTERVAL == 0) {
+            sweep();
+        }
+        while (true) {
+            long expiresAt = System.nanoTime() + timeToLive;
+            Entry<RP, PP> entry = entries.get(key);
+            if (entry != null) {
+                if (entry.touch(expiresAt)) {
+                    return entry;
+                }
+                entries.remove(key, entry);
+            }
+            entry = new Entry<>(expiresAt);
+            if (entries.putIfAbsent(key, entry) == null) {
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * Keeps the entry alive while the call is in flight and for time to live after it completes.
+     */
+    private <T> ApiFuture<T> track(final Entry<RP, PP> entry, ApiFuture<T> future) {
+        entry.begin();
+        return future.addCallback(new OnResponseReady<T>() {
+            @Override
+            public void onFailure(Exception exception) {
+                entry.end(System.nanoTime() + timeToLive);
+            }
+
+            @Override
+            public void onResponse(T response) {
+                entry.end(System.nanoTime() + timeToLive);
+            }
+        });
+    }
+
+    private void sweep() {
+        for (Map.Entry<String, Entry<RP, PP>> entry : entries.entrySet()) {
+            // the key may have been given a new entry already
+            if (entry.getValue().remove()) {
+                entries.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static boolean isDone(ApiFuture<?> future) {
+        return future.isDone();
+    }
+
+    private static boolean isSuccessful(ApiFuture<? extends BaseRequestPayment> future) {
+        BaseRequestPayment response = getNow(future);
+        return response != null && response.status == BaseRequestPayment.Status.SUCCESS;
+    }
+
+    private static boolean isCompleted(ApiFuture<? extends BaseProcessPayment> future) {
+        BaseProcessPayment response = getNow(future);
+        return response != null && response.status != BaseProcessPayment.Status.IN_PROGRESS;
+    }
+
+    /**
+     * @return result of a completed future or {@code null} if it has failed
+     */
+    private static <T> T getNow(ApiFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException | ExecutionException | CancellationException e) {
+            return null;
+        }
+    }
+
+    private static <T> T await(ApiFuture<T> future) throws IOException, InvalidRequestException,
+            InvalidTokenException, InsufficientScopeException {
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            // the call is shared with other submissions, so it is not canceled
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a response");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InvalidRequestException) {
+                throw (InvalidRequestException) cause;
+            } else if (cause instanceof InvalidTokenException) {
+                throw (InvalidTokenException) cause;
+            } else if (cause instanceof InsufficientScopeException) {
+                throw (InsufficientScopeException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static final class Entry<RP, PP> {
+
+        long expiresAt;
+        int inFlight;
+        boolean removed;
+        ApiFuture<RP> requestPayment;
+        ApiFuture<PP> processPayment;
+
+        Entry(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * Extends life of the entry.
+         *
+         * @return {@code false} if the entry has already expired
+         */
+        synchronized boolean touch(long expiresAt) {
+            if (remove()) {
+                return false;
+            }
+            this.expiresAt = Math.max(this.expiresAt, expiresAt);
+            return true;
+        }
+
+        synchronized void begin() {
+            inFlight++;
+        }
+
+        synchronized void end(long expiresAt) {
+            inFlight--;
+            this.expiresAt = Math.max(this.expiresAt, expiresAt);
+        }
+
+        /**
+         * Marks the entry removed if it has expired. Removed entries are never used again.
+         *
+         * @return {@code true} if the entry is removed
+         */
+        synchronized boolean remove() {
+            if (!removed && inFlight == 0 && System.nanoTime() - expiresAt >= 0) {
+                removed = true;
+            }
+            return removed;
+        }
+    }
+}
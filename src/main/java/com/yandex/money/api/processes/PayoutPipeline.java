@@ -0,0 +1,1025 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.processes;
+
+import com.yandex.money.api.methods.AccountInfo;
+import com.yandex.money.api.methods.BaseProcessPayment;
+import com.yandex.money.api.methods.BaseRequestPayment;
+import com.yandex.money.api.methods.ProcessPayment;
+import com.yandex.money.api.methods.RequestPayment;
+import com.yandex.money.api.methods.params.P2pTransferParams;
+import com.yandex.money.api.methods.params.PaymentParams;
+import com.yandex.money.api.model.Error;
+import com.yandex.money.api.model.MoneySource;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.utils.LatencyHistogram;
+import com.yandex.money.api.utils.Strings;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pays out orders with {@link PaymentProcess}. Orders are partitioned by recipient: each partition
+ * runs a bounded number of payments at once and orders of the same recipient are paid one by
+ * one in order of submission.
+ * <p/>
+ * Payments in progress are repeated as advised by {@code next_retry}. Payments failed with an IO
+ * error or refused with one of retryable errors are repeated using exponential backoff, process
+ * payment is repeated with the same {@code request_id}, so a payment is never made twice.
+ * <p/>
+ * Optionally the pipeline admits orders only if the source wallet can cover them. Available
+ * balance is tracked locally: it is seeded from {@link AccountInfo#balance}, funds are reserved
+ * for orders being paid out and debited by {@link RequestPayment#contractAmount} on success. Orders
+ * that do not fit are parked until funds are released or the balance is reconciled, which is done
+ * periodically. Reconciled balance does not include payments completed while it was requested,
+ * so available balance may be underestimated until the next reconciliation, but never
+ * overestimated.
+ */
+public final class PayoutPipeline {
+
+    private final OAuth2Session session;
+    private final int concurrency;
+    private final int maxAttempts;
+    private final long minBackoff;
+    private final long maxBackoff;
+    private final Set<Error> retryableErrors;
+    private final Listener listener;
+    private final ScheduledExecutorService executor;
+    private final boolean ownExecutor;
+    private final Partition[] partitions;
+    private final Funds funds;
+    private final long reconcileInterval;
+
+    private final Object lock = new Object();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final Runnable reconcileTask = new Runnable() {
+        @Override
+        public void run() {
+            reconcile();
+        }
+    };
+
+    private int pending;
+    private long submitted;
+    private long startedAt;
+    private boolean shutdown;
+    private ScheduledFuture<?> reconcile;
+    private int reconcileFailures;
+
+    private PayoutPipeline(Builder builder) {
+        if (builder.session == null) {
+            throw new NullPointerException("session is null");
+        }
+        if (builder.partitions < 1) {
+            throw new IllegalArgumentException("partitions should be greater than 0");
+        }
+        if (builder.concurrency < 1) {
+            throw new IllegalArgumentException("concurrency should be greater than 0");
+        }
+        if (builder.maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts should be greater than 0");
+        }
+        if (builder.minBackoff <= 0 || builder.maxBackoff < builder.minBackoff) {
+            throw new IllegalArgumentException("illegal backoff range");
+        }
+        if (builder.retryableErrors == null) {
+            throw new NullPointerException("retryableErrors is null");
+        }
+        if (builder.reconcileInterval <= 0) {
+            throw new IllegalArgumentException("reconcileInterval should be greater than 0");
+        }
+        session = builder.session;
+        concurrency = builder.concurrency;
+        maxAttempts = builder.maxAttempts;
+        minBackoff = builder.minBackoff;
+        maxBackoff = builder.maxBackoff;
+        retryableErrors = builder.retryableErrors.isEmpty() ? Collections.<Error>emptySet() :
+                EnumSet.copyOf(builder.retryableErrors);
+        listener = builder.listener;
+        ownExecutor = builder.executor == null;
+        executor = ownExecutor ? createExecutor(builder.partitions * builder.concurrency) :
+                builder.executor;
+        funds = builder.balanceControl ? new Funds() : null;
+        reconcileInterval = builder.reconcileInterval;
+        partitions = new Partition[builder.partitions];
+        for (int i = 0; i < partitions.length; ++i) {
+            partitions[i] = new Partition();
+        }
+    }
+
+    /**
+     * Adds an order to the queue.
+     *
+     * @param order order to pay out
+     */
+    public void submit(Order order) {
+        submitAll(Collections.singletonList(order));
+    }
+
+    /**
+     * Adds orders to the queue. Orders of the same recipient are paid out in iteration order.
+     *
+     * @param orders orders to pay out
+     */
+    public void submitAll(Collection<Order> orders) {
+        if (orders == null) {
+            throw new NullPointerException("orders is null");
+        }
+        for (Order order : orders) {
+            if (order == null) {
+                throw new NullPointerException("order is null");
+            }
+        }
+        synchronized (lock) {
+            if (shutdown) {
+                throw new IllegalStateException("pipeline is shut down");
+            }
+            if (submitted == 0) {
+                startedAt = System.nanoTime();
+            }
+            submitted += orders.size();
+            pending += orders.size();
+        }
+
+        Set<Partition> touched = new HashSet<>();
+        for (Order order : orders) {
+            Partition partition = getPartition(order.recipient);
+            Task task = new Task(order, new PaymentProcess(session, new Parameters(order.params)));
+            synchronized (partition) {
+                partition.queue.add(task);
+            }
+            touched.add(partition);
+        }
+        for (Partition partition : touched) {
+            dispatch(partition);
+        }
+        if (funds != null) {
+            scheduleReconcile(funds.isKnown() ? reconcileInterval : 0);
+        }
+    }
+
+    /**
+     * Stops accepting new orders. Orders already submitted are paid out.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            if (pending > 0) {
+                return;
+            }
+        }
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Waits until all submitted orders are completed.
+     *
+     * @param timeout maximum time to wait
+     * @param unit unit of timeout
+     * @return {@code true} if all orders are completed
+     * @throws InterruptedException if thread was interrupted while waiting
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (pending > 0) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, left);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return statistics of the pipeline
+     */
+    public Stats getStats() {
+        int queued = 0;
+        for (Partition partition : partitions) {
+            synchronized (partition) {
+                queued += partition.queue.size();
+            }
+        }
+        long submitted;
+        long pending;
+        long elapsed;
+        synchronized (lock) {
+            submitted = this.submitted;
+            pending = this.pending;
+            elapsed = submitted == 0 ? 0 : System.nanoTime() - startedAt;
+        }
+        return new Stats(submitted, pending, queued, succeeded.get(), failed.get(),
+                retries.get(), elapsed, latency.snapshot());
+    }
+
+    /**
+     * @return balance available for new orders or {@code null} if it is unknown or balance
+     * control is disabled
+     */
+    public BigDecimal getAvailableBalance() {
+        return funds == null ? null : funds.getAvailable();
+    }
+
+    private Partition getPartition(String recipient) {
+        return partitions[(recipient.hashCode() & Integer.MAX_VALUE) % partitions.length];
+    }
+
+    private void dispatch(final Partition partition) {
+        List<Task> tasks = new ArrayList<>();
+        synchronized (partition) {
+            while (partition.running < concurrency && !partition.retries.isEmpty()) {
+                tasks.add(partition.retries.poll());
+                partition.running++;
+            }
+            Set<String> parked = new HashSet<>();
+            Iterator<Task> iterator = partition.queue.iterator();
+            while (partition.running < concurrency && iterator.hasNext()) {
+                Task task = iterator.next();
+                String recipient = task.order.recipient;
+                // previous order of the recipient is not completed yet
+                if (partition.busy.contains(recipient) || parked.contains(recipient)) {
+                    continue;
+                }
+                if (funds != null && !funds.reserve(task.order.amount)) {
+                    parked.add(recipient);
+                    if (!funds.hasAvailable()) {
+                        break;
+                    }
+                    continue;
+                }
+                task.reserved = task.order.amount;
+                partition.busy.add(recipient);
+                iterator.remove();
+                tasks.add(task);
+                partition.running++;
+            }
+        }
+        for (final Task task : tasks) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    PayoutPipeline.this.run(partition, task);
+                }
+            });
+        }
+    }
+
+    private void run(final Partition partition, final Task task) {
+        PaymentProcess process = task.process;
+        ProcessPayment processPayment = null;
+        Error error = null;
+        Exception exception = null;
+        boolean retryable = false;
+        long delay = 0;
+
+        task.attempts++;
+        try {
+            if (process.getState() == BasePaymentProcess.State.CREATED) {
+                process.proceed();
+            }
+            BaseRequestPayment requestPayment = process.getRequestPayment();
+            if (requestPayment.status == BaseRequestPayment.Status.REFUSED) {
+                error = requestPayment.error;
+                retryable = retryableErrors.contains(error);
+                process.reset();
+            } else {
+                if (funds != null && requestPayment.contractAmount != null) {
+                    // the exact amount is known now
+                    funds.adjust(task.reserved, requestPayment.contractAmount);
+                    task.reserved = requestPayment.contractAmount;
+                }
+                // payments in progress are repeated by the process itself
+                if (task.repeat) {
+                    process.repeat();
+                } else {
+                    process.proceed();
+                }
+                task.repeat = false;
+                processPayment = (ProcessPayment) process.getProcessPayment();
+                error = processPayment.error;
+                switch (processPayment.status) {
+                    case SUCCESS:
+                        break;
+                    case REFUSED:
+                        retryable = retryableErrors.contains(error);
+                        task.repeat = true;
+                        if (processPayment.nextRetry != null) {
+                            delay = TimeUnit.MILLISECONDS.toNanos(processPayment.nextRetry);
+                        }
+                        break;
+                    case UNKNOWN:
+                        retryable = true;
+                        task.repeat = true;
+                        break;
+                    default:
+                        // external authorization is not possible for payouts
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            exception = e;
+            retryable = true;
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        boolean successful = processPayment != null &&
+                processPayment.status == BaseProcessPayment.Status.SUCCESS;
+        if (funds != null && error == Error.NOT_ENOUGH_FUNDS && task.attempts < maxAttempts) {
+            park(partition, task);
+            return;
+        }
+        if (!successful && retryable && task.attempts < maxAttempts) {
+            retries.incrementAndGet();
+            synchronized (partition) {
+                partition.running--;
+            }
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (partition) {
+                        partition.retries.add(task);
+                    }
+                    dispatch(partition);
+                }
+            }, Math.max(delay, getBackoff(task.attempts)), TimeUnit.NANOSECONDS);
+            dispatch(partition);
+            return;
+        }
+
+        if (funds != null) {
+            if (successful) {
+                funds.debit(task.reserved);
+            } else {
+                funds.release(task.reserved);
+            }
+        }
+        long elapsed = System.nanoTime() - task.submittedAt;
+        latency.record(elapsed);
+        (successful ? succeeded : failed).incrementAndGet();
+        if (listener != null) {
+            listener.onCompleted(new Result(task.order, processPayment,
+                    successful ? null : error, exception, task.attempts, elapsed));
+        }
+        synchronized (partition) {
+            partition.running--;
+            partition.busy.remove(task.order.recipient);
+        }
+        dispatch(partition);
+        onCompleted();
+    }
+
+    /**
+     * Returns the order to the head of its partition queue when the local balance turned out to be
+     * wrong. No orders are admitted until the balance is reconciled.
+     */
+    private void park(Partition partition, Task task) {
+        funds.release(task.reserved);
+        funds.invalidate();
+        task.process.reset();
+        task.repeat = false;
+        synchronized (partition) {
+            partition.running--;
+            partition.busy.remove(task.order.recipient);
+            partition.queue.addFirst(task);
+        }
+        scheduleReconcile(0);
+    }
+
+    private void onCompleted() {
+        ScheduledFuture<?> reconcile;
+        synchronized (lock) {
+            if (--pending > 0) {
+                return;
+            }
+            lock.notifyAll();
+            reconcile = this.reconcile;
+            this.reconcile = null;
+            if (reconcile != null) {
+                reconcile.cancel(false);
+            }
+            if (!shutdown) {
+                return;
+            }
+        }
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private void scheduleReconcile(long delay) {
+        synchronized (lock) {
+            if (pending == 0) {
+                return;
+            }
+            if (reconcile != null) {
+                if (reconcile.getDelay(TimeUnit.NANOSECONDS) <= delay) {
+                    return;
+                }
+                reconcile.cancel(false);
+            }
+            reconcile = executor.schedule(reconcileTask, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void reconcile() {
+        long delay;
+        try {
+            AccountInfo accountInfo = session.execute(new AccountInfo.Request());
+            funds.setBalance(accountInfo.balance);
+            synchronized (lock) {
+                reconcileFailures = 0;
+            }
+            delay = reconcileInterval;
+        } catch (Exception e) {
+            synchronized (lock) {
+                delay = Math.min(reconcileInterval, getBackoff(++reconcileFailures));
+            }
+        }
+        synchronized (lock) {
+            reconcile = null;
+        }
+        for (Partition partition : partitions) {
+            dispatch(partition);
+        }
+        scheduleReconcile(delay);
+    }
+
+    private long getBackoff(int attempts) {
+        long backoff = minBackoff << Math.min(attempts - 1, 30);
+        return backoff <= 0 ? maxBackoff : Math.min(maxBackoff, backoff);
+    }
+
+    private static ScheduledExecutorService createExecutor(int threads) {
+        final AtomicInteger number = new AtomicInteger();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "PayoutPipeline-" + number.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * Payout order.
+     */
+    public static final class Order {
+
+        /**
+         * id of the order
+         */
+        public final String id;
+
+        /**
+         * recipient of the payout, orders are partitioned by it
+         */
+        public final String recipient;
+
+        /**
+         * payment parameters
+         */
+        public final PaymentParams params;
+
+        /**
+         * amount to reserve for the order, {@code null} if unknown
+         */
+        public final BigDecimal amount;
+
+        /**
+         * Creates P2P transfer order.
+         *
+         * @param id id of the order
+         * @param params transfer parameters
+         */
+        public Order(String id, P2pTransferParams params) {
+            this(id, params == null ? null : params.paymentParams.get("to"),
+                    params == null ? null : getAmount(params), params);
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param id id of the order
+         * @param recipient recipient of the payout
+         * @param params payment parameters
+         */
+        public Order(String id, String recipient, PaymentParams params) {
+            this(id, recipient, null, params);
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param id id of the order
+         * @param recipient recipient of the payout
+         * @param amount amount to reserve for the order, can be {@code null} if unknown
+         * @param params payment parameters
+         */
+        public Order(String id, String recipient, BigDecimal amount, PaymentParams params) {
+            Strings.checkNotNullAndNotEmpty(id, "id");
+            if (params == null) {
+                throw new NullPointerException("params is null");
+            }
+            Strings.checkNotNullAndNotEmpty(recipient, "recipient");
+            this.id = id;
+            this.recipient = recipient;
+            this.amount = amount;
+            this.params = params;
+        }
+
+        @Override
+        public String toString() {
+            return "Order{" +
+                    "id='" + id + '\'' +
+                    ", recipient='" + recipient + '\'' +
+                    ", amount=" + amount +
+                    '}';
+        }
+
+        /**
+         * Amount to pay is preferred to amount to receive, the latter does not include fee.
+         */
+        private static BigDecimal getAmount(P2pTransferParams params) {
+            String amount = params.paymentParams.get("amount");
+            if (amount == null) {
+                amount = params.paymentParams.get("amount_due");
+            }
+            return amount == null ? null : new BigDecimal(amount);
+        }
+    }
+
+    /**
+     * Result of an order.
+     */
+    public static final class Result {
+
+        /**
+         * the order
+         */
+        public final Order order;
+
+        /**
+         * last process payment, {@code null} if request payment was refused or failed
+         */
+        public final ProcessPayment processPayment;
+
+        /**
+         * reason of refusal, {@code null} if payment is successful
+         */
+        public final Error error;
+
+        /**
+         * exception of the last attempt, if any
+         */
+        public final Exception exception;
+
+        /**
+         * number of attempts made
+         */
+        public final int attempts;
+
+        /**
+         * time from submission to completion in nanoseconds
+         */
+        public final long latency;
+
+        Result(Order order, ProcessPayment processPayment, Error error, Exception exception,
+               int attempts, long latency) {
+            this.order = order;
+            this.processPayment = processPayment;
+            this.error = error;
+            this.exception = exception;
+            this.attempts = attempts;
+            this.latency = latency;
+        }
+
+        /**
+         * @return {@code true} if payout is made
+         */
+        public boolean isSuccessful() {
+            return processPayment != null &&
+                    processPayment.status == BaseProcessPayment.Status.SUCCESS;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "order=" + order +
+                    ", successful=" + isSuccessful() +
+                    ", error=" + error +
+                    ", exception=" + exception +
+                    ", attempts=" + attempts +
+                    ", latency=" + latency +
+                    '}';
+        }
+    }
+
+    /**
+     * Statistics of a pipeline.
+     */
+    public static final class Stats {
+
+        /**
+         * number of submitted orders
+         */
+        public final long submitted;
+
+        /**
+         * number of orders not completed yet
+         */
+        public final long pending;
+
+        /**
+         * number of orders waiting to be started, including orders parked for lack of funds
+         */
+        public final long queued;
+
+        /**
+         * number of successful payouts
+         */
+        public final long succeeded;
+
+        /**
+         * number of failed payouts
+         */
+        public final long failed;
+
+        /**
+         * number of repeated attempts
+         */
+        public final long retries;
+
+        /**
+         * time since the first submission in nanoseconds
+         */
+        public final long elapsed;
+
+        /**
+         * time from submission to completion of orders
+         */
+        public final LatencyHistogram.Snapshot latency;
+
+        Stats(long submitted, long pending, long queued, long succeeded, long failed,
+              long retries, long elapsed, LatencyHistogram.Snapshot latency) {
+            this.submitted = submitted;
+            this.pending = pending;
+            this.queued = queued;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.retries = retries;
+            this.elapsed = elapsed;
+            this.latency = latency;
+        }
+
+        /**
+         * @return completed orders per second
+         */
+        public double getThroughput() {
+            return elapsed == 0 ? 0 : (succeeded + failed) * 1e9 / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "submitted=" + submitted +
+                    ", pending=" + pending +
+                    ", queued=" + queued +
+                    ", succeeded=" + succeeded +
+                    ", failed=" + failed +
+                    ", retries=" + retries +
+                    ", throughput=" + getThroughput() +
+                    ", latency=" + latency +
+                    '}';
+        }
+    }
+
+    /**
+     * Receives results of orders. Called on a thread of the pipeline.
+     */
+    public interface Listener {
+
+        /**
+         * Called when an order is paid out or failed.
+         *
+         * @param result result of the order
+         */
+        void onCompleted(Result result);
+    }
+
+    private static final class Partition {
+
+        final Deque<Task> queue = new ArrayDeque<>();
+        final Deque<Task> retries = new ArrayDeque<>();
+        final Set<String> busy = new HashSet<>();
+        int running;
+    }
+
+    private static final class Task {
+
+        final Order order;
+        final PaymentProcess process;
+        final long submittedAt = System.nanoTime();
+
+        int attempts;
+        boolean repeat;
+        BigDecimal reserved;
+
+        Task(Order order, PaymentProcess process) {
+            this.order = order;
+            this.process = process;
+        }
+    }
+
+    /**
+     * Locally tracked balance of the source wallet.
+     */
+    private static final class Funds {
+
+        private BigDecimal balance;
+        private BigDecimal reserved = BigDecimal.ZERO;
+
+        synchronized boolean isKnown() {
+            return balance != null;
+        }
+
+        synchronized boolean hasAvailable() {
+            return balance != null && balance.compareTo(reserved) > 0;
+        }
+
+        synchronized BigDecimal getAvailable() {
+            return balance == null ? null : balance.subtract(reserved);
+        }
+
+        synchronized void setBalance(BigDecimal balance) {
+            this.balance = balance;
+        }
+
+        synchronized void invalidate() {
+            balance = null;
+        }
+
+        /**
+         * @param amount amount to reserve, {@code null} if unknown
+         * @return {@code true} if the amount is reserved
+         */
+        synchronized boolean reserve(BigDecimal amount) {
+            if (!hasAvailable()) {
+                return false;
+            }
+            if (amount == null) {
+                return true;
+            }
+            if (balance.subtract(reserved).compareTo(amount) < 0) {
+                return false;
+            }
+            reserved = reserved.add(amount);
+            return true;
+        }
+
+        synchronized void adjust(BigDecimal reserved, BigDecimal amount) {
+            release(reserved);
+            this.reserved = this.reserved.add(amount);
+        }
+
+        synchronized void release(BigDecimal amount) {
+            if (amount != null) {
+                reserved = reserved.subtract(amount);
+            }
+        }
+
+        synchronized void debit(BigDecimal amount) {
+            if (amount != null) {
+                release(amount);
+                if (balance != null) {
+                    balance = balance.subtract(amount);
+                }
+            }
+        }
+    }
+
+    private static final class Parameters implements IPaymentProcess.ParameterProvider {
+
+        private final PaymentParams params;
+
+        Parameters(PaymentParams params) {
+            this.params = params;
+        }
+
+        @Override
+        public String getPatternId() {
+            return params.getPatternId();
+        }
+
+        @Override
+        public Map<String, String> getPaymentParameters() {
+            return params.makeParams();
+        }
+
+        @Override
+        public MoneySource getMoneySource() {
+            return null;
+        }
+
+        @Override
+        public String getCsc() {
+            return null;
+        }
+
+        @Override
+        public String getExtAuthSuccessUri() {
+            return null;
+        }
+
+        @Override
+        public String getExtAuthFailUri() {
+            return null;
+        }
+    }
+
+    /**
+     * Creates {@link PayoutPipeline} instance.
+     */
+    public static final class Builder {
+
+        private OAuth2Session session;
+        private int partitions = 16;
+        private int concurrency = 4;
+        private int maxAttempts = 5;
+        private long minBackoff = TimeUnit.SECONDS.toNanos(1);
+        private long maxBackoff = TimeUnit.MINUTES.toNanos(1);
+        private Set<Error> retryableErrors = EnumSet.of(Error.TECHNICAL_ERROR);
+        private Listener listener;
+        private ScheduledExecutorService executor;
+        private boolean balanceControl;
+        private long reconcileInterval = TimeUnit.MINUTES.toNanos(1);
+
+        /**
+         * @param session session used to make payments
+         * @return itself
+         */
+        public Builder setSession(OAuth2Session session) {
+            this.session = session;
+            return this;
+        }
+
+        /**
+         * @param partitions number of partitions (default is 16)
+         * @return itself
+         */
+        public Builder setPartitions(int partitions) {
+            this.partitions = partitions;
+            return this;
+        }
+
+        /**
+         * @param concurrency max number of payments made at once in a partition (default is 4)
+         * @return itself
+         */
+        public Builder setConcurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * @param maxAttempts max number of attempts to pay out an order (default is 5)
+         * @return itself
+         */
+        public Builder setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * @param minBackoff delay before the first repeated attempt (default is 1 s)
+         * @param unit unit of delay
+         * @return itself
+         */
+        public Builder setMinBackoff(long minBackoff, TimeUnit unit) {
+            this.minBackoff = unit.toNanos(minBackoff);
+            return this;
+        }
+
+        /**
+         * @param maxBackoff delay will never go higher (default is 1 min)
+         * @param unit unit of delay
+         * @return itself
+         */
+        public Builder setMaxBackoff(long maxBackoff, TimeUnit unit) {
+            this.maxBackoff = unit.toNanos(maxBackoff);
+            return this;
+        }
+
+        /**
+         * @param retryableErrors errors of refused payments that are repeated (default is
+         *                        {@link Error#TECHNICAL_ERROR})
+         * @return itself
+         */
+        public Builder setRetryableErrors(Set<Error> retryableErrors) {
+            this.retryableErrors = retryableErrors;
+            return this;
+        }
+
+        /**
+         * @param listener listener of results, can be {@code null}
+         * @return itself
+         */
+        public Builder setListener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * @param executor executor of payments, payment processes are blocking so the executor
+         *                 should have a thread per payment made at once; by default the pipeline
+         *                 creates its own daemon threads
+         * @return itself
+         */
+        public Builder setExecutor(ScheduledExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * @param balanceControl {@code true} to admit orders only if the balance of the source
+         *                       wallet can cover them (default is {@code false}), requires
+         *                       {@link com.yandex.money.api.model.Scope#ACCOUNT_INFO} scope
+         * @return itself
+         */
+        public Builder setBalanceControl(boolean balanceControl) {
+            this.balanceControl = balanceControl;
+            return this;
+        }
+
+        /**
+         * @param reconcileInterval interval of balance requests when balance control is enabled
+         *                          (default is 1 min)
+         * @param unit unit of interval
+         * @return itself
+         */
+        public Builder setReconcileInterval(long reconcileInterval, TimeUnit unit) {
+            this.reconcileInterval = unit.toNanos(reconcileInterval);
+            return this;
+        }
+
+        /**
+         * @return {@link PayoutPipeline} instance
+         */
+        public PayoutPipeline create() {
+            return new PayoutPipeline(this);
+        }
+    }
+}
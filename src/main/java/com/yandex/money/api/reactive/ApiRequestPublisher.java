@@ -0,0 +1,82 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.reactive;
+
+import com.yandex.money.api.net.ApiFuture;
+import com.yandex.money.api.net.ApiRequest;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.net.OnResponseReady;
+
+import java.util.Collections;
+
+/**
+ * Publishes response of a request. Every subscription executes the request once, when demand is
+ * signaled.
+ *
+ * @param <T> response type
+ */
+public class ApiRequestPublisher<T> implements Publisher<T> {
+
+    private final OAuth2Session session;
+    private final ApiRequest<T> request;
+
+    /**
+     * Constructor.
+     *
+     * @param session session used to execute the request
+     * @param request the request
+     */
+    public ApiRequestPublisher(OAuth2Session session, ApiRequest<T> request) {
+        if (session == null) {
+            throw new NullPointerException("session is null");
+        }
+        if (request == null) {
+            throw new NullPointerException("request is null");
+        }
+        this.session = session;
+        this.request = request;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        new PagedSubscription<T>(subscriber) {
+            @Override
+            ApiFuture<?> load() {
+                final PagedSubscription<T> subscription = this;
+                return session.enqueue(request).addCallback(new OnResponseReady<T>() {
+                    @Override
+                    public void onFailure(Exception exception) {
+                        subscription.onError(exception);
+                    }
+
+                    @Override
+                    public void onResponse(T response) {
+                        subscription.onPage(Collections.singletonList(response), true);
+                    }
+                });
+            }
+        }.start();
+    }
+}
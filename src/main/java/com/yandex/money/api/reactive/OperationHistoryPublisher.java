@@ -0,0 +1,117 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.reactive;
+
+import com.yandex.money.api.exceptions.InvalidRequestException;
+import com.yandex.money.api.methods.OperationHistory;
+import com.yandex.money.api.model.Operation;
+import com.yandex.money.api.net.ApiFuture;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.net.OnResponseReady;
+
+/**
+ * Publishes operations of user's history. Pages of history are requested one by one, next page
+ * is requested only when operations of previous page are consumed and subscriber has signaled
+ * demand, so slow subscribers never cause more than one page to be buffered.
+ * <p/>
+ * Every subscription starts from the first page.
+ */
+public class OperationHistoryPublisher implements Publisher<Operation> {
+
+    private final OAuth2Session session;
+    private final OperationHistory.Request.Builder builder;
+    private final String startRecord;
+
+    /**
+     * Constructor. The builder is used to create requests for pages and should not be modified
+     * after publisher is created.
+     *
+     * @param session session used to execute requests
+     * @param builder builder of requests with filters of history
+     * @param startRecord start record of the first page, can be {@code null}
+     */
+    public OperationHistoryPublisher(OAuth2Session session,
+                                     OperationHistory.Request.Builder builder,
+                                     String startRecord) {
+        if (session == null) {
+            throw new NullPointerException("session is null");
+        }
+        if (builder == null) {
+            throw new NullPointerException("builder is null");
+        }
+        this.session = session;
+        this.builder = builder;
+        this.startRecord = startRecord;
+    }
+
+    /**
+     * Constructor. Publishes history from the first page.
+     *
+     * @param session session used to execute requests
+     * @param builder builder of requests with filters of history
+     */
+    public OperationHistoryPublisher(OAuth2Session session,
+                                     OperationHistory.Request.Builder builder) {
+        this(session, builder, null);
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super Operation> subscriber) {
+        new PagedSubscription<Operation>(subscriber) {
+
+            private String nextRecord = startRecord;
+
+            @Override
+            ApiFuture<?> load() {
+                final PagedSubscription<Operation> subscription = this;
+                return session.enqueue(createRequest(nextRecord)).addCallback(
+                        new OnResponseReady<OperationHistory>() {
+                            @Override
+                            public void onFailure(Exception exception) {
+                                subscription.onError(exception);
+                            }
+
+                            @Override
+                            public void onResponse(OperationHistory response) {
+                                if (response.error != null) {
+                                    subscription.onError(new InvalidRequestException(
+                                            response.error.code));
+                                    return;
+                                }
+                                nextRecord = response.nextRecord;
+                                subscription.onPage(response.operations, nextRecord == null);
+                            }
+                        });
+            }
+        }.start();
+    }
+
+    private OperationHistory.Request createRequest(String startRecord) {
+        synchronized (builder) {
+            return builder.setStartRecord(startRecord)
+                    .createRequest();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.reactive;
+
+import com.yandex.money.api.net.ApiFuture;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+
+/**
+ * Subscription that loads elements by pages. Next page is loaded only when previous page is
+ * consumed and subscriber has signaled demand, so at most one page is buffered. Signals to
+ * subscriber are serialized.
+ *
+ * @param <T> type of elements
+ */
+abstract class PagedSubscription<T> implements Subscription {
+
+    private final Subscriber<? super T> subscriber;
+    private final Object lock = new Object();
+    private final Deque<T> buffer = new ArrayDeque<>();
+
+    private long demand;
+    private boolean lastPage;
+    private boolean loading;
+    private boolean canceled;
+    private boolean done;
+    private Throwable error;
+    private ApiFuture<?> pending;
+    private boolean emitting;
+    private boolean missed;
+
+    PagedSubscription(Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber is null");
+        }
+        this.subscriber = subscriber;
+    }
+
+    /**
+     * Sends {@link Subscriber#onSubscribe(Subscription)} signal.
+     */
+    final void start() {
+        subscriber.onSubscribe(this);
+    }
+
+    @Override
+    public final void request(long n) {
+        synchronized (lock) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("non-positive request: " + n);
+                buffer.clear();
+                lastPage = true;
+            } else {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+        }
+        drain();
+    }
+
+    @Override
+    public final void cancel() {
+        ApiFuture<?> pending;
+        synchronized (lock) {
+            if (canceled) {
+                return;
+            }
+            canceled = true;
+            buffer.clear();
+            pending = this.pending;
+            this.pending = null;
+        }
+        if (pending != null) {
+            pending.cancel(true);
+        }
+    }
+
+    /**
+     * Starts loading of next page. When page is loaded {@link #onPage(Collection, boolean)} or
+     * {@link #onError(Throwable)} should be called.
+     *
+     * @return future of loading that is canceled when subscription is canceled
+     */
+    abstract ApiFuture<?> load();
+
+    /**
+     * Called when page is loaded.
+     *
+     * @param elements elements of the page
+     * @param last {@code true} if there are no more pages
+     */
+    final void onPage(Collection<? extends T> elements, boolean last) {
+        synchronized (lock) {
+            loading = false;
+            pending = null;
+            if (canceled) {
+                return;
+            }
+            buffer.addAll(elements);
+            lastPage = last;
+        }
+        drain();
+    }
+
+    /**
+     * Called when page could not be loaded.
+     *
+     * @param throwable cause
+     */
+    final void onError(Throwable throwable) {
+        synchronized (lock) {
+            loading = false;
+            pending = null;
+            if (error == null) {
+                error = throwable;
+            }
+        }
+        drain();
+    }
+
+    private void drain() {
+        synchronized (lock) {
+            if (emitting) {
+                missed = true;
+                return;
+            }
+            emitting = true;
+        }
+
+        while (true) {
+            T next = null;
+            Throwable failure = null;
+            boolean complete = false;
+            boolean load = false;
+            synchronized (lock) {
+                if (canceled || done) {
+                    emitting = false;
+                    return;
+                }
+                if (error != null) {
+                    done = true;
+                    failure = error;
+                } else if (demand > 0 && !buffer.isEmpty()) {
+                    next = buffer.poll();
+                    if (demand != Long.MAX_VALUE) {
+                        demand--;
+                    }
+                } else if (buffer.isEmpty() && lastPage) {
+                    done = true;
+                    complete = true;
+                } else if (buffer.isEmpty() && demand > 0 && !loading) {
+                    loading = true;
+                    load = true;
+                } else if (missed) {
+                    missed = false;
+                    continue;
+                } else {
+                    emitting = false;
+                    return;
+                }
+            }
+
+            if (next != null) {
+                subscriber.onNext(next);
+            } else if (failure != null) {
+                subscriber.onError(failure);
+            } else if (complete) {
+                subscriber.onComplete();
+            } else if (load) {
+                startLoading();
+            }
+        }
+    }
+
+    private void startLoading() {
+        ApiFuture<?> future;
+        try {
+            future = load();
+        } catch (RuntimeException e) {
+            onError(e);
+            return;
+        }
+        boolean cancel;
+        synchronized (lock) {
+            cancel = canceled;
+            if (loading && !cancel) {
+                pending = future;
+            }
+        }
+        if (cancel) {
+            future.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.reactive;
+
+/**
+ * Receiver of elements of {@link Publisher}. Signals are never sent concurrently. Mirrors
+ * {@code org.reactivestreams.Subscriber}.
+ *
+ * @param <T> type of elements
+ */
+public interface Subscriber<T> {
+
+    /**
+     * Called once after {@link Publisher#subscribe(Subscriber)}. No elements are sent until
+     * demand is signaled with {@link Subscription#request(long)}.
+     *
+     * @param subscription subscription
+     */
+    void onSubscribe(Subscription subscription);
+
+    /**
+     * Called for every element, never more times than requested.
+     *
+     * @param element element
+     */
+    void onNext(T element);
+
+    /**
+     * Terminal signal of a failure. No more signals are sent.
+     *
+     * @param throwable the failure
+     */
+    void onError(Throwable throwable);
+
+    /**
+     * Terminal signal of a successful completion. No more signals are sent.
+     */
+    void onComplete();
+}
@@ -30,8 +30,10 @@ package com.yandex.money.api.utils;
  * @author Slava Yasevich (vyasevich@yamoney.ru)
  */
 public final class HttpHeaders {
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
     public static final String ACCEPT_LANGUAGE = "Accept-Language";
     public static final String AUTHORIZATION = "Authorization";
+    public static final String CONTENT_ENCODING = "Content-Encoding";
     public static final String CONTENT_LENGTH = "Content-Length";
     public static final String CONTENT_TYPE = "Content-Type";
     public static final String EXPIRES = "Expires";
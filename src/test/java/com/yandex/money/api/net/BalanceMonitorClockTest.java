@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.api.net;
+
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that {@link BalanceMonitor} does not depend on origin of {@link System#nanoTime()}.
+ */
+public class BalanceMonitorClockTest {
+
+    private MockWebServer server;
+    private OAuth2Session session;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse()
+                        .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                        .setBody("{\"account\":\"1\",\"balance\":1,\"currency\":\"643\"," +
+                                "\"account_status\":\"named\",\"account_type\":\"personal\"," +
+                                "\"balance_details\":{\"total\":1,\"available\":1}}");
+            }
+        });
+        server.start();
+        session = new OAuth2Session(new DefaultApiClient("stub") {
+            @Override
+            public HostsProvider getHostsProvider() {
+                return new HostsProvider(false) {
+                    @Override
+                    public String getMoney() {
+                        return server.getUrl("").toString();
+                    }
+                };
+            }
+        });
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @DataProvider
+    public Object[][] origins() {
+        return new Object[][]{
+                // clock is a day below zero
+                {-TimeUnit.DAYS.toNanos(1)},
+                // clock overflows while the monitor runs
+                {Long.MAX_VALUE - TimeUnit.MILLISECONDS.toNanos(200)}
+        };
+    }
+
+    @Test(dataProvider = "origins")
+    public void testClockOrigin(long origin) throws Exception {
+        BalanceMonitor monitor = new BalanceMonitor.Builder()
+                .setSession(session)
+                .setListener(new BalanceMonitor.Listener() {
+                    @Override
+                    public void onBalanceChanged(BalanceMonitor.BalanceChange change) {
+                    }
+
+                    @Override
+                    public void onRefreshFailed(String wallet, Exception exception) {
+                    }
+                })
+                .setMinInterval(50, TimeUnit.MILLISECONDS)
+                .setMaxInterval(50, TimeUnit.MILLISECONDS)
+                .setMaxRate(100)
+                .setClockOffset(origin - System.nanoTime())
+                .create();
+        monitor.add("first", "first");
+        monitor.add("second", "second");
+        monitor.start();
+        // refreshes must keep going after the clock passes zero or overflows
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (monitor.getRefreshCount() < 20 && deadline - System.nanoTime() > 0) {
+            Thread.sleep(50);
+        }
+        monitor.stop();
+
+        long count = monitor.getRefreshCount();
+        Assert.assertTrue(count >= 20, "refreshes: " + count);
+        Assert.assertNotNull(monitor.getAccountInfo("first"));
+        Assert.assertNotNull(monitor.getAccountInfo("second"));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.yandex.money.api.net.AdaptiveConcurrencyLimiter;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final long RTT = 10_000_000L;
+
+    @Test
+    public void testQueueing() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = createLimiter(2);
+        final AtomicInteger started = new AtomicInteger();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                started.incrementAndGet();
+            }
+        };
+
+        for (int i = 0; i < 3; ++i) {
+            limiter.execute(task);
+        }
+        Assert.assertEquals(started.get(), 2);
+        Assert.assertEquals(limiter.getInFlight(), 2);
+        Assert.assertEquals(limiter.getQueueLength(), 1);
+
+        limiter.release();
+        Assert.assertEquals(started.get(), 3);
+        Assert.assertEquals(limiter.getInFlight(), 2);
+        Assert.assertEquals(limiter.getQueueLength(), 0);
+    }
+
+    @Test
+    public void testDecreaseOnDrops() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = createLimiter(10);
+        for (int i = 0; i < 5; ++i) {
+            limiter.acquire();
+            limiter.release(RTT, true);
+        }
+        Assert.assertTrue(limiter.getLimit() < 10);
+    }
+
+    @Test
+    public void testDecreaseOnLatencyGrowth() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = createLimiter(10);
+        saturate(limiter, RTT);
+        int limit = limiter.getLimit();
+        saturate(limiter, RTT * 4);
+        Assert.assertTrue(limiter.getLimit() < limit);
+    }
+
+    @Test
+    public void testIncreaseOnStableLatency() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = createLimiter(10);
+        saturate(limiter, RTT);
+        Assert.assertTrue(limiter.getLimit() > 10);
+    }
+
+    private static AdaptiveConcurrencyLimiter createLimiter(int initialLimit) {
+        return new AdaptiveConcurrencyLimiter.Builder()
+                .setInitialLimit(initialLimit)
+                .setMaxLimit(100)
+                .create();
+    }
+
+    private static void saturate(AdaptiveConcurrencyLimiter limiter, long rtt) throws Exception {
+        for (int round = 0; round < 10; ++round) {
+            int limit = limiter.getLimit();
+            for (int i = 0; i < limit; ++i) {
+                limiter.acquire();
+            }
+            for (int i = 0; i < limit; ++i) {
+                limiter.release(rtt, false);
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.SocketPolicy;
+import com.yandex.money.api.methods.InstanceId;
+import com.yandex.money.api.net.ApiClient;
+import com.yandex.money.api.net.ApiFuture;
+import com.yandex.money.api.net.CallMetrics;
+import com.yandex.money.api.net.CallMetricsListener;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class ApiFutureTest {
+
+    private MockWebServer server;
+    private OAuth2Session session;
+    private CountDownLatch completed;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        ApiClient client = new DefaultApiClient("stub") {
+            @Override
+            public HostsProvider getHostsProvider() {
+                return new HostsProvider(false) {
+                    @Override
+                    public String getMoney() {
+                        return server.getUrl("").toString();
+                    }
+                };
+            }
+        };
+        session = new OAuth2Session(client);
+        completed = new CountDownLatch(1);
+        session.setCallMetricsListener(new CallMetricsListener() {
+            @Override
+            public void onCallCompleted(CallMetrics metrics) {
+                completed.countDown();
+            }
+        });
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testComposition() throws Exception {
+        server.enqueue(createResponse("first"));
+        server.enqueue(createResponse("second"));
+
+        String result = session.enqueue(new InstanceId.Request("stub"))
+                .thenApply(new ApiFuture.Function<InstanceId, String>() {
+                    @Override
+                    public String apply(InstanceId value) {
+                        return value.instanceId;
+                    }
+                })
+                .thenCompose(new ApiFuture.AsyncFunction<String, InstanceId>() {
+                    @Override
+                    public ApiFuture<InstanceId> apply(String value) {
+                        Assert.assertEquals(value, "first");
+                        return session.enqueue(new InstanceId.Request(value));
+                    }
+                })
+                .thenApply(new ApiFuture.Function<InstanceId, String>() {
+                    @Override
+                    public String apply(InstanceId value) {
+                        return value.instanceId;
+                    }
+                })
+                .get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(result, "second");
+        Assert.assertEquals(server.getRequestCount(), 2);
+    }
+
+    @Test
+    public void testAll() throws Exception {
+        List<ApiFuture<InstanceId>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            server.enqueue(createResponse("id"));
+            futures.add(session.enqueue(new InstanceId.Request("stub")));
+        }
+
+        List<InstanceId> results = ApiFuture.all(futures).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(results.size(), 3);
+        for (InstanceId result : results) {
+            Assert.assertEquals(result.instanceId, "id");
+        }
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(500).setBody("error"));
+        ApiFuture<String> future = session.enqueue(new InstanceId.Request("stub"))
+                .thenApply(new ApiFuture.Function<InstanceId, String>() {
+                    @Override
+                    public String apply(InstanceId value) {
+                        Assert.fail("should not be called");
+                        return null;
+                    }
+                });
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("exception expected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testTimeoutCancelsCall() throws Exception {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+        ApiFuture<InstanceId> source = session.enqueue(new InstanceId.Request("stub"));
+        ApiFuture<InstanceId> future = source.withTimeout(200, TimeUnit.MILLISECONDS);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("exception expected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        Assert.assertTrue(source.isCancelled());
+        awaitCallCompleted();
+    }
+
+    @Test
+    public void testCancellationPropagates() throws Exception {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+        ApiFuture<InstanceId> source = session.enqueue(new InstanceId.Request("stub"));
+        ApiFuture<String> future = source.thenApply(new ApiFuture.Function<InstanceId, String>() {
+            @Override
+            public String apply(InstanceId value) {
+                return value.instanceId;
+            }
+        });
+        server.takeRequest();
+
+        Assert.assertTrue(future.cancel(true));
+        Assert.assertTrue(source.isCancelled());
+        try {
+            future.get();
+            Assert.fail("exception expected");
+        } catch (CancellationException e) {
+            // expected
+        }
+        awaitCallCompleted();
+    }
+
+    private void awaitCallCompleted() throws InterruptedException {
+        Assert.assertTrue(completed.await(5, TimeUnit.SECONDS), "call was not canceled");
+    }
+
+    private static MockResponse createResponse(String instanceId) {
+        return new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                .setBody("{\"status\":\"success\",\"instance_id\":\"" + instanceId + "\"}");
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.yandex.money.api.exceptions.InsufficientScopeException;
+import com.yandex.money.api.exceptions.InvalidTokenException;
+import com.yandex.money.api.methods.AccountInfo;
+import com.yandex.money.api.methods.OperationDetails;
+import com.yandex.money.api.methods.OperationHistory;
+import com.yandex.money.api.methods.Token;
+import com.yandex.money.api.model.Scope;
+import com.yandex.money.api.net.AuthorizationCache;
+import com.yandex.money.api.net.CallMetrics;
+import com.yandex.money.api.net.CallMetricsListener;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.net.OnResponseReady;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+public class AuthorizationCacheTest {
+
+    private static final String DEAD_TOKEN = "dead";
+
+    private MockWebServer server;
+    private OAuth2Session session;
+    private AuthorizationCache cache;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getHeader(HttpHeaders.AUTHORIZATION).endsWith(DEAD_TOKEN)) {
+                    return new MockResponse()
+                            .setResponseCode(401)
+                            .addHeader(HttpHeaders.WWW_AUTHENTICATE,
+                                    "Bearer error=\"invalid_token\"");
+                }
+                if (request.getPath().endsWith("/operation-details")) {
+                    return new MockResponse()
+                            .setResponseCode(403)
+                            .addHeader(HttpHeaders.WWW_AUTHENTICATE,
+                                    "Bearer error=\"insufficient_scope\"");
+                }
+                String body;
+                if (request.getPath().endsWith("/account-info")) {
+                    body = "{\"account\":\"1\",\"balance\":1,\"currency\":\"643\"," +
+                            "\"account_status\":\"named\",\"account_type\":\"personal\"," +
+                            "\"balance_details\":{\"total\":1,\"available\":1}}";
+                } else {
+                    body = "{}";
+                }
+                return new MockResponse()
+                        .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                        .setBody(body);
+            }
+        });
+        server.start();
+        session = new OAuth2Session(new DefaultApiClient("stub") {
+            @Override
+            public HostsProvider getHostsProvider() {
+                return new HostsProvider(false) {
+                    @Override
+                    public String getMoney() {
+                        return server.getUrl("").toString();
+                    }
+                };
+            }
+        });
+        cache = new AuthorizationCache.Builder().create();
+        session.setAuthorizationCache(cache);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testInvalidToken() throws Exception {
+        session.setAccessToken(DEAD_TOKEN);
+        for (int i = 0; i < 3; ++i) {
+            try {
+                session.execute(new AccountInfo.Request());
+                Assert.fail("request is not rejected");
+            } catch (InvalidTokenException e) {
+                Assert.assertEquals(e.getMessage(), "Bearer error=\"invalid_token\"");
+            }
+        }
+        try {
+            session.enqueue(new AccountInfo.Request()).get();
+            Assert.fail("request is not rejected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof InvalidTokenException);
+        }
+        Assert.assertEquals(server.getRequestCount(), 1);
+        Assert.assertEquals(cache.getRejectedCount(), 3);
+        Assert.assertTrue(cache.isInvalid(DEAD_TOKEN));
+    }
+
+    @Test
+    public void testRevokedToken() throws Exception {
+        session.setAccessToken("revoked");
+        session.execute(new Token.Revoke());
+        try {
+            session.execute(new AccountInfo.Request());
+            Assert.fail("request is not rejected");
+        } catch (InvalidTokenException e) {
+            // expected
+        }
+        Assert.assertEquals(server.getRequestCount(), 1);
+    }
+
+    @Test
+    public void testScopes() throws Exception {
+        session.setAccessToken("token");
+        cache.putGrantedScopes("token", session.createOAuth2Authorization().getAuthorizeParams()
+                .addScope(Scope.ACCOUNT_INFO)
+                .addScope(Scope.OPERATION_DETAILS));
+
+        session.execute(new AccountInfo.Request());
+        try {
+            session.execute(new OperationHistory.Request.Builder().createRequest());
+            Assert.fail("request is not rejected");
+        } catch (InsufficientScopeException e) {
+            // expected
+        }
+        Assert.assertEquals(server.getRequestCount(), 1);
+
+        // granted scopes are corrected by the API
+        for (int i = 0; i < 2; ++i) {
+            try {
+                session.execute(new OperationDetails.Request("1"));
+                Assert.fail("request is not rejected");
+            } catch (InsufficientScopeException e) {
+                Assert.assertEquals(e.getMessage(), "Bearer error=\"insufficient_scope\"");
+            }
+        }
+        Assert.assertEquals(server.getRequestCount(), 2);
+        Assert.assertEquals(cache.getRejectedCount(), 2);
+
+        // other tokens are not affected
+        session.setAccessToken("other");
+        session.execute(new OperationHistory.Request.Builder().createRequest());
+    }
+
+    @Test
+    public void testAsyncRejection() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        final List<CallMetrics> metrics = new ArrayList<>();
+        final List<Exception> failures = new ArrayList<>();
+        session.setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        session.setCallMetricsListener(new CallMetricsListener() {
+            @Override
+            public void onCallCompleted(CallMetrics callMetrics) {
+                metrics.add(callMetrics);
+            }
+        });
+        session.setAccessToken(DEAD_TOKEN);
+        cache.invalidate(DEAD_TOKEN);
+
+        session.enqueue(new AccountInfo.Request(), new OnResponseReady<AccountInfo>() {
+            @Override
+            public void onFailure(Exception exception) {
+                failures.add(exception);
+            }
+
+            @Override
+            public void onResponse(AccountInfo response) {
+                Assert.fail("request is not rejected");
+            }
+        });
+        Assert.assertTrue(failures.isEmpty(), "callback is called before enqueue returned");
+        Assert.assertEquals(tasks.size(), 1);
+
+        tasks.get(0).run();
+        Assert.assertEquals(failures.size(), 1);
+        Assert.assertTrue(failures.get(0) instanceof InvalidTokenException);
+        Assert.assertEquals(metrics.size(), 1);
+        Assert.assertEquals(metrics.get(0).endpoint, "/api/account-info");
+        Assert.assertTrue(metrics.get(0).exception instanceof InvalidTokenException);
+        Assert.assertEquals(server.getRequestCount(), 0);
+        Assert.assertEquals(cache.getRejectedCount(), 1);
+    }
+}
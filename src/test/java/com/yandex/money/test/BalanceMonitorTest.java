@@ -0,0 +1,171 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.yandex.money.api.net.BalanceMonitor;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BalanceMonitorTest {
+
+    private static final String ACTIVE = "active";
+    private static final String IDLE = "idle";
+
+    private final ConcurrentMap<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private final BlockingQueue<BalanceMonitor.BalanceChange> changes =
+            new LinkedBlockingQueue<>();
+
+    private MockWebServer server;
+    private OAuth2Session session;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        requests.clear();
+        changes.clear();
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String wallet = request.getHeader(HttpHeaders.AUTHORIZATION).substring(7);
+                requests.putIfAbsent(wallet, new AtomicInteger());
+                int count = requests.get(wallet).incrementAndGet();
+                // balance of the active wallet grows with every request
+                int balance = ACTIVE.equals(wallet) ? count : 100;
+                return new MockResponse()
+                        .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                        .setBody("{\"account\":\"" + wallet + "\",\"balance\":" + balance +
+                                ",\"currency\":\"643\",\"account_status\":\"named\"," +
+                                "\"account_type\":\"personal\",\"balance_details\":{\"total\":" +
+                                balance + ",\"available\":" + balance + "}}");
+            }
+        });
+        server.start();
+        session = new OAuth2Session(new DefaultApiClient("stub") {
+            @Override
+            public HostsProvider getHostsProvider() {
+                return new HostsProvider(false) {
+                    @Override
+                    public String getMoney() {
+                        return server.getUrl("").toString();
+                    }
+                };
+            }
+        });
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testAdaptiveRefresh() throws Exception {
+        final AtomicInteger failures = new AtomicInteger();
+        BalanceMonitor monitor = new BalanceMonitor.Builder()
+                .setSession(session)
+                .setListener(new BalanceMonitor.Listener() {
+                    @Override
+                    public void onBalanceChanged(BalanceMonitor.BalanceChange change) {
+                        changes.add(change);
+                    }
+
+                    @Override
+                    public void onRefreshFailed(String wallet, Exception exception) {
+                        failures.incrementAndGet();
+                    }
+                })
+                .setMinInterval(50, TimeUnit.MILLISECONDS)
+                .setMaxInterval(800, TimeUnit.MILLISECONDS)
+                .setMaxRate(100)
+                .create();
+        monitor.add(ACTIVE, ACTIVE);
+        monitor.add(IDLE, IDLE);
+        monitor.start();
+        Thread.sleep(2000);
+        monitor.stop();
+
+        Assert.assertEquals(failures.get(), 0);
+        int active = requests.get(ACTIVE).get();
+        int idle = requests.get(IDLE).get();
+        Assert.assertTrue(active > idle * 2, "active: " + active + ", idle: " + idle);
+        Assert.assertEquals(monitor.getInterval(IDLE, TimeUnit.MILLISECONDS), 800);
+        Assert.assertEquals(monitor.getInterval(ACTIVE, TimeUnit.MILLISECONDS), 50);
+        Assert.assertEquals(monitor.getAccountInfo(IDLE).balance.intValue(), 100);
+
+        Assert.assertFalse(changes.isEmpty());
+        for (BalanceMonitor.BalanceChange change : changes) {
+            Assert.assertEquals(change.wallet, ACTIVE);
+            Assert.assertEquals(change.delta.compareTo(BigDecimal.ONE), 0);
+        }
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+        BalanceMonitor monitor = new BalanceMonitor.Builder()
+                .setSession(session)
+                .setListener(new BalanceMonitor.Listener() {
+                    @Override
+                    public void onBalanceChanged(BalanceMonitor.BalanceChange change) {
+                    }
+
+                    @Override
+                    public void onRefreshFailed(String wallet, Exception exception) {
+                    }
+                })
+                .setMinInterval(10, TimeUnit.MILLISECONDS)
+                .setMaxRate(10)
+                .create();
+        for (int i = 0; i < 50; ++i) {
+            monitor.add("wallet" + i, "wallet" + i);
+        }
+        monitor.start();
+        Thread.sleep(1000);
+        monitor.stop();
+
+        long count = monitor.getRefreshCount();
+        Assert.assertTrue(count > 0 && count <= 12, "refreshes: " + count);
+    }
+}
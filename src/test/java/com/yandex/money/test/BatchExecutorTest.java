@@ -0,0 +1,205 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.yandex.money.api.methods.OperationHistory;
+import com.yandex.money.api.net.ApiFuture;
+import com.yandex.money.api.net.BatchExecutor;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BatchExecutorTest {
+
+    private static final int PARALLELISM = 3;
+    private static final String FAILING_TOKEN = "failing";
+
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+    private MockWebServer server;
+    private OAuth2Session session;
+    private volatile long delayMillis;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        concurrent.set(0);
+        maxConcurrent.set(0);
+        delayMillis = 50;
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                int current = concurrent.incrementAndGet();
+                while (true) {
+                    int max = maxConcurrent.get();
+                    if (current <= max || maxConcurrent.compareAndSet(max, current)) {
+                        break;
+                    }
+                }
+                try {
+                    Thread.sleep(delayMillis);
+                } finally {
+                    concurrent.decrementAndGet();
+                }
+                String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+                if (authorization != null && authorization.endsWith(FAILING_TOKEN)) {
+                    return new MockResponse().setResponseCode(500);
+                }
+                return new MockResponse()
+                        .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                        .setBody("{\"operations\":[],\"next_record\":\"" + authorization + "\"}");
+            }
+        });
+        server.start();
+        session = new OAuth2Session(new DefaultApiClient("stub") {
+            @Override
+            public HostsProvider getHostsProvider() {
+                return new HostsProvider(false) {
+                    @Override
+                    public String getMoney() {
+                        return server.getUrl("").toString();
+                    }
+                };
+            }
+        });
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testOrderedResults() throws Exception {
+        final AtomicInteger progress = new AtomicInteger();
+        BatchExecutor executor = new BatchExecutor.Builder()
+                .setSession(session)
+                .setParallelism(PARALLELISM)
+                .setListener(new BatchExecutor.Listener() {
+                    @Override
+                    public void onProgress(BatchExecutor.Result<?> result, int completed,
+                                           int total) {
+                        Assert.assertEquals(total, 10);
+                        progress.incrementAndGet();
+                    }
+                })
+                .create();
+
+        List<BatchExecutor.Item<?>> items = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            items.add(createItem(i == 4 ? FAILING_TOKEN : "token" + i));
+        }
+        List<BatchExecutor.Result<?>> results = executor.execute(items)
+                .get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(results.size(), items.size());
+        Assert.assertEquals(progress.get(), items.size());
+        Assert.assertEquals(server.getRequestCount(), items.size());
+        Assert.assertTrue(maxConcurrent.get() <= PARALLELISM,
+                "parallelism exceeded: " + maxConcurrent.get());
+        for (int i = 0; i < results.size(); ++i) {
+            BatchExecutor.Result<?> result = results.get(i);
+            Assert.assertEquals(result.index, i);
+            Assert.assertSame(result.item, items.get(i));
+            if (i == 4) {
+                Assert.assertFalse(result.isSuccessful());
+                Assert.assertNotNull(result.error);
+            } else {
+                Assert.assertTrue(result.isSuccessful(), String.valueOf(result.error));
+                OperationHistory history = (OperationHistory) result.response;
+                Assert.assertEquals(history.nextRecord, "Bearer token" + i);
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyBatch() throws Exception {
+        BatchExecutor executor = new BatchExecutor.Builder()
+                .setSession(session)
+                .create();
+        Assert.assertTrue(executor.execute(new ArrayList<BatchExecutor.Item<?>>())
+                .get().isEmpty());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        delayMillis = 500;
+        final CountDownLatch started = new CountDownLatch(1);
+        BatchExecutor executor = new BatchExecutor.Builder()
+                .setSession(session)
+                .setParallelism(1)
+                .setListener(new BatchExecutor.Listener() {
+                    @Override
+                    public void onProgress(BatchExecutor.Result<?> result, int completed,
+                                           int total) {
+                        started.countDown();
+                    }
+                })
+                .create();
+
+        List<BatchExecutor.Item<?>> items = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            items.add(createItem("token" + i));
+        }
+        ApiFuture<List<BatchExecutor.Result<?>>> future = executor.execute(items);
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(future.cancel(true));
+        try {
+            future.get();
+            Assert.fail("batch is not canceled");
+        } catch (CancellationException e) {
+            // expected
+        }
+
+        Thread.sleep(delayMillis * 2);
+        Assert.assertTrue(server.getRequestCount() < items.size(),
+                "requests were not stopped: " + server.getRequestCount());
+    }
+
+    private static BatchExecutor.Item<OperationHistory> createItem(String accessToken) {
+        return new BatchExecutor.Item<>(new OperationHistory.Request.Builder().createRequest(),
+                accessToken);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.yandex.money.api.methods.InstanceId;
+import com.yandex.money.api.methods.OperationHistory;
+import com.yandex.money.api.methods.RequestPayment;
+import com.yandex.money.api.methods.params.P2pTransferParams;
+import com.yandex.money.api.net.AdaptiveConcurrencyLimiter;
+import com.yandex.money.api.net.ApiClient;
+import com.yandex.money.api.net.Bulkhead;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.net.OnResponseReady;
+import com.yandex.money.api.net.TrafficClass;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+public class BulkheadTest {
+
+    private static final Logger LOG = Logger.getLogger(BulkheadTest.class.getName());
+    private static final long HISTORY_DELAY_MILLIS = 500;
+    private static final int HISTORY_PAGES = 10;
+
+    private MockWebServer server;
+    private ApiClient client;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                if (request.getPath().endsWith("/operation-history")) {
+                    Thread.sleep(HISTORY_DELAY_MILLIS);
+                    return createResponse("{\"operations\":[]}");
+                }
+                return createResponse("{\"status\":\"refused\",\"error\":\"payee_not_found\"}");
+            }
+        });
+        server.start();
+        client = new DefaultApiClient("stub") {
+            @Override
+            public HostsProvider getHostsProvider() {
+                return new HostsProvider(false) {
+                    @Override
+                    public String getMoney() {
+                        return server.getUrl("").toString();
+                    }
+                };
+            }
+        };
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testClassification() {
+        Assert.assertEquals(Bulkhead.classify(createPaymentRequest()), TrafficClass.CRITICAL);
+        Assert.assertEquals(Bulkhead.classify(new OperationHistory.Request.Builder()
+                .createRequest()), TrafficClass.BULK);
+        Assert.assertEquals(Bulkhead.classify(new InstanceId.Request("stub")),
+                TrafficClass.DEFAULT);
+    }
+
+    @Test
+    public void testPaymentDoesNotWaitForHistory() throws Exception {
+        AdaptiveConcurrencyLimiter bulkLimiter = new AdaptiveConcurrencyLimiter.Builder()
+                .setInitialLimit(2)
+                .setMaxLimit(2)
+                .create();
+        Bulkhead bulkhead = new Bulkhead.Builder(client)
+                .isolate(TrafficClass.CRITICAL, 2, null)
+                .isolate(TrafficClass.BULK, 2, bulkLimiter)
+                .create();
+        OAuth2Session session = new OAuth2Session(client);
+        session.setBulkhead(bulkhead);
+
+        long shared = measurePayment(new OAuth2Session(client));
+        long isolated = measurePayment(session);
+        LOG.info("payment behind " + HISTORY_PAGES + " history pages: shared " + shared +
+                " ms, isolated " + isolated + " ms");
+        Assert.assertTrue(isolated < HISTORY_DELAY_MILLIS, "payment waited " + isolated + " ms");
+    }
+
+    private long measurePayment(OAuth2Session session) throws Exception {
+        final CountDownLatch history = new CountDownLatch(HISTORY_PAGES);
+        for (int i = 0; i < HISTORY_PAGES; ++i) {
+            session.enqueue(new OperationHistory.Request.Builder().createRequest(),
+                    new Callback<OperationHistory>(history));
+        }
+        Thread.sleep(50);
+
+        CountDownLatch payment = new CountDownLatch(1);
+        long started = System.nanoTime();
+        session.enqueue(createPaymentRequest(), new Callback<RequestPayment>(payment));
+        Assert.assertTrue(payment.await(10, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        Assert.assertTrue(history.await(30, TimeUnit.SECONDS));
+        return elapsed;
+    }
+
+    private static RequestPayment.Request createPaymentRequest() {
+        return RequestPayment.Request.newInstance(new P2pTransferParams.Builder("410011161616877")
+                .setAmount(BigDecimal.ONE)
+                .build());
+    }
+
+    private static MockResponse createResponse(String body) {
+        return new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                .setBody(body);
+    }
+
+    private static final class Callback<T> implements OnResponseReady<T> {
+
+        private final CountDownLatch latch;
+
+        Callback(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void onFailure(Exception exception) {
+            Assert.fail("unexpected failure", exception);
+        }
+
+        @Override
+        public void onResponse(T response) {
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.yandex.money.api.methods.InstanceId;
+import com.yandex.money.api.net.ApiClient;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.net.OnResponseReady;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+public class CallbackExecutorTest {
+
+    private static final String THREAD_NAME = "callback";
+
+    private MockWebServer server;
+    private ApiClient client;
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = new DefaultApiClient("stub") {
+            @Override
+            public HostsProvider getHostsProvider() {
+                return new HostsProvider(false) {
+                    @Override
+                    public String getMoney() {
+                        return server.getUrl("").toString();
+                    }
+                };
+            }
+        };
+        // one network thread: a blocked callback would stall every other call
+        client.getHttpClient().getDispatcher().setMaxRequests(1);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, THREAD_NAME);
+            }
+        });
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    public void testDispatcherIsReleased() throws Exception {
+        server.enqueue(createResponse());
+        server.enqueue(createResponse());
+
+        OAuth2Session session = new OAuth2Session(client);
+        session.setCallbackExecutor(executor);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch slowCompleted = new CountDownLatch(1);
+        final CountDownLatch fastCompleted = new CountDownLatch(1);
+        final String[] threads = new String[2];
+
+        session.enqueue(new InstanceId.Request("stub"), new Callback() {
+            @Override
+            public void onResponse(InstanceId response) {
+                threads[0] = Thread.currentThread().getName();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                slowCompleted.countDown();
+            }
+        });
+        session.enqueue(new InstanceId.Request("stub"), new Callback() {
+            @Override
+            public void onResponse(InstanceId response) {
+                threads[1] = Thread.currentThread().getName();
+                fastCompleted.countDown();
+            }
+        });
+
+        Assert.assertTrue(fastCompleted.await(5, TimeUnit.SECONDS),
+                "second call is blocked by the first callback");
+        Assert.assertEquals(slowCompleted.getCount(), 1);
+        release.countDown();
+        Assert.assertTrue(slowCompleted.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(threads[0], THREAD_NAME);
+        Assert.assertEquals(threads[1], THREAD_NAME);
+    }
+
+    @Test
+    public void testRejectedExecution() throws Exception {
+        server.enqueue(createResponse());
+        executor.shutdown();
+
+        OAuth2Session session = new OAuth2Session(client);
+        session.setCallbackExecutor(executor);
+
+        final CountDownLatch failed = new CountDownLatch(1);
+        session.enqueue(new InstanceId.Request("stub"), new OnResponseReady<InstanceId>() {
+            @Override
+            public void onFailure(Exception exception) {
+                failed.countDown();
+            }
+
+            @Override
+            public void onResponse(InstanceId response) {
+                Assert.fail("should not be called");
+            }
+        });
+        Assert.assertTrue(failed.await(5, TimeUnit.SECONDS));
+    }
+
+    private static MockResponse createResponse() {
+        return new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                .setBody("{\"status\":\"success\",\"instance_id\":\"abc\"}");
+    }
+
+    private abstract static class Callback implements OnResponseReady<InstanceId> {
+        @Override
+        public void onFailure(Exception exception) {
+            Assert.fail("unexpected failure", exception);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.yandex.money.api.methods.InstanceId;
+import com.yandex.money.api.net.ConnectionEventListener;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ConnectionEventsTest {
+
+    private static final String BODY = "{\"status\":\"success\",\"instance_id\":\"abc\"}";
+
+    private final MockWebServer server = new MockWebServer();
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        server.start();
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        DefaultApiClient client = new DefaultApiClient("stub") {
+            @Override
+            public HostsProvider getHostsProvider() {
+                return new HostsProvider(false) {
+                    @Override
+                    public String getMoney() {
+                        return server.getUrl("").toString();
+                    }
+                };
+            }
+        };
+        RecordingListener listener = new RecordingListener();
+        client.setConnectionEventListener(listener);
+        OAuth2Session session = new OAuth2Session(client);
+
+        server.enqueue(createResponse());
+        server.enqueue(createResponse());
+        session.execute(new InstanceId.Request("stub"));
+        session.execute(new InstanceId.Request("stub"));
+
+        Assert.assertEquals(listener.events, createExpectedEvents());
+        Assert.assertEquals(listener.reused, Collections.singletonList(Boolean.TRUE));
+        Assert.assertEquals(listener.bodyBytes, BODY.length());
+
+        client.setConnectionEventListener(null);
+        server.enqueue(createResponse());
+        session.execute(new InstanceId.Request("stub"));
+        Assert.assertEquals(listener.events, createExpectedEvents());
+    }
+
+    private static List<String> createExpectedEvents() {
+        List<String> events = new ArrayList<>();
+        events.add("dns");
+        events.add("connected");
+        for (int i = 0; i < 2; ++i) {
+            events.add("acquired");
+            events.add("written");
+            events.add("firstByte");
+            events.add("bodyRead");
+        }
+        return events;
+    }
+
+    private static MockResponse createResponse() {
+        return new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                .setBody(BODY);
+    }
+
+    private static final class RecordingListener implements ConnectionEventListener {
+
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final List<Boolean> reused = new ArrayList<>();
+
+        long bodyBytes;
+
+        @Override
+        public void onDnsResolved(String host, List<InetAddress> addresses, long duration) {
+            Assert.assertFalse(addresses.isEmpty());
+            events.add("dns");
+        }
+
+        @Override
+        public void onConnected(InetSocketAddress address, long duration) {
+            Assert.assertTrue(duration > 0);
+            events.add("connected");
+        }
+
+        @Override
+        public void onHandshakeCompleted(String host, SSLSession session, long duration) {
+            events.add("handshake");
+        }
+
+        @Override
+        public void onConnectionAcquired(Request request, Connection connection, boolean reused) {
+            if (!events.isEmpty() && !"connected".equals(events.get(events.size() - 1))) {
+                this.reused.add(reused);
+            }
+            events.add("acquired");
+        }
+
+        @Override
+        public void onRequestWritten(Request request, long duration) {
+            Assert.assertTrue(duration >= 0);
+            events.add("written");
+        }
+
+        @Override
+        public void onFirstByteReceived(Request request, long duration) {
+            Assert.assertTrue(duration >= 0);
+            events.add("firstByte");
+        }
+
+        @Override
+        public void onResponseBodyRead(Request request, long bytes, long duration) {
+            bodyBytes = bytes;
+            events.add("bodyRead");
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.yandex.money.api.methods.InstanceId;
+import com.yandex.money.api.net.ConnectionWarmer;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+public class ConnectionWarmerTest {
+
+    private final MockWebServer money = new MockWebServer();
+    private final MockWebServer spMoney = new MockWebServer();
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        money.start();
+        spMoney.start();
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        money.shutdown();
+        spMoney.shutdown();
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        DefaultApiClient client = new DefaultApiClient("stub");
+        client.setHostsProvider(new HostsProvider(false) {
+            @Override
+            public String getMoney() {
+                return money.getUrl("").toString();
+            }
+
+            @Override
+            public String getSpMoney() {
+                return spMoney.getUrl("").toString();
+            }
+        });
+
+        for (int i = 0; i < 2; ++i) {
+            money.enqueue(new MockResponse());
+            spMoney.enqueue(new MockResponse());
+        }
+
+        ConnectionWarmer warmer = new ConnectionWarmer.Builder()
+                .setClient(client)
+                .setConnectionsPerHost(2)
+                .setPingInterval(0)
+                .create();
+        try {
+            warmer.start();
+            Assert.assertTrue(warmer.awaitReady(10, TimeUnit.SECONDS));
+
+            ConnectionWarmer.Report report = warmer.getReport();
+            Assert.assertEquals(report.hosts.size(), 2);
+            for (ConnectionWarmer.HostStatus status : report.hosts) {
+                Assert.assertEquals(status.connections, 2, status.toString());
+                Assert.assertFalse(status.addresses.isEmpty());
+                Assert.assertNull(status.error);
+            }
+            Assert.assertEquals(money.getRequestCount(), 2);
+            Assert.assertEquals(spMoney.getRequestCount(), 2);
+            Assert.assertEquals(money.takeRequest().getMethod(), "HEAD");
+            money.takeRequest();
+
+            money.enqueue(new MockResponse()
+                    .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                    .setBody("{\"status\":\"success\",\"instance_id\":\"abc\"}"));
+            new OAuth2Session(client).execute(new InstanceId.Request("stub"));
+            RecordedRequest request = money.takeRequest();
+            Assert.assertEquals(request.getSequenceNumber(), 1, "connection is not reused");
+        } finally {
+            warmer.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.SocketPolicy;
+import com.yandex.money.api.exceptions.DeadlineExceededException;
+import com.yandex.money.api.methods.InstanceId;
+import com.yandex.money.api.net.Deadline;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.net.OnResponseReady;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class DeadlineTest {
+
+    private MockWebServer server;
+    private OAuth2Session session;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        session = new OAuth2Session(new DefaultApiClient("stub") {
+            @Override
+            public HostsProvider getHostsProvider() {
+                return new HostsProvider(false) {
+                    @Override
+                    public String getMoney() {
+                        return server.getUrl("").toString();
+                    }
+                };
+            }
+        });
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testExecute() throws Exception {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+
+        long started = System.nanoTime();
+        try {
+            session.execute(new InstanceId.Request("stub"),
+                    Deadline.after(300, TimeUnit.MILLISECONDS));
+            Assert.fail("deadline should be exceeded");
+        } catch (DeadlineExceededException e) {
+            // expected
+        }
+        Assert.assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    public void testEnqueue() throws Exception {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+
+        final BlockingQueue<Exception> failures = new LinkedBlockingQueue<>();
+        session.enqueue(new InstanceId.Request("stub"), new OnResponseReady<InstanceId>() {
+            @Override
+            public void onFailure(Exception exception) {
+                failures.add(exception);
+            }
+
+            @Override
+            public void onResponse(InstanceId response) {
+                Assert.fail("should not be called");
+            }
+        }, Deadline.after(300, TimeUnit.MILLISECONDS));
+
+        Exception failure = failures.poll(2, TimeUnit.SECONDS);
+        Assert.assertTrue(failure instanceof DeadlineExceededException, "failure: " + failure);
+    }
+
+    @Test(expectedExceptions = DeadlineExceededException.class)
+    public void testExpired() throws Exception {
+        Deadline deadline = Deadline.after(0, TimeUnit.MILLISECONDS);
+        try {
+            session.execute(new InstanceId.Request("stub"), deadline);
+        } finally {
+            Assert.assertEquals(server.getRequestCount(), 0);
+        }
+    }
+
+    @Test
+    public void testDeadline() {
+        Deadline near = Deadline.after(1, TimeUnit.SECONDS);
+        Deadline far = Deadline.after(1, TimeUnit.HOURS);
+        Assert.assertSame(near.earliest(far), near);
+        Assert.assertSame(far.earliest(near), near);
+        Assert.assertSame(far.earliest(null), far);
+        Assert.assertFalse(far.isExpired());
+        Assert.assertTrue(far.timeRemaining(TimeUnit.MINUTES) > 58);
+        Assert.assertEquals(Deadline.after(-1, TimeUnit.SECONDS).timeRemaining(
+                TimeUnit.NANOSECONDS), 0);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.yandex.money.api.methods.InstanceId;
+import com.yandex.money.api.methods.OperationHistory;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.EndpointMetrics;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.LatencyHistogram;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+public class EndpointMetricsTest {
+
+    private static final String BODY = "{\"status\":\"success\",\"instance_id\":\"abc\"}";
+
+    private final MockWebServer server = new MockWebServer();
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        server.start();
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; ++i) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(snapshot.getCount(), 100);
+        Assert.assertEquals(snapshot.getMax(), TimeUnit.MILLISECONDS.toNanos(100));
+        assertClose(snapshot.getPercentile(50), TimeUnit.MILLISECONDS.toNanos(50));
+        assertClose(snapshot.getPercentile(99), TimeUnit.MILLISECONDS.toNanos(99));
+        Assert.assertEquals(new LatencyHistogram().snapshot().getPercentile(99), 0);
+    }
+
+    @Test
+    public void testSessionMetrics() throws Exception {
+        EndpointMetrics metrics = new EndpointMetrics();
+        OAuth2Session session = createSession();
+        session.setCallMetricsListener(metrics);
+
+        server.enqueue(createResponse());
+        server.enqueue(createResponse());
+        server.enqueue(new MockResponse()
+                .setResponseCode(HttpURLConnection.HTTP_INTERNAL_ERROR)
+                .setBody("error"));
+
+        session.execute(new InstanceId.Request("stub"));
+        session.execute(new InstanceId.Request("stub"));
+        try {
+            session.execute(new InstanceId.Request("stub"));
+            Assert.fail("exception expected");
+        } catch (IOException e) {
+            // expected
+        }
+
+        EndpointMetrics.Snapshot snapshot = metrics.snapshot("/api/instance-id");
+        Assert.assertNotNull(snapshot);
+        Assert.assertEquals(snapshot.calls, 3);
+        Assert.assertEquals(snapshot.errors, 1);
+        Assert.assertEquals(snapshot.bytesReceived, 2 * BODY.length() + "error".length());
+        Assert.assertTrue(snapshot.bytesSent > 0);
+        Assert.assertEquals(snapshot.latency.getCount(), 3);
+        Assert.assertTrue(snapshot.latency.getPercentile(50) > 0);
+    }
+
+    @Test
+    public void testCompressedResponse() throws Exception {
+        EndpointMetrics metrics = new EndpointMetrics();
+        OAuth2Session session = createSession();
+        session.setCallMetricsListener(metrics);
+
+        StringBuilder history = new StringBuilder("{\"operations\":[");
+        for (int i = 0; i < 100; ++i) {
+            history.append(i == 0 ? "" : ",")
+                    .append("{\"operation_id\":\"").append(i)
+                    .append("\",\"status\":\"success\",\"datetime\":\"2015-03-16T10:00:00Z\",")
+                    .append("\"title\":\"payment\",\"direction\":\"out\",\"amount\":10.00,")
+                    .append("\"type\":\"payment-shop\"}");
+        }
+        byte[] body = history.append("]}").toString().getBytes("UTF-8");
+        Buffer compressed = gzip(body);
+        long compressedSize = compressed.size();
+
+        server.enqueue(new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                .addHeader(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .setBody(compressed));
+        OperationHistory result = session.execute(
+                new OperationHistory.Request.Builder().createRequest());
+
+        Assert.assertEquals(result.operations.size(), 100);
+        RecordedRequest request = server.takeRequest();
+        while (!request.getPath().equals("/api/operation-history")) {
+            request = server.takeRequest();
+        }
+        Assert.assertEquals(request.getHeader(HttpHeaders.ACCEPT_ENCODING), "gzip");
+
+        EndpointMetrics.Snapshot snapshot = metrics.snapshot("/api/operation-history");
+        Assert.assertNotNull(snapshot);
+        Assert.assertEquals(snapshot.bytesReceived, body.length);
+        Assert.assertEquals(snapshot.compressedBytesReceived, compressedSize);
+        Assert.assertTrue(snapshot.compressedBytesReceived < snapshot.bytesReceived);
+    }
+
+    private OAuth2Session createSession() {
+        return new OAuth2Session(new DefaultApiClient("stub") {
+            @Override
+            public HostsProvider getHostsProvider() {
+                return new HostsProvider(false) {
+                    @Override
+                    public String getMoney() {
+                        return server.getUrl("").toString();
+                    }
+                };
+            }
+        });
+    }
+
+    private static Buffer gzip(byte[] data) throws IOException {
+        Buffer buffer = new Buffer();
+        BufferedSink sink = Okio.buffer(new GzipSink(buffer));
+        sink.write(data);
+        sink.close();
+        return buffer;
+    }
+
+    private static MockResponse createResponse() {
+        return new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                .setBody(BODY);
+    }
+
+    private static void assertClose(long actual, long expected) {
+        Assert.assertTrue(Math.abs(actual - expected) <= expected / 8,
+                "expected " + expected + " but was " + actual);
+    }
+}
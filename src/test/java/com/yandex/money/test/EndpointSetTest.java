@@ -0,0 +1,174 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.SocketPolicy;
+import com.yandex.money.api.methods.InstanceId;
+import com.yandex.money.api.methods.OperationHistory;
+import com.yandex.money.api.net.ApiFuture;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.EndpointSet;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+public class EndpointSetTest {
+
+    private MockWebServer first;
+    private MockWebServer second;
+    private String firstUrl;
+    private String secondUrl;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        first = new MockWebServer();
+        second = new MockWebServer();
+        first.start();
+        second.start();
+        firstUrl = first.getUrl("").toString();
+        secondUrl = second.getUrl("").toString();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        first.shutdown();
+        second.shutdown();
+    }
+
+    @Test
+    public void testSelection() {
+        EndpointSet endpoints = new EndpointSet.Builder()
+                .addEndpoint(firstUrl)
+                .addEndpoint(secondUrl)
+                .setFailureThreshold(2)
+                .create();
+
+        Assert.assertEquals(endpoints.select(), firstUrl);
+        endpoints.onSuccess(firstUrl, TimeUnit.MILLISECONDS.toNanos(100));
+        Assert.assertEquals(endpoints.select(), secondUrl);
+        endpoints.onSuccess(secondUrl, TimeUnit.MILLISECONDS.toNanos(10));
+        Assert.assertEquals(endpoints.select(), secondUrl);
+
+        endpoints.onFailure(secondUrl);
+        Assert.assertTrue(endpoints.isAvailable(secondUrl));
+        endpoints.onFailure(secondUrl);
+        Assert.assertFalse(endpoints.isAvailable(secondUrl));
+        Assert.assertEquals(endpoints.select(), firstUrl);
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        EndpointSet endpoints = new EndpointSet.Builder()
+                .addEndpoint(firstUrl)
+                .addEndpoint(secondUrl)
+                .setFailureThreshold(1)
+                .create();
+        OAuth2Session session = createSession(endpoints);
+
+        first.enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_UNAVAILABLE));
+        second.enqueue(createResponse());
+        OperationHistory history = session.execute(
+                new OperationHistory.Request.Builder().createRequest());
+        Assert.assertTrue(history.operations.isEmpty());
+        Assert.assertEquals(first.getRequestCount(), 1);
+        Assert.assertEquals(second.getRequestCount(), 1);
+
+        Assert.assertFalse(endpoints.isAvailable(firstUrl));
+        Assert.assertTrue(endpoints.getLatency(secondUrl) > 0);
+        Assert.assertEquals(endpoints.select(), secondUrl);
+    }
+
+    @Test
+    public void testNoFailoverForNonIdempotentRequest() throws Exception {
+        EndpointSet endpoints = new EndpointSet.Builder()
+                .addEndpoint(firstUrl)
+                .addEndpoint(secondUrl)
+                .create();
+        OAuth2Session session = createSession(endpoints);
+
+        first.enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_UNAVAILABLE));
+        try {
+            session.execute(new InstanceId.Request("stub"));
+            Assert.fail("exception expected");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertEquals(first.getRequestCount(), 1);
+        Assert.assertEquals(second.getRequestCount(), 0);
+    }
+
+    @Test
+    public void testNoFailoverForCanceledCall() throws Exception {
+        EndpointSet endpoints = new EndpointSet.Builder()
+                .addEndpoint(firstUrl)
+                .addEndpoint(secondUrl)
+                .setFailureThreshold(1)
+                .create();
+        OAuth2Session session = createSession(endpoints);
+
+        first.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+        second.enqueue(createResponse());
+        ApiFuture<OperationHistory> future = session.enqueue(
+                new OperationHistory.Request.Builder().createRequest());
+        Assert.assertNotNull(first.takeRequest(5, TimeUnit.SECONDS));
+        future.cancel(true);
+        try {
+            future.get();
+            Assert.fail("call should be canceled");
+        } catch (CancellationException e) {
+            // expected
+        }
+
+        // give the interceptor time to handle the failed call
+        Thread.sleep(200);
+        Assert.assertTrue(endpoints.isAvailable(firstUrl));
+        Assert.assertEquals(second.getRequestCount(), 0);
+    }
+
+    private static OAuth2Session createSession(EndpointSet endpoints) {
+        DefaultApiClient client = new DefaultApiClient("stub");
+        client.setHostsProvider(new HostsProvider(false, endpoints));
+        return new OAuth2Session(client);
+    }
+
+    private static MockResponse createResponse() {
+        return new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                .setBody("{}");
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.yandex.money.api.methods.InstanceId;
+import com.yandex.money.api.methods.OperationHistory;
+import com.yandex.money.api.net.CallMetrics;
+import com.yandex.money.api.net.CallMetricsListener;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.HedgingPolicy;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HedgingTest {
+
+    private static final long SLOW_MILLIS = 1500;
+    private static final long DELAY_MILLIS = 100;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final BlockingQueue<CallMetrics> metrics = new LinkedBlockingQueue<>();
+
+    private MockWebServer server;
+    private HostsProvider hostsProvider;
+    private OAuth2Session session;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        requests.set(0);
+        metrics.clear();
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                // only the first request is slow
+                if (requests.getAndIncrement() == 0) {
+                    Thread.sleep(SLOW_MILLIS);
+                }
+                return new MockResponse()
+                        .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                        .setBody(request.getPath().endsWith("/operation-history") ?
+                                "{\"operations\":[]}" :
+                                "{\"status\":\"success\",\"instance_id\":\"abc\"}");
+            }
+        });
+        server.start();
+        hostsProvider = new HostsProvider(false) {
+            @Override
+            public String getMoney() {
+                return server.getUrl("").toString();
+            }
+        };
+        session = new OAuth2Session(new DefaultApiClient("stub") {
+            @Override
+            public HostsProvider getHostsProvider() {
+                return hostsProvider;
+            }
+        });
+        session.setCallMetricsListener(new CallMetricsListener() {
+            @Override
+            public void onCallCompleted(CallMetrics callMetrics) {
+                metrics.add(callMetrics);
+            }
+        });
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testHedgeWins() throws Exception {
+        HedgingPolicy policy = createPolicy(1);
+        session.setHedgingPolicy(policy);
+
+        long started = System.nanoTime();
+        session.execute(new OperationHistory.Request.Builder().createRequest());
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        Assert.assertTrue(elapsed < SLOW_MILLIS, "hedge did not win: " + elapsed + " ms");
+        Assert.assertEquals(server.getRequestCount(), 2);
+        Assert.assertEquals(policy.getHedgeCount(), 1);
+
+        // the loser is canceled
+        CallMetrics first = metrics.poll(5, TimeUnit.SECONDS);
+        CallMetrics second = metrics.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(second);
+        Assert.assertTrue(first.isSuccessful() != second.isSuccessful());
+    }
+
+    @Test
+    public void testLoserRecorded() throws Exception {
+        HedgingPolicy policy = new HedgingPolicy.Builder()
+                .setMinDelay(1, TimeUnit.MILLISECONDS)
+                .setMaxDelay(DELAY_MILLIS, TimeUnit.MILLISECONDS)
+                .setMinSamples(1)
+                .setMaxHedgeRate(1)
+                .create();
+        session.setHedgingPolicy(policy);
+
+        OperationHistory.Request request = new OperationHistory.Request.Builder().createRequest();
+        session.execute(request);
+        Assert.assertEquals(policy.getHedgeCount(), 1);
+
+        Assert.assertNotNull(metrics.poll(5, TimeUnit.SECONDS));
+        Assert.assertNotNull(metrics.poll(5, TimeUnit.SECONDS));
+
+        // the canceled first attempt was outstanding longer than the delay, the delay must not
+        // drop to latency of the fast hedge
+        String endpoint = request.requestUrl(hostsProvider);
+        Assert.assertEquals(policy.getDelay(endpoint, TimeUnit.MILLISECONDS), DELAY_MILLIS);
+    }
+
+    @Test
+    public void testRateCap() throws Exception {
+        HedgingPolicy policy = createPolicy(0);
+        session.setHedgingPolicy(policy);
+
+        session.execute(new OperationHistory.Request.Builder().createRequest());
+        Assert.assertEquals(server.getRequestCount(), 1);
+        Assert.assertEquals(policy.getRequestCount(), 1);
+        Assert.assertEquals(policy.getHedgeCount(), 0);
+    }
+
+    @Test
+    public void testNotIdempotent() throws Exception {
+        HedgingPolicy policy = createPolicy(1);
+        session.setHedgingPolicy(policy);
+
+        session.execute(new InstanceId.Request("stub"));
+        Assert.assertEquals(server.getRequestCount(), 1);
+        Assert.assertEquals(policy.getRequestCount(), 0);
+    }
+
+    private static HedgingPolicy createPolicy(double maxHedgeRate) {
+        return new HedgingPolicy.Builder()
+                .setMaxDelay(DELAY_MILLIS, TimeUnit.MILLISECONDS)
+                .setMaxHedgeRate(maxHedgeRate)
+                .create();
+    }
+}
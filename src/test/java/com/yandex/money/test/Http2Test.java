@@ -0,0 +1,208 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.Protocol;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.yandex.money.api.methods.InstanceId;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+public class Http2Test {
+
+    private static final Logger LOG = Logger.getLogger(Http2Test.class.getName());
+    private static final String BODY = "{\"status\":\"success\",\"instance_id\":\"abc\"}";
+    private static final int REQUESTS = 200;
+    private static final int THREADS = 16;
+
+    private MockWebServer server;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.useHttps(TestSsl.serverSocketFactory(), false);
+        server.setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        server.start();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testProtocols() {
+        DefaultApiClient client = createClient();
+        client.setHttp2Enabled(true);
+        Assert.assertEquals(client.getHttpClient().getProtocols(),
+                Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        client.setHttp2Enabled(false);
+        Assert.assertEquals(client.getHttpClient().getProtocols(),
+                Arrays.asList(Protocol.HTTP_1_1));
+    }
+
+    @Test
+    public void testHttp2() throws Exception {
+        if (!isAlpnAvailable()) {
+            throw new SkipException("ALPN is not available on the platform");
+        }
+        Assert.assertEquals(execute(true), Protocol.HTTP_2);
+    }
+
+    @Test
+    public void testFallback() throws Exception {
+        if (isAlpnAvailable()) {
+            throw new SkipException("ALPN is available on the platform");
+        }
+        Assert.assertEquals(execute(true), Protocol.HTTP_1_1);
+    }
+
+    @Test
+    public void testHttp1() throws Exception {
+        Assert.assertEquals(execute(false), Protocol.HTTP_1_1);
+    }
+
+    /**
+     * Compares throughput and number of connections of HTTP/1.1 and HTTP/2 modes. Results are
+     * logged, HTTP/2 is used only if ALPN is available on the platform.
+     */
+    @Test
+    public void testBenchmark() throws Exception {
+        for (boolean http2 : new boolean[]{false, true}) {
+            DefaultApiClient client = createClient();
+            client.setHttp2Enabled(http2);
+            int before = server.getRequestCount();
+            for (int i = 0; i < REQUESTS; ++i) {
+                server.enqueue(createResponse());
+            }
+
+            long elapsed = run(new OAuth2Session(client));
+
+            int connections = 0;
+            for (int i = before; i < before + REQUESTS; ++i) {
+                if (server.takeRequest().getSequenceNumber() == 0) {
+                    connections++;
+                }
+            }
+            LOG.info((http2 ? "HTTP/2" : "HTTP/1.1") + ": " + REQUESTS + " requests in " +
+                    TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms, " +
+                    (REQUESTS * TimeUnit.SECONDS.toNanos(1) / elapsed) + " requests/s, " +
+                    connections + " connections");
+            Assert.assertTrue(connections > 0);
+        }
+    }
+
+    private static long run(final OAuth2Session session) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            long started = System.nanoTime();
+            List<Future<InstanceId>> futures = new ArrayList<>(REQUESTS);
+            for (int i = 0; i < REQUESTS; ++i) {
+                futures.add(executor.submit(new Callable<InstanceId>() {
+                    @Override
+                    public InstanceId call() throws Exception {
+                        return session.execute(new InstanceId.Request("stub"));
+                    }
+                }));
+            }
+            for (Future<InstanceId> future : futures) {
+                Assert.assertTrue(future.get().isSuccess());
+            }
+            return System.nanoTime() - started;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private Protocol execute(boolean http2) throws IOException {
+        DefaultApiClient client = createClient();
+        client.setHttp2Enabled(http2);
+
+        server.enqueue(createResponse());
+        Response response = client.getHttpClient().newCall(new Request.Builder()
+                .url(server.getUrl("/"))
+                .build()).execute();
+        response.body().close();
+        Assert.assertEquals(response.code(), 200);
+        return response.protocol();
+    }
+
+    /**
+     * OkHttp negotiates HTTP/2 on JDK using Jetty ALPN from the boot class path.
+     */
+    private static boolean isAlpnAvailable() {
+        try {
+            Class.forName("org.eclipse.jetty.alpn.ALPN", false, null);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private DefaultApiClient createClient() {
+        DefaultApiClient client = new DefaultApiClient("stub") {
+            @Override
+            public HostsProvider getHostsProvider() {
+                return new HostsProvider(false) {
+                    @Override
+                    public String getMoney() {
+                        return server.getUrl("").toString();
+                    }
+                };
+            }
+        };
+        TestSsl.trustAll(client.getHttpClient());
+        return client;
+    }
+
+    private static MockResponse createResponse() {
+        return new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                .setBody(BODY);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.yandex.money.api.exceptions.InvalidRequestException;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.processes.InstanceIdManager;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class InstanceIdManagerTest {
+
+    private static final int POOL_SIZE = 3;
+
+    private AtomicInteger requests;
+    private MockWebServer server;
+    private OAuth2Session session;
+    private volatile boolean refused;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        // managers of previous tests may still refill their pools
+        final AtomicInteger requests = new AtomicInteger();
+        final MockWebServer server = new MockWebServer();
+        this.requests = requests;
+        this.server = server;
+        refused = false;
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                int count = requests.incrementAndGet();
+                return new MockResponse()
+                        .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                        .setBody(refused ?
+                                "{\"status\":\"refused\",\"error\":\"illegal_param_client_id\"}" :
+                                "{\"status\":\"success\",\"instance_id\":\"id" + count + "\"}");
+            }
+        });
+        server.start();
+        session = new OAuth2Session(new DefaultApiClient("stub") {
+            @Override
+            public HostsProvider getHostsProvider() {
+                return new HostsProvider(false) {
+                    @Override
+                    public String getMoney() {
+                        return server.getUrl("").toString();
+                    }
+                };
+            }
+        });
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testPool() throws Exception {
+        MemoryStorage storage = new MemoryStorage();
+        InstanceIdManager manager = createManager(storage);
+        manager.start();
+        awaitSpare(manager, POOL_SIZE);
+        Assert.assertEquals(requests.get(), POOL_SIZE);
+
+        String first = manager.get("device1");
+        Assert.assertEquals(manager.get("device1"), first);
+        Assert.assertNotEquals(manager.get("device2"), first);
+        awaitSpare(manager, POOL_SIZE);
+        Assert.assertEquals(requests.get(), POOL_SIZE + 2);
+
+        manager.invalidate("device1");
+        Assert.assertNotEquals(manager.get("device1"), first);
+        awaitSpare(manager, POOL_SIZE);
+
+        // state is restored without requests, the pool is not refilled
+        int count = requests.get();
+        InstanceIdManager restored = createManager(storage, 0);
+        restored.start();
+        Assert.assertEquals(restored.get("device2"), manager.get("device2"));
+        Assert.assertEquals(restored.getSpareCount(), storage.snapshot.spare.size());
+        Assert.assertEquals(requests.get(), count);
+    }
+
+    @Test
+    public void testRefusedBackoff() throws Exception {
+        refused = true;
+        InstanceIdManager manager = createManager(null);
+        manager.start();
+        Thread.sleep(1000);
+
+        // 100, 200, 400 ms delays fit into a second
+        int count = requests.get();
+        Assert.assertTrue(count >= 2 && count <= 4, "requests: " + count);
+        try {
+            manager.get("device");
+            Assert.fail("backoff is ignored");
+        } catch (InvalidRequestException e) {
+            Assert.assertEquals(e.getMessage(), "illegal_param_client_id");
+        }
+        Assert.assertTrue(requests.get() <= count + 1);
+
+        refused = false;
+        Thread.sleep(1000);
+        Assert.assertNotNull(manager.get("device"));
+    }
+
+    private InstanceIdManager createManager(InstanceIdManager.Storage storage) {
+        return createManager(storage, POOL_SIZE);
+    }
+
+    private InstanceIdManager createManager(InstanceIdManager.Storage storage, int poolSize) {
+        return new InstanceIdManager.Builder()
+                .setSession(session)
+                .setClientId("client")
+                .setStorage(storage)
+                .setPoolSize(poolSize)
+                .setMinBackoff(100, TimeUnit.MILLISECONDS)
+                .setMaxBackoff(400, TimeUnit.MILLISECONDS)
+                .create();
+    }
+
+    private static void awaitSpare(InstanceIdManager manager, int count)
+            throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (manager.getSpareCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(manager.getSpareCount(), count);
+    }
+
+    private static final class MemoryStorage implements InstanceIdManager.Storage {
+
+        volatile InstanceIdManager.Snapshot snapshot;
+
+        @Override
+        public InstanceIdManager.Snapshot load() {
+            return snapshot;
+        }
+
+        @Override
+        public void save(InstanceIdManager.Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.yandex.money.api.methods.BaseProcessPayment;
+import com.yandex.money.api.methods.BaseRequestPayment;
+import com.yandex.money.api.methods.ProcessPayment;
+import com.yandex.money.api.methods.RequestPayment;
+import com.yandex.money.api.net.ApiRequest;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.processes.PaymentIdempotencyGuard;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PaymentIdempotencyGuardTest {
+
+    private static final String REQUEST_ID = "request-id";
+    private static final String SLOW_RECIPIENT = "slow";
+
+    private final AtomicInteger requestPayments = new AtomicInteger();
+    private final AtomicInteger processPayments = new AtomicInteger();
+    private final AtomicInteger slowRequestPayments = new AtomicInteger();
+
+    private MockWebServer server;
+    private OAuth2Session session;
+    private volatile String processStatus;
+    private volatile String requestStatus;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        requestPayments.set(0);
+        slowRequestPayments.set(0);
+        processPayments.set(0);
+        processStatus = "success";
+        requestStatus = "success";
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                String body;
+                if (request.getPath().endsWith("/request-payment")) {
+                    requestPayments.incrementAndGet();
+                    if (request.getBody().readUtf8().contains(SLOW_RECIPIENT)) {
+                        slowRequestPayments.incrementAndGet();
+                        Thread.sleep(300);
+                    }
+                    body = "{\"status\":\"" + requestStatus + "\",\"request_id\":\"" +
+                            REQUEST_ID + "\",\"contract_amount\":100}";
+                } else {
+                    processPayments.incrementAndGet();
+                    Thread.sleep(200);
+                    body = "{\"status\":\"" + processStatus + "\",\"payment_id\":\"1\"," +
+                            "\"next_retry\":1}";
+                }
+                return new MockResponse()
+                        .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                        .setBody(body);
+            }
+        });
+        server.start();
+        session = new OAuth2Session(new DefaultApiClient("stub") {
+            @Override
+            public HostsProvider getHostsProvider() {
+                return new HostsProvider(false) {
+                    @Override
+                    public String getMoney() {
+                        return server.getUrl("").toString();
+                    }
+                };
+            }
+        });
+        session.setAccessToken("token");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testConcurrentSubmissions() throws Exception {
+        final PaymentIdempotencyGuard<RequestPayment, ProcessPayment> guard =
+                new PaymentIdempotencyGuard<>(session, 1, TimeUnit.MINUTES);
+
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            List<Callable<ProcessPayment>> submissions = Collections.<Callable<ProcessPayment>>nCopies(5,
+                    new Callable<ProcessPayment>() {
+                        @Override
+                        public ProcessPayment call() throws Exception {
+                            RequestPayment requestPayment = guard.requestPayment("order",
+                                    RequestPayment.Request.newInstance("p2p",
+                                            Collections.singletonMap("to", "410011161616877")));
+                            return guard.processPayment("order",
+                                    new ProcessPayment.Request(requestPayment.requestId));
+                        }
+                    });
+            List<ProcessPayment> results = new ArrayList<>();
+            for (Future<ProcessPayment> future : executor.invokeAll(submissions)) {
+                results.add(future.get());
+            }
+            for (ProcessPayment result : results) {
+                Assert.assertSame(result, results.get(0));
+                Assert.assertEquals(result.status, BaseProcessPayment.Status.SUCCESS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(requestPayments.get(), 1);
+        Assert.assertEquals(processPayments.get(), 1);
+        Assert.assertEquals(guard.getRequestId("order"), REQUEST_ID);
+
+        // completed payment is not repeated
+        guard.processPayment("order", new ProcessPayment.Request(REQUEST_ID));
+        Assert.assertEquals(processPayments.get(), 1);
+
+        // other keys are independent
+        guard.processPayment("another", new ProcessPayment.Request(REQUEST_ID));
+        Assert.assertEquals(processPayments.get(), 2);
+    }
+
+    @Test
+    public void testNotFinalResults() throws Exception {
+        PaymentIdempotencyGuard<RequestPayment, ProcessPayment> guard =
+                new PaymentIdempotencyGuard<>(session, 1, TimeUnit.MINUTES);
+
+        requestStatus = "refused";
+        RequestPayment.Request request = RequestPayment.Request.newInstance("p2p",
+                Collections.singletonMap("to", "410011161616877"));
+        Assert.assertEquals(guard.requestPayment("order", request).status,
+                BaseRequestPayment.Status.REFUSED);
+        Assert.assertNull(guard.getRequestId("order"));
+        requestStatus = "success";
+        Assert.assertEquals(guard.requestPayment("order", request).requestId, REQUEST_ID);
+        Assert.assertEquals(requestPayments.get(), 2);
+
+        processStatus = "in_progress";
+        ProcessPayment.Request process = new ProcessPayment.Request(REQUEST_ID);
+        Assert.assertEquals(guard.processPayment("order", process).status,
+                BaseProcessPayment.Status.IN_PROGRESS);
+        processStatus = "success";
+        Assert.assertEquals(guard.processPayment("order", process).status,
+                BaseProcessPayment.Status.SUCCESS);
+        Assert.assertEquals(guard.processPayment("order", process).status,
+                BaseProcessPayment.Status.SUCCESS);
+        Assert.assertEquals(processPayments.get(), 2);
+    }
+
+    /**
+     * A sweep finds an expired entry, then the key is replaced with a new entry whose request
+     * payment is in flight. The sweep must not remove the new entry.
+     */
+    @Test
+    public void testSweepRacingSubmission() throws Exception {
+        final PaymentIdempotencyGuard<RequestPayment, ProcessPayment> guard =
+                new PaymentIdempotencyGuard<>(session, 1, TimeUnit.MILLISECONDS);
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+
+        // holds the entry of the key locked until released, then fails
+        Thread holder = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    guard.requestPayment("order", new BlockingRequest(createRequest(), entered,
+                            released));
+                } catch (Exception e) {
+                    // expected
+                }
+            }
+        };
+        holder.start();
+        Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        // sweeps sooner or later and waits for the entry of the key
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final RequestPayment.Request other = createRequest();
+        Thread sweeper = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (!stopped.get()) {
+                        guard.requestPayment("other", other);
+                    }
+                } catch (Exception e) {
+                    // ignored
+                }
+            }
+        };
+        sweeper.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!isSweeping(sweeper)) {
+            Assert.assertTrue(System.nanoTime() < deadline, "sweep is not blocked");
+            Thread.sleep(1);
+        }
+
+        // a new submission replaces the entry while the sweep holds the old one
+        guard.forget("order");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final RequestPayment.Request request = RequestPayment.Request.newInstance("p2p",
+                    Collections.singletonMap("to", SLOW_RECIPIENT));
+            Callable<RequestPayment> submission = new Callable<RequestPayment>() {
+                @Override
+                public RequestPayment call() throws Exception {
+                    return guard.requestPayment("order", request);
+                }
+            };
+            Future<RequestPayment> first = executor.submit(submission);
+            while (slowRequestPayments.get() < 1) {
+                Assert.assertTrue(System.nanoTime() < deadline, "request payment is not sent");
+                Thread.sleep(1);
+            }
+            released.countDown();
+            holder.join();
+            stopped.set(true);
+            sweeper.join();
+
+            // joins the request payment in flight
+            guard.requestPayment("order", request);
+            first.get();
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(slowRequestPayments.get(), 1);
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        PaymentIdempotencyGuard<RequestPayment, ProcessPayment> guard =
+                new PaymentIdempotencyGuard<>(session, 100, TimeUnit.MILLISECONDS);
+
+        ProcessPayment.Request process = new ProcessPayment.Request(REQUEST_ID);
+        guard.processPayment("order", process);
+        guard.processPayment("order", process);
+        Assert.assertEquals(processPayments.get(), 1);
+
+        Thread.sleep(150);
+        guard.processPayment("order", process);
+        Assert.assertEquals(processPayments.get(), 2);
+    }
+
+    private static boolean isSweeping(Thread thread) {
+        if (thread.getState() != Thread.State.BLOCKED) {
+            return false;
+        }
+        for (StackTraceElement element : thread.getStackTrace()) {
+            if (element.getMethodName().equals("sweep")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static RequestPayment.Request createRequest() {
+        return RequestPayment.Request.newInstance("p2p",
+                Collections.singletonMap("to", "410011161616877"));
+    }
+
+    /**
+     * Blocks while building HTTP request, then fails.
+     */
+    private static final class BlockingRequest implements ApiRequest<RequestPayment> {
+
+        private final ApiRequest<RequestPayment> request;
+        private final CountDownLatch entered;
+        private final CountDownLatch released;
+
+        BlockingRequest(ApiRequest<RequestPayment> request, CountDownLatch entered,
+                        CountDownLatch released) {
+            this.request = request;
+            this.entered = entered;
+            this.released = released;
+        }
+
+        @Override
+        public Method getMethod() {
+            return request.getMethod();
+        }
+
+        @Override
+        public String requestUrl(HostsProvider hostsProvider) {
+            entered.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IllegalStateException("released");
+        }
+
+        @Override
+        public Map<String, String> getHeaders() {
+            return request.getHeaders();
+        }
+
+        @Override
+        public Map<String, String> getParameters() {
+            return request.getParameters();
+        }
+
+        @Override
+        public RequestPayment parseResponse(InputStream inputStream) {
+            return request.parseResponse(inputStream);
+        }
+    }
+}
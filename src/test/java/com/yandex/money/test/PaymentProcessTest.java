@@ -26,11 +26,14 @@ package com.yandex.money.test;
 
 import com.squareup.okhttp.mockwebserver.MockResponse;
 import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.yandex.money.api.exceptions.DeadlineExceededException;
+import com.yandex.money.api.methods.BaseProcessPayment;
 import com.yandex.money.api.methods.ProcessExternalPayment;
 import com.yandex.money.api.methods.ProcessPayment;
 import com.yandex.money.api.methods.RequestExternalPayment;
 import com.yandex.money.api.methods.RequestPayment;
 import com.yandex.money.api.model.MoneySource;
+import com.yandex.money.api.net.Deadline;
 import com.yandex.money.api.net.DefaultApiClient;
 import com.yandex.money.api.net.HostsProvider;
 import com.yandex.money.api.net.OAuth2Session;
@@ -48,6 +51,7 @@ import org.testng.annotations.Test;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Slava Yasevich (vyasevich@yamoney.ru)
@@ -55,6 +59,8 @@ import java.util.Map;
 @Test(singleThreaded = true)
 public class PaymentProcessTest {
 
+    private static final String REQUEST_PAYMENT = "{\"status\":\"success\",\"wallet\":{\"allowed\":true},\"card\":{\"allowed\":\"true\",\"csc_required\":\"true\",\"id\":\"card-385244400\",\"pan_fragment\":\"5280****7918\",\"type\":\"MasterCard\"},\"cards\":{\"allowed\":true,\"csc_required\":true,\"items\":[{\"id\":\"card-385244400\",\"pan_fragment\":\"5280****7918\",\"type\":\"MasterCard\"},{\"id\":\"card-385244401\",\"pan_fragment\":\"4008****7919\",\"type\":\"Visa\"}]},\"request_id\":\"33373230335f343462363963333932636234633130613062623338323265393136323530336564636130623263375f33303030333539313637\",\"balance\":1000}";
+
     private final MockWebServer server = new MockWebServer();
     private final OAuth2Session session = new OAuth2Session(new DefaultApiClient("stub", false) {
         @Override
@@ -103,6 +109,32 @@ public class PaymentProcessTest {
         checkAsyncPaymentProcess(process);
     }
 
+    @Test
+    public void testDeadlineStopsRetries() throws Exception {
+        enqueueResponse(REQUEST_PAYMENT);
+        enqueueResponse("{\"status\":\"in_progress\",\"next_retry\":5000}");
+
+        PaymentProcess process = new PaymentProcess(session, parameterProvider);
+        process.setDeadline(Deadline.after(2, TimeUnit.SECONDS));
+        Assert.assertFalse(process.proceed());
+
+        long started = System.nanoTime();
+        try {
+            process.proceed();
+            Assert.fail("deadline should be exceeded");
+        } catch (DeadlineExceededException e) {
+            // expected
+        }
+        Assert.assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(1));
+        Assert.assertEquals(process.getProcessPayment().status,
+                BaseProcessPayment.Status.IN_PROGRESS);
+
+        // the process can be continued later
+        enqueueResponse("{\"status\":\"success\",\"payment_id\":\"2ABCDE123456789\"}");
+        process.setDeadline(null);
+        Assert.assertTrue(process.proceed());
+    }
+
     @Test
     public void testPaymentProcessStateRestore() {
         PaymentProcess paymentProcess = new PaymentProcess(session, parameterProvider);
@@ -146,7 +178,7 @@ public class PaymentProcessTest {
     }
 
     private void enqueuePaymentProcess() {
-        enqueueResponse("{\"status\":\"success\",\"wallet\":{\"allowed\":true},\"card\":{\"allowed\":\"true\",\"csc_required\":\"true\",\"id\":\"card-385244400\",\"pan_fragment\":\"5280****7918\",\"type\":\"MasterCard\"},\"cards\":{\"allowed\":true,\"csc_required\":true,\"items\":[{\"id\":\"card-385244400\",\"pan_fragment\":\"5280****7918\",\"type\":\"MasterCard\"},{\"id\":\"card-385244401\",\"pan_fragment\":\"4008****7919\",\"type\":\"Visa\"}]},\"request_id\":\"33373230335f343462363963333932636234633130613062623338323265393136323530336564636130623263375f33303030333539313637\",\"balance\":1000}");
+        enqueueResponse(REQUEST_PAYMENT);
         enqueueResponse("{\"status\":\"in_progress\",\"next_retry\":1}");
         enqueueResponse("{\"status\":\"success\",\"payment_id\":\"2ABCDE123456789\",\"invoice_id\":\"1234567890123456789\",\"balance\":1000}");
     }
@@ -0,0 +1,371 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.yandex.money.api.methods.params.P2pTransferParams;
+import com.yandex.money.api.model.Error;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.processes.PayoutPipeline;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+public class PayoutPipelineTest {
+
+    private static final Logger LOG = Logger.getLogger(PayoutPipelineTest.class.getName());
+
+    private MockWebServer server;
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testOrdering() throws Exception {
+        final Set<String> inFlight = Collections.newSetFromMap(
+                new ConcurrentHashMap<String, Boolean>());
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final Map<String, List<String>> paid = new HashMap<>();
+        OAuth2Session session = start(new PaymentDispatcher() {
+            @Override
+            MockResponse processPayment(String orderId) throws InterruptedException {
+                String recipient = getRecipient(orderId);
+                if (!inFlight.add(recipient)) {
+                    overlaps.incrementAndGet();
+                }
+                int current = inFlight.size();
+                int max = maxInFlight.get();
+                while (current > max && !maxInFlight.compareAndSet(max, current)) {
+                    max = maxInFlight.get();
+                }
+                Thread.sleep(20);
+                synchronized (paid) {
+                    List<String> orders = paid.get(recipient);
+                    if (orders == null) {
+                        orders = new ArrayList<>();
+                        paid.put(recipient, orders);
+                    }
+                    orders.add(orderId);
+                }
+                inFlight.remove(recipient);
+                return success();
+            }
+        });
+
+        PayoutPipeline pipeline = new PayoutPipeline.Builder()
+                .setSession(session)
+                .setPartitions(2)
+                .setConcurrency(2)
+                .create();
+        List<PayoutPipeline.Order> orders = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            for (int recipient = 0; recipient < 6; ++recipient) {
+                orders.add(createOrder(recipient, i));
+            }
+        }
+        pipeline.submitAll(orders);
+        Assert.assertTrue(pipeline.awaitCompletion(30, TimeUnit.SECONDS));
+        pipeline.shutdown();
+
+        Assert.assertEquals(overlaps.get(), 0);
+        Assert.assertTrue(maxInFlight.get() <= 4, "max in flight: " + maxInFlight.get());
+        Assert.assertEquals(paid.size(), 6);
+        for (List<String> ids : paid.values()) {
+            Assert.assertEquals(ids.size(), 5);
+            for (int i = 0; i < ids.size(); ++i) {
+                Assert.assertTrue(ids.get(i).endsWith("-" + i), ids.toString());
+            }
+        }
+        PayoutPipeline.Stats stats = pipeline.getStats();
+        Assert.assertEquals(stats.submitted, 30);
+        Assert.assertEquals(stats.succeeded, 30);
+        Assert.assertEquals(stats.pending, 0);
+        Assert.assertEquals(stats.latency.getCount(), 30);
+    }
+
+    @Test
+    public void testRetries() throws Exception {
+        final AtomicInteger technicalErrors = new AtomicInteger();
+        OAuth2Session session = start(new PaymentDispatcher() {
+            @Override
+            MockResponse processPayment(String orderId) {
+                switch (getRecipient(orderId)) {
+                    case "4100100":
+                        // refused once with a retryable error
+                        return technicalErrors.getAndIncrement() == 0 ?
+                                refused(Error.TECHNICAL_ERROR) : success();
+                    case "4100101":
+                        return refused(Error.NOT_ENOUGH_FUNDS);
+                    default:
+                        return refused(Error.TECHNICAL_ERROR);
+                }
+            }
+        });
+
+        final Map<String, PayoutPipeline.Result> results = new ConcurrentHashMap<>();
+        PayoutPipeline pipeline = new PayoutPipeline.Builder()
+                .setSession(session)
+                .setMaxAttempts(3)
+                .setMinBackoff(10, TimeUnit.MILLISECONDS)
+                .setListener(new PayoutPipeline.Listener() {
+                    @Override
+                    public void onCompleted(PayoutPipeline.Result result) {
+                        results.put(result.order.recipient, result);
+                    }
+                })
+                .create();
+        pipeline.submitAll(Arrays.asList(createOrder(0, 0),
+                createOrder(1, 0), createOrder(2, 0)));
+        Assert.assertTrue(pipeline.awaitCompletion(10, TimeUnit.SECONDS));
+        pipeline.shutdown();
+
+        PayoutPipeline.Result result = results.get("4100100");
+        Assert.assertTrue(result.isSuccessful());
+        Assert.assertEquals(result.attempts, 2);
+
+        result = results.get("4100101");
+        Assert.assertFalse(result.isSuccessful());
+        Assert.assertEquals(result.error, Error.NOT_ENOUGH_FUNDS);
+        Assert.assertEquals(result.attempts, 1);
+
+        result = results.get("4100102");
+        Assert.assertFalse(result.isSuccessful());
+        Assert.assertEquals(result.error, Error.TECHNICAL_ERROR);
+        Assert.assertEquals(result.attempts, 3);
+
+        PayoutPipeline.Stats stats = pipeline.getStats();
+        Assert.assertEquals(stats.succeeded, 1);
+        Assert.assertEquals(stats.failed, 2);
+        Assert.assertEquals(stats.retries, 3);
+    }
+
+    @Test
+    public void testBalanceControl() throws Exception {
+        final AtomicInteger balance = new AtomicInteger(10);
+        final AtomicInteger refused = new AtomicInteger();
+        final AtomicInteger processPayments = new AtomicInteger();
+        OAuth2Session session = start(new PaymentDispatcher() {
+            @Override
+            MockResponse processPayment(String orderId) {
+                processPayments.incrementAndGet();
+                synchronized (balance) {
+                    if (balance.get() < 3) {
+                        refused.incrementAndGet();
+                        return refused(Error.NOT_ENOUGH_FUNDS);
+                    }
+                    balance.addAndGet(-3);
+                }
+                return success();
+            }
+
+            @Override
+            MockResponse accountInfo() {
+                int current = balance.get();
+                return createResponse("{\"account\":\"1\",\"balance\":" + current +
+                        ",\"currency\":\"643\",\"account_status\":\"named\"," +
+                        "\"account_type\":\"personal\",\"balance_details\":{\"total\":" +
+                        current + ",\"available\":" + current + "}}");
+            }
+        });
+
+        PayoutPipeline pipeline = new PayoutPipeline.Builder()
+                .setSession(session)
+                .setBalanceControl(true)
+                .setReconcileInterval(100, TimeUnit.MILLISECONDS)
+                .create();
+        List<PayoutPipeline.Order> orders = new ArrayList<>();
+        for (int recipient = 0; recipient < 5; ++recipient) {
+            orders.add(createOrder(recipient, 0, new BigDecimal(3)));
+        }
+        pipeline.submitAll(orders);
+
+        // only 3 orders fit into the balance
+        Assert.assertFalse(pipeline.awaitCompletion(500, TimeUnit.MILLISECONDS));
+        PayoutPipeline.Stats stats = pipeline.getStats();
+        Assert.assertEquals(stats.succeeded, 3);
+        Assert.assertEquals(stats.queued, 2);
+        Assert.assertEquals(pipeline.getAvailableBalance().intValue(), 1);
+
+        // parked orders are paid out after reconciliation
+        balance.addAndGet(6);
+        Assert.assertTrue(pipeline.awaitCompletion(10, TimeUnit.SECONDS));
+        pipeline.shutdown();
+        Assert.assertEquals(pipeline.getStats().succeeded, 5);
+        Assert.assertEquals(processPayments.get(), 5);
+        Assert.assertEquals(refused.get(), 0);
+    }
+
+    /**
+     * Pays out orders to many recipients against a local stub of the API. Results are logged.
+     */
+    @Test
+    public void testBenchmark() throws Exception {
+        final int recipients = 200;
+        final int ordersPerRecipient = 5;
+        OAuth2Session session = start(new PaymentDispatcher() {
+            @Override
+            MockResponse processPayment(String orderId) throws InterruptedException {
+                Thread.sleep(5);
+                return success();
+            }
+        });
+
+        PayoutPipeline pipeline = new PayoutPipeline.Builder()
+                .setSession(session)
+                .create();
+        List<PayoutPipeline.Order> orders = new ArrayList<>();
+        for (int i = 0; i < ordersPerRecipient; ++i) {
+            for (int recipient = 0; recipient < recipients; ++recipient) {
+                orders.add(createOrder(recipient, i));
+            }
+        }
+        pipeline.submitAll(orders);
+        Assert.assertTrue(pipeline.awaitCompletion(2, TimeUnit.MINUTES));
+        pipeline.shutdown();
+
+        PayoutPipeline.Stats stats = pipeline.getStats();
+        LOG.info(stats.succeeded + " payouts in " + TimeUnit.NANOSECONDS.toMillis(stats.elapsed) +
+                " ms, " + (long) stats.getThroughput() + " payouts/s, latency " + stats.latency);
+        Assert.assertEquals(stats.succeeded, recipients * ordersPerRecipient);
+    }
+
+    private OAuth2Session start(Dispatcher dispatcher) throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(dispatcher);
+        server.start();
+        final String url = server.getUrl("").toString();
+        OAuth2Session session = new OAuth2Session(new DefaultApiClient("stub") {
+            @Override
+            public HostsProvider getHostsProvider() {
+                return new HostsProvider(false) {
+                    @Override
+                    public String getMoney() {
+                        return url;
+                    }
+                };
+            }
+        });
+        session.setAccessToken("token");
+        return session;
+    }
+
+    private static PayoutPipeline.Order createOrder(int recipient, int index) {
+        return createOrder(recipient, index, BigDecimal.ONE);
+    }
+
+    private static PayoutPipeline.Order createOrder(int recipient, int index, BigDecimal amount) {
+        String to = String.valueOf(4100100 + recipient);
+        return new PayoutPipeline.Order(to + "-" + index, new P2pTransferParams.Builder(to)
+                .setAmount(amount)
+                .setLabel(to + "-" + index)
+                .build());
+    }
+
+    private static String getRecipient(String orderId) {
+        return orderId.substring(0, orderId.indexOf('-'));
+    }
+
+    /**
+     * Uses label of a payment as request id, so process payments can be matched to orders.
+     */
+    private static abstract class PaymentDispatcher extends Dispatcher {
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            Map<String, String> params = parse(request.getBody().readUtf8());
+            if (request.getPath().endsWith("/account-info")) {
+                return accountInfo();
+            }
+            if (request.getPath().endsWith("/request-payment")) {
+                return createResponse("{\"status\":\"success\",\"request_id\":\"" +
+                        params.get("label") + "\",\"contract_amount\":" + params.get("amount") +
+                        "}");
+            }
+            return processPayment(params.get("request_id"));
+        }
+
+        abstract MockResponse processPayment(String orderId) throws InterruptedException;
+
+        MockResponse accountInfo() {
+            return new MockResponse().setResponseCode(404);
+        }
+
+        static MockResponse success() {
+            return createResponse("{\"status\":\"success\",\"payment_id\":\"1\"}");
+        }
+
+        static MockResponse refused(Error error) {
+            return createResponse("{\"status\":\"refused\",\"error\":\"" + error.code + "\"}");
+        }
+
+        static MockResponse createResponse(String body) {
+            return new MockResponse()
+                    .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                    .setBody(body);
+        }
+
+        private static Map<String, String> parse(String body) {
+            Map<String, String> params = new HashMap<>();
+            try {
+                for (String pair : body.split("&")) {
+                    int index = pair.indexOf('=');
+                    if (index > 0) {
+                        params.put(URLDecoder.decode(pair.substring(0, index), "UTF-8"),
+                                URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return params;
+        }
+    }
+}
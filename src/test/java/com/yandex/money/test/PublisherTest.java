@@ -0,0 +1,225 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.yandex.money.api.methods.InstanceId;
+import com.yandex.money.api.methods.OperationHistory;
+import com.yandex.money.api.model.Operation;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.reactive.ApiRequestPublisher;
+import com.yandex.money.api.reactive.OperationHistoryPublisher;
+import com.yandex.money.api.reactive.Subscriber;
+import com.yandex.money.api.reactive.Subscription;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class PublisherTest {
+
+    private static final int PAGE_SIZE = 3;
+
+    private MockWebServer server;
+    private OAuth2Session session;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        session = new OAuth2Session(new DefaultApiClient("stub") {
+            @Override
+            public HostsProvider getHostsProvider() {
+                return new HostsProvider(false) {
+                    @Override
+                    public String getMoney() {
+                        return server.getUrl("").toString();
+                    }
+                };
+            }
+        });
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testPagesOnDemand() throws Exception {
+        server.enqueue(createPage(0, "3"));
+        server.enqueue(createPage(3, "6"));
+        server.enqueue(createPage(6, null));
+
+        RecordingSubscriber<Operation> subscriber = new RecordingSubscriber<>();
+        new OperationHistoryPublisher(session, new OperationHistory.Request.Builder()
+                .setRecords(PAGE_SIZE)).subscribe(subscriber);
+        Assert.assertEquals(subscriber.next(), "subscribe");
+        Thread.sleep(100);
+        Assert.assertEquals(server.getRequestCount(), 0, "no demand, no requests");
+
+        subscriber.subscription.request(PAGE_SIZE);
+        for (int i = 0; i < PAGE_SIZE; ++i) {
+            Assert.assertEquals(subscriber.next(), "next " + i);
+        }
+        Thread.sleep(100);
+        Assert.assertEquals(server.getRequestCount(), 1, "page is consumed, no demand");
+        Assert.assertNull(getParameter(server.takeRequest(), "start_record"));
+
+        subscriber.subscription.request(1);
+        Assert.assertEquals(subscriber.next(), "next 3");
+        Assert.assertEquals(getParameter(server.takeRequest(), "start_record"), "3");
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        for (int i = 4; i < 3 * PAGE_SIZE; ++i) {
+            Assert.assertEquals(subscriber.next(), "next " + i);
+        }
+        Assert.assertEquals(subscriber.next(), "complete");
+        Assert.assertEquals(server.getRequestCount(), 3);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        server.enqueue(createPage(0, "3"));
+
+        RecordingSubscriber<Operation> subscriber = new RecordingSubscriber<>();
+        new OperationHistoryPublisher(session, new OperationHistory.Request.Builder())
+                .subscribe(subscriber);
+        subscriber.next();
+        subscriber.subscription.request(1);
+        Assert.assertEquals(subscriber.next(), "next 0");
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(10);
+
+        Assert.assertNull(subscriber.events.poll(200, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(server.getRequestCount(), 1);
+    }
+
+    @Test
+    public void testSingleValue() throws Exception {
+        server.enqueue(new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                .setBody("{\"status\":\"success\",\"instance_id\":\"abc\"}"));
+        server.enqueue(new MockResponse().setResponseCode(500));
+
+        RecordingSubscriber<InstanceId> subscriber = new RecordingSubscriber<>();
+        ApiRequestPublisher<InstanceId> publisher = new ApiRequestPublisher<>(session,
+                new InstanceId.Request("stub"));
+        publisher.subscribe(subscriber);
+        subscriber.next();
+        subscriber.subscription.request(1);
+        Assert.assertTrue(subscriber.next().startsWith("next InstanceId"));
+        Assert.assertEquals(subscriber.next(), "complete");
+
+        RecordingSubscriber<InstanceId> failing = new RecordingSubscriber<>();
+        publisher.subscribe(failing);
+        failing.next();
+        failing.subscription.request(1);
+        Assert.assertEquals(failing.next(), "error IOException");
+    }
+
+    @Test
+    public void testIllegalDemand() throws Exception {
+        RecordingSubscriber<Operation> subscriber = new RecordingSubscriber<>();
+        new OperationHistoryPublisher(session, new OperationHistory.Request.Builder())
+                .subscribe(subscriber);
+        subscriber.next();
+        subscriber.subscription.request(0);
+        Assert.assertEquals(subscriber.next(), "error IllegalArgumentException");
+    }
+
+    private static String getParameter(RecordedRequest request, String name) {
+        for (String pair : request.getBody().readUtf8().split("&")) {
+            if (pair.startsWith(name + "=")) {
+                return pair.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    private static MockResponse createPage(int first, String nextRecord) {
+        StringBuilder body = new StringBuilder("{");
+        if (nextRecord != null) {
+            body.append("\"next_record\":\"").append(nextRecord).append("\",");
+        }
+        body.append("\"operations\":[");
+        for (int i = first; i < first + PAGE_SIZE; ++i) {
+            body.append(i == first ? "" : ",")
+                    .append("{\"operation_id\":\"").append(i)
+                    .append("\",\"status\":\"success\",\"datetime\":\"2015-03-16T10:00:00Z\",")
+                    .append("\"title\":\"payment\",\"direction\":\"out\",\"amount\":10.00,")
+                    .append("\"type\":\"payment-shop\"}");
+        }
+        return new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                .setBody(body.append("]}").toString());
+    }
+
+    private static final class RecordingSubscriber<T> implements Subscriber<T> {
+
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        volatile Subscription subscription;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            events.add("subscribe");
+        }
+
+        @Override
+        public void onNext(T element) {
+            events.add("next " + (element instanceof Operation ?
+                    ((Operation) element).operationId : element));
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            events.add("error " + throwable.getClass().getSimpleName());
+        }
+
+        @Override
+        public void onComplete() {
+            events.add("complete");
+        }
+
+        String next() throws InterruptedException {
+            String event = events.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(event, "no event");
+            return event;
+        }
+    }
+}
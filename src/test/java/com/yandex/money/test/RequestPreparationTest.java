@@ -0,0 +1,153 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.CacheControl;
+import com.squareup.okhttp.Request;
+import com.yandex.money.api.methods.AccountInfo;
+import com.yandex.money.api.net.ApiClient;
+import com.yandex.money.api.net.ApiRequest;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.DefaultUserAgent;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.net.ParametersBuffer;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.Language;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Compares allocations of request preparation using prepared request prototype with building
+ * every request from scratch.
+ */
+public class RequestPreparationTest {
+
+    private static final Logger LOG = Logger.getLogger(RequestPreparationTest.class.getName());
+    private static final int WARM_UP = 20_000;
+    private static final int ITERATIONS = 100_000;
+
+    private final ApiClient client = new DefaultApiClient("stub");
+    private final PreparingSession session = new PreparingSession(client);
+    private final AccountInfo.Request request = new AccountInfo.Request();
+
+    @Test
+    public void testHeaders() {
+        Request prepared = session.prepare(request);
+        Request legacy = prepareFromScratch(client, request);
+        Assert.assertEquals(prepared.urlString(), legacy.urlString());
+        Assert.assertEquals(prepared.headers().toString(), legacy.headers().toString());
+    }
+
+    /**
+     * Logs bytes allocated per prepared request. Results depend on JVM and are not asserted.
+     */
+    @Test
+    public void testAllocations() throws Exception {
+        Method allocatedBytes = getAllocatedBytesMethod();
+        if (allocatedBytes == null) {
+            LOG.info("allocation measurement is not supported by JVM");
+            return;
+        }
+
+        Runnable prototype = new Runnable() {
+            @Override
+            public void run() {
+                session.prepare(request);
+            }
+        };
+        Runnable fromScratch = new Runnable() {
+            @Override
+            public void run() {
+                prepareFromScratch(client, request);
+            }
+        };
+
+        long prototypeBytes = measure(allocatedBytes, prototype);
+        long fromScratchBytes = measure(allocatedBytes, fromScratch);
+        LOG.info("request preparation: prototype " + prototypeBytes + " bytes/op, from scratch " +
+                fromScratchBytes + " bytes/op");
+    }
+
+    private static long measure(Method allocatedBytes, Runnable task) throws Exception {
+        for (int i = 0; i < WARM_UP; ++i) {
+            task.run();
+        }
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = (Long) allocatedBytes.invoke(bean, threadId);
+        for (int i = 0; i < ITERATIONS; ++i) {
+            task.run();
+        }
+        return ((Long) allocatedBytes.invoke(bean, threadId) - before) / ITERATIONS;
+    }
+
+    private static Method getAllocatedBytesMethod() {
+        try {
+            Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+            if (!type.isInstance(ManagementFactory.getThreadMXBean())) {
+                return null;
+            }
+            return type.getMethod("getThreadAllocatedBytes", long.class);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Builds a request the way it was done before request prototypes.
+     */
+    private static Request prepareFromScratch(ApiClient client, ApiRequest<?> request) {
+        Request.Builder builder = new Request.Builder()
+                .cacheControl(new CacheControl.Builder().noCache().build())
+                .tag(request)
+                .addHeader(HttpHeaders.USER_AGENT, new DefaultUserAgent("Java").getName())
+                .addHeader(HttpHeaders.ACCEPT_LANGUAGE, Language.getDefault().iso6391Code)
+                .addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        for (Map.Entry<String, String> entry : request.getHeaders().entrySet()) {
+            builder.addHeader(entry.getKey(), entry.getValue());
+        }
+        return builder.url(request.requestUrl(client.getHostsProvider()))
+                .post(new ParametersBuffer().setParams(request.getParameters()).prepareBody())
+                .build();
+    }
+
+    private static final class PreparingSession extends OAuth2Session {
+
+        PreparingSession(ApiClient client) {
+            super(client);
+        }
+
+        Request prepare(ApiRequest<?> request) {
+            return prepareRequestBuilder(request).build();
+        }
+    }
+}
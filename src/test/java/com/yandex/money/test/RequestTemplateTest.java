@@ -0,0 +1,181 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.Request;
+import com.yandex.money.api.methods.RequestPayment;
+import com.yandex.money.api.methods.params.P2pTransferParams;
+import com.yandex.money.api.net.ApiClient;
+import com.yandex.money.api.net.ApiRequest;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.net.ParametersBuffer;
+import com.yandex.money.api.net.ParametersTemplate;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import okio.Buffer;
+
+/**
+ * Checks that templates encode the same bodies as {@link ParametersBuffer} and compares their
+ * performance.
+ */
+public class RequestTemplateTest {
+
+    private static final Logger LOG = Logger.getLogger(RequestTemplateTest.class.getName());
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int WARM_UP = 20_000;
+    private static final int ITERATIONS = 200_000;
+
+    private final P2pTransferParams sample = new P2pTransferParams.Builder("410011161616877")
+            .setAmount(new BigDecimal("1.00"))
+            .setComment("Payout to a partner")
+            .setMessage("Thank you & good luck!")
+            .setCodepro(false)
+            .build();
+    private final RequestPayment.Template template = RequestPayment.Template.create(sample,
+            "to", "amount", "label");
+
+    @Test
+    public void testEncoding() {
+        String[][] values = {
+                { "410011161616877", "10.50", "order 1" },
+                { "+7 (999) 123-45-67", "0.01", "заказ №2 ☃ 😀" },
+                { "user@example.com", "100", "a=b&c=d%e+f*_.-~" },
+                { "broken\uD800surrogate", "1", "\uDC00" }
+        };
+        for (String[] value : values) {
+            Map<String, String> params = new HashMap<>(sample.makeParams());
+            params.put("pattern_id", sample.getPatternId());
+            params.put("to", value[0]);
+            params.put("amount", value[1]);
+            params.put("label", value[2]);
+
+            byte[] expected = new ParametersBuffer().setParams(params).prepareBytes();
+            Assert.assertEquals(split(template.newRequest(value).getBody()), split(expected));
+        }
+    }
+
+    @Test
+    public void testEmptySlots() {
+        ParametersTemplate parameters = new ParametersTemplate.Builder()
+                .addSlot("to")
+                .addSlot("amount")
+                .create();
+        Assert.assertEquals(new String(parameters.encode("a b", null), UTF8), "to=a+b");
+        Assert.assertEquals(new String(parameters.encode("", "1"), UTF8), "amount=1");
+        Assert.assertEquals(parameters.encode(null, "").length, 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testWrongNumberOfValues() {
+        template.newRequest("410011161616877");
+    }
+
+    @Test
+    public void testRequestBody() throws IOException {
+        ApiClient client = new DefaultApiClient("stub");
+        PreparingSession session = new PreparingSession(client);
+        RequestPayment.TemplateRequest request = template.newRequest("410011161616877", "1",
+                "label");
+
+        Request prepared = session.prepare(request);
+        Buffer body = new Buffer();
+        prepared.body().writeTo(body);
+        Assert.assertEquals(body.readByteArray(), request.getBody());
+        Assert.assertEquals(prepared.body().contentType().toString(),
+                "application/x-www-form-urlencoded");
+        Assert.assertEquals(prepared.urlString(), session.prepare(
+                RequestPayment.Request.newInstance(sample)).urlString());
+    }
+
+    @Test
+    public void testPerformance() {
+        final String[] values = { "410011161616877", "10.50", "order 1" };
+        Runnable templated = new Runnable() {
+            @Override
+            public void run() {
+                template.newRequest(values).getBody();
+            }
+        };
+        Runnable fromScratch = new Runnable() {
+            @Override
+            public void run() {
+                P2pTransferParams params = new P2pTransferParams.Builder(values[0])
+                        .setAmount(new BigDecimal(values[1]))
+                        .setLabel(values[2])
+                        .setComment("Payout to a partner")
+                        .setMessage("Thank you & good luck!")
+                        .setCodepro(false)
+                        .build();
+                new ParametersBuffer()
+                        .setParams(RequestPayment.Request.newInstance(params).getParameters())
+                        .prepareBytes();
+            }
+        };
+
+        long templatedNanos = measure(templated);
+        long fromScratchNanos = measure(fromScratch);
+        LOG.info("request-payment body: template " + templatedNanos + " ns/op, from scratch " +
+                fromScratchNanos + " ns/op");
+    }
+
+    private static long measure(Runnable task) {
+        for (int i = 0; i < WARM_UP; ++i) {
+            task.run();
+        }
+        long started = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            task.run();
+        }
+        return (System.nanoTime() - started) / ITERATIONS;
+    }
+
+    private static Set<String> split(byte[] body) {
+        return new HashSet<>(Arrays.asList(new String(body, UTF8).split("&")));
+    }
+
+    private static final class PreparingSession extends OAuth2Session {
+
+        PreparingSession(ApiClient client) {
+            super(client);
+        }
+
+        Request prepare(ApiRequest<?> request) {
+            return prepareRequestBuilder(request).build();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.yandex.money.api.methods.InstanceId;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+public class ResponseLoggingTest {
+
+    private static final String BODY = "{\"status\":\"success\",\"instance_id\":\"secret-id\"}";
+
+    private final MockWebServer server = new MockWebServer();
+    private final Logger logger =
+            Logger.getLogger("com.yandex.money.api.net.ResponseLoggingInputStream");
+    private final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+    private final Handler handler = new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+            messages.add(record.getMessage());
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        server.start();
+        logger.addHandler(handler);
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        logger.removeHandler(handler);
+        server.shutdown();
+    }
+
+    @Test
+    public void testLogging() throws Exception {
+        OAuth2Session session = new OAuth2Session(new DefaultApiClient("stub") {
+            @Override
+            public HostsProvider getHostsProvider() {
+                return new HostsProvider(false) {
+                    @Override
+                    public String getMoney() {
+                        return server.getUrl("").toString();
+                    }
+                };
+            }
+        });
+        session.setDebugLogging(true);
+
+        server.enqueue(createResponse());
+        session.execute(new InstanceId.Request("stub"));
+        String message = messages.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(message);
+        Assert.assertTrue(message.contains("\"status\":\"success\""), message);
+        Assert.assertTrue(message.contains("\"instance_id\":\"***\""), message);
+        Assert.assertFalse(message.contains("secret-id"), message);
+
+        session.setDebugLoggingLimit(20);
+        server.enqueue(createResponse());
+        session.execute(new InstanceId.Request("stub"));
+        message = messages.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(message);
+        Assert.assertTrue(message.contains("first 20 shown"), message);
+        Assert.assertTrue(message.endsWith(BODY.substring(0, 20)), message);
+    }
+
+    private static MockResponse createResponse() {
+        return new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                .setBody(BODY);
+    }
+}
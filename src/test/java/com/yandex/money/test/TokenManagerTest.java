@@ -0,0 +1,190 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.yandex.money.api.exceptions.InvalidTokenException;
+import com.yandex.money.api.methods.AccountInfo;
+import com.yandex.money.api.model.Scope;
+import com.yandex.money.api.net.ApiFuture;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.net.TokenManager;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TokenManagerTest {
+
+    private static final String WALLET = "wallet";
+    private static final String ACCESS_TOKEN = "access";
+    private static final String DEAD_TOKEN = "dead";
+
+    private final AtomicInteger auxRequests = new AtomicInteger();
+    private final AtomicInteger revokeRequests = new AtomicInteger();
+
+    private MockWebServer server;
+    private OAuth2Session session;
+    private TokenManager manager;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        auxRequests.set(0);
+        revokeRequests.set(0);
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+                if (authorization.endsWith(DEAD_TOKEN)) {
+                    return new MockResponse()
+                            .setResponseCode(401)
+                            .addHeader(HttpHeaders.WWW_AUTHENTICATE,
+                                    "Bearer error=\"invalid_token\"");
+                }
+                String body;
+                if (request.getPath().endsWith("/token-aux")) {
+                    Thread.sleep(100);
+                    body = "{\"aux_token\":\"aux" + auxRequests.incrementAndGet() + "\"}";
+                } else if (request.getPath().endsWith("/revoke")) {
+                    revokeRequests.incrementAndGet();
+                    body = "{}";
+                } else {
+                    body = "{\"account\":\"1\",\"balance\":1,\"currency\":\"643\"," +
+                            "\"account_status\":\"named\",\"account_type\":\"personal\"," +
+                            "\"balance_details\":{\"total\":1,\"available\":1}}";
+                }
+                return new MockResponse()
+                        .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                        .setBody(body);
+            }
+        });
+        server.start();
+        session = new OAuth2Session(new DefaultApiClient("stub") {
+            @Override
+            public HostsProvider getHostsProvider() {
+                return new HostsProvider(false) {
+                    @Override
+                    public String getMoney() {
+                        return server.getUrl("").toString();
+                    }
+                };
+            }
+        });
+        manager = new TokenManager.Builder()
+                .setSession(session)
+                .setMaxWallets(2)
+                .create();
+        manager.putAccessToken(WALLET, scopes(Scope.ACCOUNT_INFO, Scope.OPERATION_HISTORY),
+                ACCESS_TOKEN);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testDeduplication() throws Exception {
+        List<ApiFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            // the same scopes in different order
+            futures.add(manager.getAuxToken(WALLET, i % 2 == 0 ?
+                    scopes(Scope.ACCOUNT_INFO, Scope.OPERATION_HISTORY) :
+                    scopes(Scope.OPERATION_HISTORY, Scope.ACCOUNT_INFO)));
+        }
+        for (ApiFuture<String> future : futures) {
+            Assert.assertEquals(future.get(5, TimeUnit.SECONDS), "aux1");
+        }
+        Assert.assertEquals(auxRequests.get(), 1);
+
+        // cached
+        Assert.assertEquals(manager.getAuxToken(WALLET, scopes(Scope.ACCOUNT_INFO)).get(), "aux2");
+        Assert.assertEquals(manager.getAuxToken(WALLET, scopes(Scope.ACCOUNT_INFO)).get(), "aux2");
+        Assert.assertEquals(auxRequests.get(), 2);
+
+        // the access token does not have the scope
+        try {
+            manager.getAuxToken(WALLET, scopes(Scope.PAYMENT_P2P)).get();
+            Assert.fail("aux token is issued");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof InvalidTokenException);
+        }
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        Set<Scope> scopes = scopes(Scope.ACCOUNT_INFO);
+        Assert.assertNotNull(manager.enqueue(WALLET, scopes, new AccountInfo.Request())
+                .get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(manager.getAccessToken(WALLET, scopes), ACCESS_TOKEN);
+
+        // rejected token is evicted
+        manager.putAccessToken("other", scopes, DEAD_TOKEN);
+        try {
+            manager.getAuxToken("other", scopes).get();
+            Assert.fail("aux token is issued");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof InvalidTokenException);
+        }
+        Assert.assertNull(manager.getAccessToken("other", scopes));
+
+        // revoked tokens are evicted
+        manager.revoke(WALLET, ACCESS_TOKEN, true).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(revokeRequests.get(), 1);
+        Assert.assertNull(manager.getAccessToken(WALLET, scopes));
+
+        // least recently used wallets are evicted
+        manager.putAccessToken("a", scopes, "a");
+        manager.putAccessToken("b", scopes, "b");
+        Assert.assertEquals(manager.getAccessToken("a", scopes), "a");
+        manager.putAccessToken("c", scopes, "c");
+        Assert.assertEquals(manager.size(), 2);
+        Assert.assertNull(manager.getAccessToken("b", scopes));
+        Assert.assertEquals(manager.getAccessToken("a", scopes), "a");
+    }
+
+    private static Set<Scope> scopes(Scope... scopes) {
+        return new LinkedHashSet<>(Arrays.asList(scopes));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 NBCO Yandex.Money LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.yandex.money.test;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.yandex.money.api.methods.InstanceId;
+import com.yandex.money.api.net.DefaultApiClient;
+import com.yandex.money.api.net.HostsProvider;
+import com.yandex.money.api.net.OAuth2Session;
+import com.yandex.money.api.net.WireCapture;
+import com.yandex.money.api.utils.HttpHeaders;
+import com.yandex.money.api.utils.MimeTypes;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+public class WireCaptureTest {
+
+    private static final String BODY = "{\"status\":\"success\",\"instance_id\":\"abc\"}";
+
+    private final MockWebServer server = new MockWebServer();
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        server.useHttps(TestSsl.serverSocketFactory(), false);
+        server.start();
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testCapture() throws Exception {
+        File directory = Files.createTempDirectory("wire").toFile();
+        WireCapture capture = new WireCapture.Builder()
+                .setDirectory(directory)
+                .setMaxPayloadSize(100)
+                .create();
+
+        DefaultApiClient client = createClient();
+        client.setWireCapture(capture);
+        server.enqueue(new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                .setBody(BODY));
+        new OAuth2Session(client).execute(new InstanceId.Request("stub"));
+        capture.close();
+
+        String content = read(new File(directory, "wire.log"));
+        Assert.assertTrue(content.contains("OPENED"), content);
+        Assert.assertTrue(content.contains("POST /api/instance-id"), content);
+        Assert.assertTrue(content.contains("WRITE: truncated"), content);
+        Assert.assertEquals(capture.getDroppedBytes(), 0);
+        Assert.assertTrue(capture.getWrittenBytes() > 0 && capture.getWrittenBytes() <= 200);
+    }
+
+    @Test
+    public void testRotation() throws Exception {
+        File directory = Files.createTempDirectory("wire").toFile();
+        WireCapture capture = new WireCapture.Builder()
+                .setDirectory(directory)
+                .setMaxFileSize(200)
+                .setMaxFiles(2)
+                .create();
+
+        DefaultApiClient client = createClient();
+        client.setWireCapture(capture);
+        OAuth2Session session = new OAuth2Session(client);
+        for (int i = 0; i < 3; ++i) {
+            server.enqueue(new MockResponse()
+                    .addHeader(HttpHeaders.CONTENT_TYPE, MimeTypes.Application.JSON)
+                    .setBody(BODY));
+            session.execute(new InstanceId.Request("stub"));
+        }
+        capture.close();
+
+        Assert.assertTrue(new File(directory, "wire.log").exists());
+        Assert.assertTrue(new File(directory, "wire.1.log").exists());
+        Assert.assertFalse(new File(directory, "wire.2.log").exists());
+    }
+
+    private DefaultApiClient createClient() {
+        DefaultApiClient client = new DefaultApiClient("stub") {
+            @Override
+            public HostsProvider getHostsProvider() {
+                return new HostsProvider(false) {
+                    @Override
+                    public String getMoney() {
+                        return server.getUrl("").toString();
+                    }
+                };
+            }
+        };
+        TestSsl.trustAll(client.getHttpClient());
+        return client;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), Charset.forName("US-ASCII"));
+    }
+}